@@ -7,10 +7,14 @@ import org.remapper.dto.EntityMatchingJSON;
 import org.remapper.dto.LocationDeserializer;
 import org.remapper.dto.MatchPair;
 import org.remapper.handler.MatchingHandler;
+import org.remapper.server.MatcherServer;
 import org.remapper.service.EntityMatcherService;
 import org.remapper.service.EntityMatcherServiceImpl;
 import org.remapper.service.GitService;
+import org.remapper.service.MatchingPipeline;
 import org.remapper.util.GitServiceImpl;
+import org.remapper.util.JsonLinesWriter;
+import org.remapper.util.MinHashBlocking;
 
 import java.io.BufferedWriter;
 import java.io.FileReader;
@@ -19,12 +23,30 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 public class ReMapper {
 
     private static Path path = null;
+    private static JsonLinesWriter jsonLinesWriter = null;
+    private static MinHashBlocking blocking = null;
+    private static boolean includeFileContents = true;
+    private static boolean includeMetrics = false;
 
     public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("-blobids")) {
+            includeFileContents = false;
+            args = Arrays.stream(args).filter(arg -> !arg.equals("-blobids")).toArray(String[]::new);
+        }
+        if (Arrays.asList(args).contains("-metrics")) {
+            includeMetrics = true;
+            args = Arrays.stream(args).filter(arg -> !arg.equals("-metrics")).toArray(String[]::new);
+        }
+        if (Arrays.asList(args).contains("-blocking")) {
+            blocking = new MinHashBlocking();
+            args = Arrays.stream(args).filter(arg -> !arg.equals("-blocking")).toArray(String[]::new);
+        }
         if (args.length < 1) {
             throw argumentException();
         }
@@ -36,12 +58,34 @@ public class ReMapper {
             return;
         }
 
+        try {
+            dispatch(option, args);
+        } finally {
+            if (jsonLinesWriter != null) {
+                jsonLinesWriter.close();
+                jsonLinesWriter = null;
+            }
+        }
+    }
+
+    private static void dispatch(String option, String[] args) throws Exception {
         if (option.equalsIgnoreCase("-bc")) {
             detectBetweenCommits(args);
         } else if (option.equalsIgnoreCase("-bt")) {
             detectBetweenTags(args);
         } else if (option.equalsIgnoreCase("-c")) {
             detectAtCommit(args);
+        } else if (option.equalsIgnoreCase("-hc")) {
+            detectCommitsBetweenCommits(args);
+        } else if (option.equalsIgnoreCase("-pc")) {
+            detectCommitsInPipeline(args);
+        } else if (option.equalsIgnoreCase("-server")) {
+            startServer(args);
+        } else if (option.equalsIgnoreCase("-jsonl2json")) {
+            if (args.length != 3) {
+                throw argumentException();
+            }
+            JsonLinesWriter.toJSON(Paths.get(args[1]), Paths.get(args[2]));
         } else {
             throw argumentException();
         }
@@ -58,7 +102,7 @@ public class ReMapper {
         GitService gitService = new GitServiceImpl();
         try (Repository repo = gitService.openRepository(folder)) {
             String gitURL = GitServiceImpl.getRemoteUrl(folder);
-            EntityMatcherService service = new EntityMatcherServiceImpl();
+            EntityMatcherService service = newService();
             service.matchBetweenCommits(repo, startCommit, endCommit, new MatchingHandler() {
                 @Override
                 public void handle(String startCommitId, String endCommitId, MatchPair matchPair) {
@@ -85,7 +129,7 @@ public class ReMapper {
         GitService gitService = new GitServiceImpl();
         try (Repository repo = gitService.openRepository(folder)) {
             String gitURL = GitServiceImpl.getRemoteUrl(folder);
-            EntityMatcherService service = new EntityMatcherServiceImpl();
+            EntityMatcherService service = newService();
             service.matchBetweenTags(repo, startTag, endTag, new MatchingHandler() {
                 @Override
                 public void handle(String startTag, String endTag, MatchPair matchPair) {
@@ -111,7 +155,7 @@ public class ReMapper {
         GitService gitService = new GitServiceImpl();
         try (Repository repo = gitService.openRepository(folder)) {
             String gitURL = GitServiceImpl.getRemoteUrl(folder);
-            EntityMatcherService service = new EntityMatcherServiceImpl();
+            EntityMatcherService service = newService();
             service.matchAtCommit(repo, commitId, new MatchingHandler() {
                 @Override
                 public void handle(String commitId, MatchPair matchPair) {
@@ -127,21 +171,124 @@ public class ReMapper {
         }
     }
 
+    public static void detectCommitsBetweenCommits(String[] args) throws Exception {
+        int maxArgLength = processJSONoption(args, 5);
+        if (args.length != maxArgLength) {
+            throw argumentException();
+        }
+        String folder = args[1];
+        String startCommit = args[2];
+        String endCommit = args[3];
+        int threads = Integer.parseInt(args[4]);
+        GitService gitService = new GitServiceImpl();
+        try (Repository repo = gitService.openRepository(folder)) {
+            String gitURL = GitServiceImpl.getRemoteUrl(folder);
+            EntityMatcherService service = newService();
+            service.matchCommitsBetweenCommits(repo, startCommit, endCommit, new MatchingHandler() {
+                @Override
+                public void handle(String commitId, MatchPair matchPair) {
+                    commitJSON(gitURL, commitId, matchPair);
+                }
+
+                @Override
+                public void handleException(String commitId, Exception e) {
+                    System.err.println("Error processing commit " + commitId);
+                    e.printStackTrace(System.err);
+                }
+
+                @Override
+                public void handleException(String startCommitId, String endCommitId, Exception e) {
+                    System.err.println("Error listing commits between " + startCommitId + " and " + endCommitId);
+                    e.printStackTrace(System.err);
+                }
+            }, threads);
+        }
+    }
+
+    public static void detectCommitsInPipeline(String[] args) throws Exception {
+        int maxArgLength = processJSONoption(args, 4);
+        if (args.length != maxArgLength) {
+            throw argumentException();
+        }
+        String folder = args[1];
+        String startCommit = args[2];
+        String endCommit = args[3];
+        GitService gitService = new GitServiceImpl();
+        try (Repository repo = gitService.openRepository(folder)) {
+            String gitURL = GitServiceImpl.getRemoteUrl(folder);
+            EntityMatcherServiceImpl service = newService();
+            List<MatchingPipeline.StageMetrics> metrics = service.matchCommitsInPipeline(repo, startCommit, endCommit, new MatchingHandler() {
+                @Override
+                public void handle(String commitId, MatchPair matchPair) {
+                    commitJSON(gitURL, commitId, matchPair);
+                }
+
+                @Override
+                public void handleException(String commitId, Exception e) {
+                    System.err.println("Error processing commit " + commitId);
+                    e.printStackTrace(System.err);
+                }
+
+                @Override
+                public void handleException(String startCommitId, String endCommitId, Exception e) {
+                    System.err.println("Error listing commits between " + startCommitId + " and " + endCommitId);
+                    e.printStackTrace(System.err);
+                }
+            });
+            for (MatchingPipeline.StageMetrics stage : metrics)
+                System.err.println(stage);
+        }
+    }
+
+    public static void startServer(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 4) {
+            throw argumentException();
+        }
+        int port = Integer.parseInt(args[1]);
+        int maxConcurrentRequests = args.length > 2 ? Integer.parseInt(args[2]) : MatcherServer.DEFAULT_MAX_CONCURRENT_REQUESTS;
+        int timeout = args.length > 3 ? Integer.parseInt(args[3]) : MatcherServer.DEFAULT_TIMEOUT_SECONDS;
+        MatcherServer server = new MatcherServer(port, maxConcurrentRequests, timeout);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.getPort() + "/match");
+    }
+
     private static int processJSONoption(String[] args, int maxArgLength) {
-        if (args[args.length - 2].equalsIgnoreCase("-json")) {
+        if (args[args.length - 2].equalsIgnoreCase("-json") || args[args.length - 2].equalsIgnoreCase("-jsonl")) {
             path = Paths.get(args[args.length - 1]);
             maxArgLength = maxArgLength + 2;
         }
+        if (args[args.length - 2].equalsIgnoreCase("-jsonl")) {
+            try {
+                jsonLinesWriter = new JsonLinesWriter(path, includeFileContents, includeMetrics);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return maxArgLength;
     }
 
     private static boolean containsEndArgument(String[] args) {
-        return args.length == 4 || (args.length > 4 && args[4].equalsIgnoreCase("-json"));
+        return args.length == 4 || (args.length > 4 && (args[4].equalsIgnoreCase("-json") || args[4].equalsIgnoreCase("-jsonl")));
+    }
+
+    private static EntityMatcherServiceImpl newService() {
+        EntityMatcherServiceImpl service = new EntityMatcherServiceImpl();
+        service.setBlocking(blocking);
+        return service;
     }
 
     private static void commitJSON(String cloneURL, String currentCommitId, MatchPair matchPair) {
         Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().registerTypeAdapter(EntityMatchingJSON.Location.class, new LocationDeserializer()).create();
         String url = cloneURL.replace(".git", "/commit/") + currentCommitId;
+        if (jsonLinesWriter != null) {
+            try {
+                jsonLinesWriter.write(cloneURL, currentCommitId, url, matchPair);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
         if (Files.notExists(path)) {
             Path parent = path.getParent();
             try {
@@ -154,7 +301,7 @@ public class ReMapper {
             }
             try (BufferedWriter out = new BufferedWriter(new FileWriter(path.toFile()))) {
                 EntityMatchingJSON results = new EntityMatchingJSON();
-                results.populateJSON(cloneURL, currentCommitId, url, matchPair);
+                results.populateJSON(cloneURL, currentCommitId, url, matchPair, includeFileContents, includeMetrics);
                 String jsonString = gson.toJson(results, EntityMatchingJSON.class);
                 out.write(jsonString);
             } catch (IOException e) {
@@ -163,7 +310,7 @@ public class ReMapper {
         } else {
             try (FileReader reader = new FileReader(path.toFile())) {
                 EntityMatchingJSON results = gson.fromJson(reader, EntityMatchingJSON.class);
-                results.populateJSON(cloneURL, currentCommitId, url, matchPair);
+                results.populateJSON(cloneURL, currentCommitId, url, matchPair, includeFileContents, includeMetrics);
                 String jsonString = gson.toJson(results, EntityMatchingJSON.class);
                 BufferedWriter out = new BufferedWriter(new FileWriter(path.toFile()));
                 out.write(jsonString);
@@ -182,6 +329,22 @@ public class ReMapper {
                 "-bt <git-repo-folder> <start-tag> <end-tag> -json <path-to-json-file>\t\t\tMatch entities between <start-tag> and <end-tag> for project <git-repo-folder>");
         System.out.println(
                 "-c <git-repo-folder> <commit-sha1> -json <path-to-json-file>\t\t\t\tMatch entities at specified commit <commit-sha1> for project <git-repo-folder>");
+        System.out.println(
+                "-hc <git-repo-folder> <start-commit-sha1> <end-commit-sha1> <threads> -json <path-to-json-file>\tMatch entities in every commit after <start-commit-sha1> up to <end-commit-sha1> with <threads> workers");
+        System.out.println(
+                "-pc <git-repo-folder> <start-commit-sha1> <end-commit-sha1> -json <path-to-json-file>\t\tSame as -hc on one staged pipeline that prefetches the next commits");
+        System.out.println(
+                "-jsonl <path-to-jsonl-file>\t\t\t\t\t\t\t\tUse instead of -json to append one JSON Lines record per commit");
+        System.out.println(
+                "-blobids\t\t\t\t\t\t\t\t\t\tRecord the blob ids of changed files instead of their contents");
+        System.out.println(
+                "-metrics\t\t\t\t\t\t\t\t\t\tEmbed the wall time, allocated bytes and scored pairs of each matching phase, and the counters of the commit");
+        System.out.println(
+                "-blocking\t\t\t\t\t\t\t\t\t\tOnly score the entity pairs found by MinHash blocking when matching large deleted/added sets");
+        System.out.println(
+                "-jsonl2json <path-to-jsonl-file> <path-to-json-file>\t\t\t\t\tConvert a -jsonl file into the -json format");
+        System.out.println(
+                "-server <port> <max-concurrent-requests> <timeout-seconds>\t\t\t\tServe match requests on localhost:<port> from a warm JVM");
     }
 
     private static IllegalArgumentException argumentException() {
@@ -0,0 +1,100 @@
+package org.remapper.dto;
+
+import java.util.*;
+
+/**
+ * A one-to-one map that also indexes its values, so that the key mapped to a value is found in constant time.
+ * Putting a mapping replaces any previous mapping of the same key or of the same value. Null values are not supported.
+ */
+public class BidirectionalMap<K, V> extends AbstractMap<K, V> {
+
+    private final Map<K, V> forward;
+    private final Map<V, K> inverse = new HashMap<>();
+
+    public BidirectionalMap() {
+        this(new LinkedHashMap<>());
+    }
+
+    /**
+     * @param forward an empty map that holds the key to value mappings and decides their iteration order
+     */
+    public BidirectionalMap(Map<K, V> forward) {
+        this.forward = forward;
+    }
+
+    @Override
+    public V get(Object key) {
+        return forward.get(key);
+    }
+
+    /**
+     * @return the key mapped to the given value, or null if the value is not mapped
+     */
+    public K getKey(V value) {
+        return inverse.get(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return forward.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return inverse.containsKey(value);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        K previousKey = inverse.remove(value);
+        if (previousKey != null && !Objects.equals(previousKey, key))
+            forward.remove(previousKey);
+        V previousValue = forward.put(key, value);
+        if (previousValue != null && !Objects.equals(previousValue, value))
+            inverse.remove(previousValue);
+        inverse.put(value, key);
+        return previousValue;
+    }
+
+    @Override
+    public V remove(Object key) {
+        V value = forward.remove(key);
+        if (value != null)
+            inverse.remove(value);
+        return value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (value == null || !Objects.equals(forward.get(key), value))
+            return false;
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return forward.size();
+    }
+
+    @Override
+    public void clear() {
+        forward.clear();
+        inverse.clear();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(forward.keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(forward.values());
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return Collections.unmodifiableMap(forward).entrySet();
+    }
+}
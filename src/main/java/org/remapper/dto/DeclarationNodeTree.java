@@ -26,6 +26,11 @@ public abstract class DeclarationNodeTree implements LocationInfoProvider {
     private MethodNode methodNode;
     private LocationInfo locationInfo;
     private List<EntityInfo> dependencies;
+    private TokenBag descendantTokens;
+    private TokenBag bodyTokens;
+    private Long bodyHash;
+    private long structuralHash;
+    private boolean hasStructuralHash;
 
     public DeclarationNodeTree() {
     }
@@ -82,6 +87,61 @@ public abstract class DeclarationNodeTree implements LocationInfoProvider {
 
     public void setDeclaration(ASTNode declaration) {
         this.declaration = declaration;
+        this.descendantTokens = null;
+        this.bodyTokens = null;
+        this.bodyHash = null;
+        this.hasStructuralHash = false;
+    }
+
+    /**
+     * @param structuralHash the bottom-up hash of the declaration, computed for all declarations of a file when it is parsed
+     */
+    public void setStructuralHash(long structuralHash) {
+        this.structuralHash = structuralHash;
+        this.hasStructuralHash = true;
+    }
+
+    /**
+     * @return whether both declarations print the same; the strings are only compared if the structural hashes
+     * agree or one of them is unknown
+     */
+    public boolean hasSameDeclaration(DeclarationNodeTree other) {
+        if (this.hasStructuralHash && other.hasStructuralHash && this.structuralHash != other.structuralHash)
+            return false;
+        return StringUtils.equals(this.declaration.toString(), other.declaration.toString());
+    }
+
+    /**
+     * @return the memoized descendant tokens of the declaration, or null if not computed yet
+     */
+    public TokenBag getDescendantTokens() {
+        return descendantTokens;
+    }
+
+    public void setDescendantTokens(TokenBag descendantTokens) {
+        this.descendantTokens = descendantTokens;
+    }
+
+    /**
+     * @return the memoized descendant tokens of the method or initializer body, or null if not computed yet
+     */
+    public TokenBag getBodyTokens() {
+        return bodyTokens;
+    }
+
+    public void setBodyTokens(TokenBag bodyTokens) {
+        this.bodyTokens = bodyTokens;
+    }
+
+    /**
+     * @return the memoized structural hash of the method or initializer body, or null if not computed yet
+     */
+    public Long getBodyHash() {
+        return bodyHash;
+    }
+
+    public void setBodyHash(Long bodyHash) {
+        this.bodyHash = bodyHash;
     }
 
     public List<DeclarationNodeTree> getChildren() {
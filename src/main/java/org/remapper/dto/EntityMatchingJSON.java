@@ -3,6 +3,7 @@ package org.remapper.dto;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.lang3.tuple.Pair;
+import org.eclipse.jgit.lib.ObjectId;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -20,10 +21,48 @@ public class EntityMatchingJSON {
     }
 
     public void populateJSON(String repository, String sha1, String url, MatchPair matchPair) {
-        Result result = new Result(repository, sha1, url, matchPair);
+        populateJSON(repository, sha1, url, matchPair, true, false);
+    }
+
+    public void populateJSON(String repository, String sha1, String url, MatchPair matchPair, boolean fileContents) {
+        populateJSON(repository, sha1, url, matchPair, fileContents, false);
+    }
+
+    /**
+     * @param fileContents copy the old and new source of every changed file, or only record their blob ids
+     *                     (see {@link org.remapper.util.FileContentReader})
+     * @param metrics      embed the per-phase metrics of the commit, when these were kept in a {@link PhaseMetrics}
+     */
+    public void populateJSON(String repository, String sha1, String url, MatchPair matchPair, boolean fileContents,
+                             boolean metrics) {
+        Result result = new Result(repository, sha1, url, matchPair, fileContents, metrics);
         results.add(result);
     }
 
+    /**
+     * @return the changed files recorded by the blob ids of their two versions, in the order of the file contents
+     * of a result: modified, renamed, deleted and added files
+     */
+    public List<FileContent> createFileBlobIds(Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                                               Set<String> deletedFiles, Set<String> addedFiles,
+                                               Map<String, ObjectId> blobIdsBefore, Map<String, ObjectId> blobIdsCurrent) {
+        List<FileContent> files = new ArrayList<>();
+        for (String name : modifiedFiles) {
+            files.add(new FileContent(name, blobIdsBefore.get(name), blobIdsCurrent.get(name)));
+        }
+        for (String oldName : renamedFiles.keySet()) {
+            String newName = renamedFiles.get(oldName);
+            files.add(new FileContent(oldName + " --> " + newName, blobIdsBefore.get(oldName), blobIdsCurrent.get(newName)));
+        }
+        for (String name : deletedFiles) {
+            files.add(new FileContent(name, blobIdsBefore.get(name), (ObjectId) null));
+        }
+        for (String name : addedFiles) {
+            files.add(new FileContent(name, (ObjectId) null, blobIdsCurrent.get(name)));
+        }
+        return files;
+    }
+
     @Getter
     @Setter
     public class Result {
@@ -33,12 +72,44 @@ public class EntityMatchingJSON {
         private String url;
         private List<FileContent> files;
         private List<Entity> matchedEntities;
+        private List<PhaseMetrics.Phase> metrics;
+        private Map<String, Long> counters;
 
         public Result(String repository, String sha1, String url, MatchPair matchPair) {
+            this(repository, sha1, url, matchPair, true);
+        }
+
+        public Result(String repository, String sha1, String url, MatchPair matchPair, boolean fileContents) {
+            this(repository, sha1, url, matchPair, fileContents, false);
+        }
+
+        public Result(String repository, String sha1, String url, MatchPair matchPair, boolean fileContents,
+                      boolean metrics) {
             this.repository = repository;
             this.sha1 = sha1;
             this.url = url;
-            this.files = new ArrayList<>();
+            this.files = fileContents ? getFileContents(matchPair) : getFileBlobIds(matchPair);
+            this.matchedEntities = new ArrayList<>();
+            for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchPair.getMatchedEntities()) {
+                Location left = new EntityLocation(pair.getLeft().getEntity());
+                Location right = new EntityLocation(pair.getRight().getEntity());
+                Entity entity = new Entity(left, right);
+                this.matchedEntities.add(entity);
+            }
+            for (Pair<StatementNodeTree, StatementNodeTree> pair : matchPair.getMatchedStatements()) {
+                Location left = new StatementLocation(pair.getLeft().getEntity());
+                Location right = new StatementLocation(pair.getRight().getEntity());
+                Entity entity = new Entity(left, right);
+                this.matchedEntities.add(entity);
+            }
+            if (metrics && matchPair.getMetrics() instanceof PhaseMetrics) {
+                this.metrics = ((PhaseMetrics) matchPair.getMetrics()).getPhases();
+                this.counters = ((PhaseMetrics) matchPair.getMetrics()).getCounters();
+            }
+        }
+
+        private List<FileContent> getFileContents(MatchPair matchPair) {
+            List<FileContent> files = new ArrayList<>();
             Map<String, String> fileContentsBefore = matchPair.getFileContentsBefore();
             Map<String, String> fileContentsCurrent = matchPair.getFileContentsCurrent();
             Set<String> modifiedFiles = matchPair.getModifiedFiles();
@@ -62,19 +133,12 @@ public class EntityMatchingJSON {
                 FileContent fileContent = new FileContent(name, "", fileContentsCurrent.get(name));
                 files.add(fileContent);
             }
-            this.matchedEntities = new ArrayList<>();
-            for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchPair.getMatchedEntities()) {
-                Location left = new EntityLocation(pair.getLeft().getEntity());
-                Location right = new EntityLocation(pair.getRight().getEntity());
-                Entity entity = new Entity(left, right);
-                this.matchedEntities.add(entity);
-            }
-            for (Pair<StatementNodeTree, StatementNodeTree> pair : matchPair.getMatchedStatements()) {
-                Location left = new StatementLocation(pair.getLeft().getEntity());
-                Location right = new StatementLocation(pair.getRight().getEntity());
-                Entity entity = new Entity(left, right);
-                this.matchedEntities.add(entity);
-            }
+            return files;
+        }
+
+        private List<FileContent> getFileBlobIds(MatchPair matchPair) {
+            return createFileBlobIds(matchPair.getModifiedFiles(), matchPair.getRenamedFiles(), matchPair.getDeletedFiles(),
+                    matchPair.getAddedFiles(), matchPair.getBlobIdsBefore(), matchPair.getBlobIdsCurrent());
         }
     }
 
@@ -85,12 +149,23 @@ public class EntityMatchingJSON {
         private String name;
         private String oldCode;
         private String newCode;
+        private String oldBlobId;
+        private String newBlobId;
 
         public FileContent(String name, String oldCode, String newCode) {
             this.name = name;
             this.oldCode = oldCode;
             this.newCode = newCode;
         }
+
+        /**
+         * A file recorded by the blob ids of its two versions; a missing version has no blob id.
+         */
+        public FileContent(String name, ObjectId oldBlobId, ObjectId newBlobId) {
+            this.name = name;
+            this.oldBlobId = oldBlobId == null ? null : oldBlobId.getName();
+            this.newBlobId = newBlobId == null ? null : newBlobId.getName();
+        }
     }
 
     @Getter
@@ -1,8 +1,12 @@
 package org.remapper.dto;
 
 import org.apache.commons.lang3.tuple.Pair;
+import org.eclipse.jgit.lib.ObjectId;
+import org.remapper.handler.MetricsCollector;
+import org.remapper.util.CancellationToken;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class MatchPair {
@@ -16,13 +20,15 @@ public class MatchPair {
     private Map<String, String> renamedFiles;
     private Map<String, String> fileContentsBefore;
     private Map<String, String> fileContentsCurrent;
+    private Map<String, ObjectId> blobIdsBefore;
+    private Map<String, ObjectId> blobIdsCurrent;
 
     /**
      * Software Entities
      */
-    private Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> unchangedEntities;
-    private Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> matchedEntities;
-    private Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> candidateEntities;
+    private PairSet<DeclarationNodeTree, DeclarationNodeTree> unchangedEntities;
+    private PairSet<DeclarationNodeTree, DeclarationNodeTree> matchedEntities;
+    private PairSet<DeclarationNodeTree, DeclarationNodeTree> candidateEntities;
     private Set<DeclarationNodeTree> deletedEntities;
     private Set<DeclarationNodeTree> addedEntities;
     private Set<DeclarationNodeTree> inlinedEntities;
@@ -31,8 +37,8 @@ public class MatchPair {
     /**
      * Method Statements
      */
-    private Set<Pair<StatementNodeTree, StatementNodeTree>> matchedStatements;
-    private Set<Pair<StatementNodeTree, StatementNodeTree>> candidateStatements;
+    private PairSet<StatementNodeTree, StatementNodeTree> matchedStatements;
+    private PairSet<StatementNodeTree, StatementNodeTree> candidateStatements;
     private Set<StatementNodeTree> deletedStatements;
     private Set<StatementNodeTree> addedStatements;
 
@@ -40,6 +46,15 @@ public class MatchPair {
     private Set<Pair<StatementNodeTree, DeclarationNodeTree>> variableMapAttributes;
     private Map<DeclarationNodeTree, Set<Pair<DeclarationNodeTree, DeclarationNodeTree>>> introducedObjects;
 
+    /**
+     * Instrumentation
+     */
+    private MetricsCollector metrics;
+    private final LongAdder scoredPairs = new LongAdder();
+    private final LongAdder sizeBoundCutoffs = new LongAdder();
+    private final LongAdder intersectionCutoffs = new LongAdder();
+    private CancellationToken cancellationToken = CancellationToken.NONE;
+
     public MatchPair() {
         addedFiles = new LinkedHashSet<>();
         deletedFiles = new LinkedHashSet<>();
@@ -47,17 +62,20 @@ public class MatchPair {
         renamedFiles = new LinkedHashMap<>();
         fileContentsBefore = new LinkedHashMap<>();
         fileContentsCurrent = new LinkedHashMap<>();
+        blobIdsBefore = new LinkedHashMap<>();
+        blobIdsCurrent = new LinkedHashMap<>();
+        metrics = new PhaseMetrics();
 
-        unchangedEntities = new LinkedHashSet<>();
-        matchedEntities = new LinkedHashSet<>();
-        candidateEntities = new LinkedHashSet<>();
+        unchangedEntities = new PairSet<>();
+        matchedEntities = new PairSet<>();
+        candidateEntities = new PairSet<>();
         deletedEntities = new LinkedHashSet<>();
         addedEntities = new LinkedHashSet<>();
         inlinedEntities = new LinkedHashSet<>();
         extractedEntities = new LinkedHashSet<>();
 
-        matchedStatements = new LinkedHashSet<>();
-        candidateStatements = new LinkedHashSet<>();
+        matchedStatements = new PairSet<>();
+        candidateStatements = new PairSet<>();
         deletedStatements = new LinkedHashSet<>();
         addedStatements = new LinkedHashSet<>();
         attributeMapVariables = new LinkedHashSet<>();
@@ -113,6 +131,79 @@ public class MatchPair {
         this.fileContentsCurrent = fileContentsCurrent;
     }
 
+    public Map<String, ObjectId> getBlobIdsBefore() {
+        return blobIdsBefore;
+    }
+
+    public void setBlobIdsBefore(Map<String, ObjectId> blobIdsBefore) {
+        this.blobIdsBefore = blobIdsBefore;
+    }
+
+    public Map<String, ObjectId> getBlobIdsCurrent() {
+        return blobIdsCurrent;
+    }
+
+    public void setBlobIdsCurrent(Map<String, ObjectId> blobIdsCurrent) {
+        this.blobIdsCurrent = blobIdsCurrent;
+    }
+
+    public MetricsCollector getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(MetricsCollector metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Count one similarity computation between two candidate entities or statements of this commit.
+     */
+    public void countScoredPair() {
+        scoredPairs.increment();
+    }
+
+    public long getScoredPairCount() {
+        return scoredPairs.sum();
+    }
+
+    /**
+     * Count one Dice computation skipped because 2 * min(|A|, |B|) / (|A| + |B|) was below the threshold.
+     */
+    public void countSizeBoundCutoff() {
+        sizeBoundCutoffs.increment();
+    }
+
+    public long getSizeBoundCutoffCount() {
+        return sizeBoundCutoffs.sum();
+    }
+
+    /**
+     * Count one Dice computation whose intersection was abandoned once the threshold became unreachable.
+     */
+    public void countIntersectionCutoff() {
+        intersectionCutoffs.increment();
+    }
+
+    public long getIntersectionCutoffCount() {
+        return intersectionCutoffs.sum();
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Stop the matching of this commit with a {@link org.remapper.util.MatchingCancelledException} if its
+     * cancellation token was cancelled.
+     */
+    public void checkCancelled() {
+        cancellationToken.checkpoint();
+    }
+
     /**
      * Methods related to the matching between software entities
      *
@@ -126,6 +217,10 @@ public class MatchPair {
         return unchangedEntities.stream().map(pair -> Pair.of(pair.getLeft().getEntity(), pair.getRight().getEntity())).collect(Collectors.toCollection(LinkedHashSet::new));
     }
 
+    public boolean isUnchangedEntity(DeclarationNodeTree entityBefore, DeclarationNodeTree entityCurrent) {
+        return unchangedEntities.contains(entityBefore, entityCurrent);
+    }
+
     public void addUnchangedEntity(DeclarationNodeTree entityBefore, DeclarationNodeTree entityCurrent) {
         unchangedEntities.add(Pair.of(entityBefore, entityCurrent));
     }
@@ -143,11 +238,23 @@ public class MatchPair {
     }
 
     public Set<DeclarationNodeTree> getMatchedEntitiesLeft() {
-        return matchedEntities.stream().map(Pair::getLeft).collect(Collectors.toCollection(LinkedHashSet::new));
+        return matchedEntities.lefts();
     }
 
     public Set<DeclarationNodeTree> getMatchedEntitiesRight() {
-        return matchedEntities.stream().map(Pair::getRight).collect(Collectors.toCollection(LinkedHashSet::new));
+        return matchedEntities.rights();
+    }
+
+    public boolean isMatchedEntity(DeclarationNodeTree entityBefore, DeclarationNodeTree entityCurrent) {
+        return matchedEntities.contains(entityBefore, entityCurrent);
+    }
+
+    /**
+     * @return the entity matched with the given one on the other side, or null if it is not matched
+     */
+    public DeclarationNodeTree partnerOf(DeclarationNodeTree entity) {
+        DeclarationNodeTree partner = matchedEntities.getRight(entity);
+        return partner != null ? partner : matchedEntities.getLeft(entity);
     }
 
     public void addMatchedEntity(DeclarationNodeTree entityBefore, DeclarationNodeTree entityCurrent) {
@@ -163,11 +270,15 @@ public class MatchPair {
     }
 
     public Set<DeclarationNodeTree> getCandidateEntitiesLeft() {
-        return candidateEntities.stream().map(Pair::getLeft).collect(Collectors.toCollection(LinkedHashSet::new));
+        return candidateEntities.lefts();
     }
 
     public Set<DeclarationNodeTree> getCandidateEntitiesRight() {
-        return candidateEntities.stream().map(Pair::getRight).collect(Collectors.toCollection(LinkedHashSet::new));
+        return candidateEntities.rights();
+    }
+
+    public boolean isCandidateEntity(DeclarationNodeTree entityBefore, DeclarationNodeTree entityCurrent) {
+        return candidateEntities.contains(entityBefore, entityCurrent);
     }
 
     public void addCandidateEntity(DeclarationNodeTree entityBefore, DeclarationNodeTree entityCurrent) {
@@ -175,7 +286,7 @@ public class MatchPair {
     }
 
     public void setCandidateEntities(Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> candidateEntities) {
-        this.candidateEntities = candidateEntities;
+        this.candidateEntities = new PairSet<>(candidateEntities);
     }
 
     public Set<DeclarationNodeTree> getDeletedEntities() {
@@ -242,11 +353,23 @@ public class MatchPair {
     }
 
     public Set<StatementNodeTree> getMatchedStatementsLeft() {
-        return matchedStatements.stream().map(Pair::getLeft).collect(Collectors.toCollection(LinkedHashSet::new));
+        return matchedStatements.lefts();
     }
 
     public Set<StatementNodeTree> getMatchedStatementsRight() {
-        return matchedStatements.stream().map(Pair::getRight).collect(Collectors.toCollection(LinkedHashSet::new));
+        return matchedStatements.rights();
+    }
+
+    public boolean isMatchedStatement(StatementNodeTree statementBefore, StatementNodeTree statementCurrent) {
+        return matchedStatements.contains(statementBefore, statementCurrent);
+    }
+
+    /**
+     * @return the statement matched with the given one on the other side, or null if it is not matched
+     */
+    public StatementNodeTree partnerOf(StatementNodeTree statement) {
+        StatementNodeTree partner = matchedStatements.getRight(statement);
+        return partner != null ? partner : matchedStatements.getLeft(statement);
     }
 
     public void addMatchedStatement(StatementNodeTree statementBefore, StatementNodeTree statementCurrent) {
@@ -258,7 +381,11 @@ public class MatchPair {
     }
 
     public void setCandidateStatements(Set<Pair<StatementNodeTree, StatementNodeTree>> candidateStatements) {
-        this.candidateStatements = candidateStatements;
+        this.candidateStatements = new PairSet<>(candidateStatements);
+    }
+
+    public boolean isCandidateStatement(StatementNodeTree statementBefore, StatementNodeTree statementCurrent) {
+        return candidateStatements.contains(statementBefore, statementCurrent);
     }
 
     public Set<StatementNodeTree> getDeletedStatements() {
@@ -0,0 +1,178 @@
+package org.remapper.dto;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+
+/**
+ * An insertion-ordered set of mappings that also indexes both sides by object identity, so that
+ * membership of a mapping and the partner of a node can be looked up without allocating a {@link Pair}.
+ * The indexes are kept in sync with every mutation, including removals through the iterator.
+ */
+public class PairSet<L, R> extends AbstractSet<Pair<L, R>> {
+
+    private final Set<Pair<L, R>> pairs = new LinkedHashSet<>();
+    private final Map<L, List<R>> rightsByLeft = new IdentityHashMap<>();
+    private final Map<R, List<L>> leftsByRight = new IdentityHashMap<>();
+    private Set<L> lefts;
+    private Set<R> rights;
+
+    public PairSet() {
+    }
+
+    public PairSet(Collection<? extends Pair<L, R>> pairs) {
+        addAll(pairs);
+    }
+
+    @Override
+    public boolean add(Pair<L, R> pair) {
+        if (!pairs.add(pair))
+            return false;
+        rightsByLeft.computeIfAbsent(pair.getLeft(), k -> new ArrayList<>(1)).add(pair.getRight());
+        leftsByRight.computeIfAbsent(pair.getRight(), k -> new ArrayList<>(1)).add(pair.getLeft());
+        lefts = null;
+        rights = null;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o) {
+        if (!pairs.remove(o))
+            return false;
+        unindex((Pair<L, R>) o);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return pairs.contains(o);
+    }
+
+    /**
+     * @return whether the given nodes are mapped to each other
+     */
+    public boolean contains(L left, R right) {
+        List<R> partners = rightsByLeft.get(left);
+        if (partners == null)
+            return false;
+        for (int i = 0; i < partners.size(); i++) {
+            if (partners.get(i) == right)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the right node of the earliest mapping of the given left node, or null if it is not mapped
+     */
+    public R getRight(L left) {
+        List<R> partners = rightsByLeft.get(left);
+        return partners == null ? null : partners.get(0);
+    }
+
+    /**
+     * @return the left node of the earliest mapping of the given right node, or null if it is not mapped
+     */
+    public L getLeft(R right) {
+        List<L> partners = leftsByRight.get(right);
+        return partners == null ? null : partners.get(0);
+    }
+
+    public List<R> getRights(L left) {
+        List<R> partners = rightsByLeft.get(left);
+        return partners == null ? Collections.emptyList() : Collections.unmodifiableList(partners);
+    }
+
+    public List<L> getLefts(R right) {
+        List<L> partners = leftsByRight.get(right);
+        return partners == null ? Collections.emptyList() : Collections.unmodifiableList(partners);
+    }
+
+    /**
+     * @return the left nodes in mapping order, as a read-only snapshot that is rebuilt only after a mutation
+     */
+    public Set<L> lefts() {
+        if (lefts == null) {
+            Set<L> set = new LinkedHashSet<>();
+            for (Pair<L, R> pair : pairs)
+                set.add(pair.getLeft());
+            lefts = Collections.unmodifiableSet(set);
+        }
+        return lefts;
+    }
+
+    /**
+     * @return the right nodes in mapping order, as a read-only snapshot that is rebuilt only after a mutation
+     */
+    public Set<R> rights() {
+        if (rights == null) {
+            Set<R> set = new LinkedHashSet<>();
+            for (Pair<L, R> pair : pairs)
+                set.add(pair.getRight());
+            rights = Collections.unmodifiableSet(set);
+        }
+        return rights;
+    }
+
+    @Override
+    public Iterator<Pair<L, R>> iterator() {
+        Iterator<Pair<L, R>> iterator = pairs.iterator();
+        return new Iterator<>() {
+            private Pair<L, R> last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Pair<L, R> next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                unindex(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return pairs.size();
+    }
+
+    @Override
+    public void clear() {
+        pairs.clear();
+        rightsByLeft.clear();
+        leftsByRight.clear();
+        lefts = null;
+        rights = null;
+    }
+
+    private void unindex(Pair<L, R> pair) {
+        unindex(rightsByLeft, pair.getLeft(), pair.getRight());
+        unindex(leftsByRight, pair.getRight(), pair.getLeft());
+        lefts = null;
+        rights = null;
+    }
+
+    private static <K, V> void unindex(Map<K, List<V>> index, K key, V value) {
+        List<V> partners = index.get(key);
+        if (partners == null)
+            return;
+        for (int i = 0; i < partners.size(); i++) {
+            if (partners.get(i) == value) {
+                partners.remove(i);
+                break;
+            }
+        }
+        if (partners.isEmpty())
+            index.remove(key);
+    }
+}
@@ -0,0 +1,68 @@
+package org.remapper.dto;
+
+import org.remapper.handler.MetricsCollector;
+
+import java.util.*;
+
+/**
+ * The default {@link MetricsCollector}, which keeps the phases of one commit in the order they ran, and its counters.
+ */
+public class PhaseMetrics implements MetricsCollector {
+
+    private final List<Phase> phases = new ArrayList<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    @Override
+    public synchronized void record(String phase, long wallTimeNanos, long allocatedBytes, long scoredPairs) {
+        phases.add(new Phase(phase, wallTimeNanos, allocatedBytes, scoredPairs));
+    }
+
+    @Override
+    public synchronized void count(String counter, long count) {
+        counters.merge(counter, count, Long::sum);
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<>(phases));
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+    }
+
+    public static class Phase {
+
+        private final String name;
+        private final long wallTimeNanos;
+        private final long allocatedBytes;
+        private final long scoredPairs;
+
+        public Phase(String name, long wallTimeNanos, long allocatedBytes, long scoredPairs) {
+            this.name = name;
+            this.wallTimeNanos = wallTimeNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.scoredPairs = scoredPairs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getScoredPairs() {
+            return scoredPairs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ms, %d bytes, %d pairs", name, wallTimeNanos / 1e6, allocatedBytes, scoredPairs);
+        }
+    }
+}
@@ -26,6 +26,7 @@ public abstract class StatementNodeTree implements LocationInfoProvider {
     private int position;
     private StatementInfo entity;
     private LocationInfo locationInfo;
+    private TokenBag descendantTokens;
 
     public StatementNodeTree(CompilationUnit cu, String filePath, ASTNode node) {
         locationInfo = new LocationInfo(cu, filePath, node);
@@ -112,6 +113,18 @@ public abstract class StatementNodeTree implements LocationInfoProvider {
 
     public void setStatement(ASTNode statement) {
         this.statement = statement;
+        this.descendantTokens = null;
+    }
+
+    /**
+     * @return the memoized descendant tokens of the statement, or null if not computed yet
+     */
+    public TokenBag getDescendantTokens() {
+        return descendantTokens;
+    }
+
+    public void setDescendantTokens(TokenBag descendantTokens) {
+        this.descendantTokens = descendantTokens;
     }
 
     public String getExpression() {
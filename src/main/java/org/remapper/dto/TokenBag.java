@@ -0,0 +1,157 @@
+package org.remapper.dto;
+
+import java.util.Arrays;
+
+/**
+ * A multiset of descendant tokens of an AST node, kept as a sorted primitive array.
+ * Each token combines the node type (in the highest byte) with a structural hash of the subtree,
+ * so two tokens are equal when their subtrees have the same type and the same structure.
+ */
+public class TokenBag {
+
+    private static final TokenBag EMPTY = new TokenBag(new long[0]);
+
+    private final long[] tokens;
+
+    private TokenBag(long[] sortedTokens) {
+        this.tokens = sortedTokens;
+    }
+
+    public static TokenBag of(long[] tokens) {
+        long[] sorted = tokens.clone();
+        Arrays.sort(sorted);
+        return new TokenBag(sorted);
+    }
+
+    public static TokenBag empty() {
+        return EMPTY;
+    }
+
+    public static long token(int label, long structuralHash) {
+        return ((long) label << 56) | (structuralHash & 0x00FFFFFFFFFFFFFFL);
+    }
+
+    public static int label(long token) {
+        return (int) (token >>> 56);
+    }
+
+    public int size() {
+        return tokens.length;
+    }
+
+    public boolean isEmpty() {
+        return tokens.length == 0;
+    }
+
+    /**
+     * @return the token at the given index in ascending order
+     */
+    public long get(int index) {
+        return tokens[index];
+    }
+
+    /**
+     * @return the size of the multiset intersection, computed by a linear merge
+     */
+    public int intersectionSize(TokenBag other) {
+        long[] a = tokens;
+        long[] b = other.tokens;
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                count++;
+                i++;
+                j++;
+            } else if (a[i] < b[j])
+                i++;
+            else
+                j++;
+        }
+        return count;
+    }
+
+    /**
+     * Compute the multiset intersection, but give up as soon as it can no longer reach the minimum.
+     *
+     * @return the exact intersection size if it is at least the minimum, otherwise a smaller value
+     */
+    public int intersectionSize(TokenBag other, int minimum) {
+        long[] a = tokens;
+        long[] b = other.tokens;
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (count + Math.min(a.length - i, b.length - j) < minimum)
+                return count;
+            if (a[i] == b[j]) {
+                count++;
+                i++;
+                j++;
+            } else if (a[i] < b[j])
+                i++;
+            else
+                j++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the multiset difference of this bag and the other one
+     */
+    public TokenBag minus(TokenBag other) {
+        long[] a = tokens;
+        long[] b = other.tokens;
+        long[] result = new long[a.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length) {
+            if (j >= b.length || a[i] < b[j])
+                result[k++] = a[i++];
+            else if (a[i] == b[j]) {
+                i++;
+                j++;
+            } else
+                j++;
+        }
+        return new TokenBag(Arrays.copyOf(result, k));
+    }
+
+    /**
+     * @return the multiset union of this bag and the other one
+     */
+    public TokenBag plus(TokenBag other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        long[] a = tokens;
+        long[] b = other.tokens;
+        long[] result = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] <= b[j]))
+                result[k++] = a[i++];
+            else
+                result[k++] = b[j++];
+        }
+        return new TokenBag(result);
+    }
+
+    public TokenBag withoutLabel(int label) {
+        long[] result = new long[tokens.length];
+        int k = 0;
+        for (long token : tokens) {
+            if (label(token) != label)
+                result[k++] = token;
+        }
+        return k == tokens.length ? this : new TokenBag(Arrays.copyOf(result, k));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(tokens, ((TokenBag) o).tokens);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(tokens);
+    }
+}
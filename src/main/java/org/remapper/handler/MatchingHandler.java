@@ -25,6 +25,27 @@ public abstract class MatchingHandler {
     public void handle(String startCommitId, String endCommitId, MatchPair matchPair) {
     }
 
+    /**
+     * This method is called after each commit is analyzed, right before {@link #handle(String, MatchPair)}.
+     * You may override this method to inspect the wall time, allocated bytes and scored pairs of each matching phase.
+     *
+     * @param commitId The sha of the analyzed commit.
+     * @param metrics  The metrics collected for the commit.
+     */
+    public void handleMetrics(String commitId, MetricsCollector metrics) {
+    }
+
+    /**
+     * This method is called after the entities between two commits are matched, right before
+     * {@link #handle(String, String, MatchPair)}.
+     *
+     * @param startCommitId The SHA key that identifies the commit to start the log lookup.
+     * @param endCommitId   The SHA key that identifies the commit to end the log lookup.
+     * @param metrics       The metrics collected for the commit range.
+     */
+    public void handleMetrics(String startCommitId, String endCommitId, MetricsCollector metrics) {
+    }
+
     /**
      * This method is called whenever an exception is thrown during the analysis of the given commit.
      * You should override this method to do your custom logic in the case of exceptions (e.g. skip or rethrow).
@@ -0,0 +1,25 @@
+package org.remapper.handler;
+
+/**
+ * Receives the cost of each phase of matching one commit. Implementations may aggregate across commits or forward
+ * the measurements to a monitoring system; {@link org.remapper.dto.PhaseMetrics} keeps them with the commit.
+ */
+public interface MetricsCollector {
+
+    /**
+     * @param phase          The name of the phase, e.g. {@code matchByDiceCoefficient}.
+     * @param wallTimeNanos  The wall time spent in the phase.
+     * @param allocatedBytes The bytes allocated by the thread that ran the phase, or -1 if the JVM cannot tell.
+     * @param scoredPairs    The number of candidate pairs whose similarity was computed in the phase.
+     */
+    void record(String phase, long wallTimeNanos, long allocatedBytes, long scoredPairs);
+
+    /**
+     * Counters may be updated from the threads that match the statements of one commit in parallel.
+     *
+     * @param counter The name of an event counted while matching the commit, e.g. {@code statementMatchingIterations}.
+     * @param count   The number of events to add to the counter.
+     */
+    default void count(String counter, long count) {
+    }
+}
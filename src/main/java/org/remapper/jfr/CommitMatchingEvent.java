@@ -0,0 +1,27 @@
+package org.remapper.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Begins and ends on the thread that matches the commit. In a {@link org.remapper.service.MatchingPipeline} the
+ * diff, load and parse stages of the commit run earlier on threads of their own, so there the event covers the
+ * match stage only.
+ */
+@Name("org.remapper.CommitMatching")
+@Label("Commit Matching")
+@Category("ReMapper")
+@Description("Matching of the entities and statements of one commit, from its tree diff to its last phase")
+public class CommitMatchingEvent extends Event {
+
+    @Label("Commit")
+    public String commitId;
+
+    @Label("Changed Files")
+    public int changedFiles;
+
+    @Label("Matched Entities")
+    public int matchedEntities;
+
+    @Label("Matched Statements")
+    public int matchedStatements;
+}
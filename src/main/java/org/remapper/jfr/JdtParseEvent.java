@@ -0,0 +1,29 @@
+package org.remapper.jfr;
+
+import jdk.jfr.*;
+
+@Name("org.remapper.JdtParse")
+@Label("JDT Parse")
+@Category("ReMapper")
+@Description("Parsing of one or a batch of compilation units by JDT")
+public class JdtParseEvent extends Event {
+
+    @Label("File")
+    public String filePath;
+
+    @Label("Files")
+    public int files;
+
+    @Label("Source Length")
+    public int sourceLength;
+
+    @Label("Bindings")
+    public boolean bindings;
+
+    @Label("Cached")
+    public boolean cached;
+
+    @Label("Reparsed")
+    @Description("Parsed a second time at the source level recommended by the problems of the first parse")
+    public boolean reparsed;
+}
@@ -0,0 +1,20 @@
+package org.remapper.jfr;
+
+import jdk.jfr.*;
+
+@Name("org.remapper.MatchingPhase")
+@Label("Matching Phase")
+@Category("ReMapper")
+@Description("One phase of matching a commit, as reported to its metrics collector")
+public class MatchingPhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Allocated")
+    @DataAmount
+    public long allocatedBytes;
+
+    @Label("Scored Pairs")
+    public long scoredPairs;
+}
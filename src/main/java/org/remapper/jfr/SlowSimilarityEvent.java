@@ -0,0 +1,27 @@
+package org.remapper.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Recorded for a single similarity computation that takes longer than its threshold, which a recording may
+ * change with {@code org.remapper.SlowSimilarity#threshold}.
+ */
+@Name("org.remapper.SlowSimilarity")
+@Label("Slow Similarity")
+@Category("ReMapper")
+@Description("A similarity computation between two candidate entities or statements that exceeded the threshold")
+@Threshold("10 ms")
+public class SlowSimilarityEvent extends Event {
+
+    @Label("Kind")
+    public String kind;
+
+    @Label("Left")
+    public String left;
+
+    @Label("Right")
+    public String right;
+
+    @Label("Similarity")
+    public double similarity;
+}
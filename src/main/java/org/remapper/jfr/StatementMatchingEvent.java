@@ -0,0 +1,22 @@
+package org.remapper.jfr;
+
+import jdk.jfr.*;
+
+@Name("org.remapper.StatementMatching")
+@Label("Statement Matching")
+@Category("ReMapper")
+@Description("Matching of the statements of one method pair")
+public class StatementMatchingEvent extends Event {
+
+    @Label("Method")
+    public String method;
+
+    @Label("Statements Before")
+    public int statementsBefore;
+
+    @Label("Statements After")
+    public int statementsAfter;
+
+    @Label("Matched Statements")
+    public int matchedStatements;
+}
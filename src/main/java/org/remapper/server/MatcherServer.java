@@ -0,0 +1,306 @@
+package org.remapper.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.jgit.lib.Repository;
+import org.remapper.dto.EntityMatchingJSON;
+import org.remapper.dto.LocationDeserializer;
+import org.remapper.dto.MatchPair;
+import org.remapper.handler.MatchingHandler;
+import org.remapper.service.EntityMatcherService;
+import org.remapper.service.EntityMatcherServiceImpl;
+import org.remapper.service.GitService;
+import org.remapper.util.CancellationToken;
+import org.remapper.util.GitServiceImpl;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * A long-running matcher that keeps one {@link EntityMatcherServiceImpl} (and its parse cache) and the opened
+ * repositories warm across requests. It listens on the loopback interface only and answers
+ * <ul>
+ *     <li>{@code GET /match?repo=<git-repo-folder>&commit=<commit-sha1>}</li>
+ *     <li>{@code GET /match?repo=<git-repo-folder>&start=<start-commit-sha1>&end=<end-commit-sha1>}</li>
+ *     <li>{@code GET /match?repo=<git-repo-folder>&startTag=<start-tag>&endTag=<end-tag>}</li>
+ *     <li>{@code GET /health}</li>
+ * </ul>
+ * with the same JSON the command line writes to its {@code -json} file, streamed one commit at a time. Adding
+ * {@code contents=false} records the blob ids of the changed files instead of their contents, and
+ * {@code metrics=true} embeds the per-phase metrics of each commit. Commits are matched without checking out
+ * the working directory, so concurrent requests on one clone do not interfere with each other.
+ */
+public class MatcherServer implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static final int DEFAULT_TIMEOUT_SECONDS = 300;
+
+    private final HttpServer server;
+    private final ExecutorService acceptor;
+    private final ExecutorService workers;
+    private final Semaphore permits;
+    private final int timeout;
+    private final EntityMatcherService service = new EntityMatcherServiceImpl(true);
+    private final GitService gitService = new GitServiceImpl();
+    private final Map<String, Repository> repositories = new ConcurrentHashMap<>();
+    private final Map<String, String> remoteUrls = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting()
+            .registerTypeAdapter(EntityMatchingJSON.Location.class, new LocationDeserializer()).create();
+
+    public MatcherServer(int port) throws IOException {
+        this(port, DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @param maxConcurrentRequests the number of requests matched at the same time; further requests are
+     *                              rejected with 503 instead of queueing up behind them
+     * @param timeout               the time, in seconds, after which a request is answered with 504 and its
+     *                              matching is cancelled
+     */
+    public MatcherServer(int port, int maxConcurrentRequests, int timeout) throws IOException {
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.timeout = timeout;
+        this.workers = Executors.newFixedThreadPool(maxConcurrentRequests);
+        this.acceptor = Executors.newFixedThreadPool(maxConcurrentRequests + 1);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(acceptor);
+        server.createContext("/match", this::handleMatch);
+        server.createContext("/health", exchange -> respond(exchange, 200, "OK\n"));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+        acceptor.shutdownNow();
+        for (Repository repository : repositories.values())
+            gitService.closeRepository(repository);
+        repositories.clear();
+    }
+
+    private void handleMatch(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String folder = parameters.get("repo");
+            if (folder == null || !(parameters.containsKey("commit") ||
+                    (parameters.containsKey("start") && parameters.containsKey("end")) ||
+                    (parameters.containsKey("startTag") && parameters.containsKey("endTag")))) {
+                respond(exchange, 400, "Expected repo together with commit, start and end, or startTag and endTag.\n");
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                respond(exchange, 503, "Too many concurrent requests.\n");
+                return;
+            }
+            CancellationToken token = new CancellationToken();
+            ResultStream stream = new ResultStream(exchange);
+            Future<?> future;
+            try {
+                future = workers.submit(() -> {
+                    try {
+                        match(folder, parameters, token, stream);
+                        return null;
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+            try {
+                future.get(timeout, TimeUnit.SECONDS);
+                stream.finish();
+            } catch (TimeoutException e) {
+                token.cancel();
+                future.cancel(true);
+                if (!stream.abort())
+                    respond(exchange, 504, "Matching did not finish within " + timeout + " seconds.\n");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                token.cancel();
+                future.cancel(true);
+                if (!stream.abort())
+                    respond(exchange, 503, "Server is shutting down.\n");
+            } catch (ExecutionException e) {
+                if (!stream.abort())
+                    respond(exchange, 500, String.valueOf(e.getCause()) + "\n");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void match(String folder, Map<String, String> parameters, CancellationToken token, ResultStream stream) throws Exception {
+        Repository repo = getRepository(folder);
+        String gitURL = getRemoteUrl(folder);
+        boolean fileContents = !"false".equalsIgnoreCase(parameters.get("contents"));
+        boolean metrics = "true".equalsIgnoreCase(parameters.get("metrics"));
+        Exception[] failure = new Exception[1];
+        MatchingHandler handler = new MatchingHandler() {
+            @Override
+            public void handle(String commitId, MatchPair matchPair) {
+                write(commitId, matchPair);
+            }
+
+            @Override
+            public void handle(String startCommitId, String endCommitId, MatchPair matchPair) {
+                write(endCommitId, matchPair);
+            }
+
+            @Override
+            public void handleException(String commitId, Exception e) {
+                failure[0] = e;
+            }
+
+            @Override
+            public void handleException(String startCommitId, String endCommitId, Exception e) {
+                failure[0] = e;
+            }
+
+            private void write(String commitId, MatchPair matchPair) {
+                EntityMatchingJSON results = new EntityMatchingJSON();
+                populate(results, gitURL, commitId, matchPair, fileContents, metrics);
+                try {
+                    for (EntityMatchingJSON.Result result : results.getResults())
+                        stream.write(result);
+                } catch (IOException e) {
+                    // the client is gone or the request timed out, so there is no point in matching further commits
+                    failure[0] = e;
+                    token.cancel();
+                }
+            }
+        };
+        if (parameters.containsKey("commit"))
+            service.matchAtCommit(repo, parameters.get("commit"), handler, token);
+        else if (parameters.containsKey("start"))
+            service.matchBetweenCommits(repo, parameters.get("start"), parameters.get("end"), handler, token);
+        else
+            service.matchBetweenTags(repo, parameters.get("startTag"), parameters.get("endTag"), handler, token);
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    private static void populate(EntityMatchingJSON results, String cloneURL, String currentCommitId, MatchPair matchPair,
+                                 boolean fileContents, boolean metrics) {
+        String url = cloneURL.replace(".git", "/commit/") + currentCommitId;
+        results.populateJSON(cloneURL, currentCommitId, url, matchPair, fileContents, metrics);
+    }
+
+    private Repository getRepository(String folder) throws IOException {
+        try {
+            return repositories.computeIfAbsent(new File(folder).getAbsolutePath(), key -> {
+                try {
+                    return gitService.openRepository(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private String getRemoteUrl(String folder) {
+        return remoteUrls.computeIfAbsent(new File(folder).getAbsolutePath(), key -> {
+            try {
+                return GitServiceImpl.getRemoteUrl(key);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null)
+            return parameters;
+        for (String parameter : query.split("&")) {
+            int index = parameter.indexOf('=');
+            if (index <= 0)
+                continue;
+            parameters.put(URLDecoder.decode(parameter.substring(0, index), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(index + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Writes the results of one request in the {@link EntityMatchingJSON} document format as the matcher hands them
+     * over, so that a range of commits is not held in memory until the last one is matched. The status line goes
+     * out with the first result: a failure before it still gets its own status, a failure after it cuts the
+     * document short.
+     */
+    private final class ResultStream {
+
+        private final HttpExchange exchange;
+        private JsonWriter writer;
+        private boolean aborted;
+
+        private ResultStream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        synchronized void write(EntityMatchingJSON.Result result) throws IOException {
+            if (aborted)
+                throw new IOException("The response was aborted.");
+            begin();
+            gson.toJson(result, EntityMatchingJSON.Result.class, writer);
+            writer.flush();
+        }
+
+        synchronized void finish() throws IOException {
+            if (aborted)
+                return;
+            begin();
+            writer.endArray();
+            writer.endObject();
+            writer.close();
+        }
+
+        /**
+         * @return whether part of the document has already been sent, so that no other response can be given
+         */
+        synchronized boolean abort() {
+            aborted = true;
+            return writer != null;
+        }
+
+        private void begin() throws IOException {
+            if (writer != null)
+                return;
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            writer = gson.newJsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+            writer.beginObject();
+            writer.name("results");
+            writer.beginArray();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.remapper.dto.MatchPair;
 import org.remapper.handler.MatchingHandler;
+import org.remapper.util.CancellationToken;
 
 import java.io.File;
 
@@ -28,6 +29,18 @@ public interface EntityMatcherService {
      */
     void matchAtCommit(Repository repository, String commitId, MatchingHandler handler, int timeout);
 
+    /**
+     * Match code entities in the specified commit until the token is cancelled.
+     *
+     * @param repository A git repository (from JGit library).
+     * @param commitId   The SHA key that identifies the commit.
+     * @param handler    A handler object that is responsible to process the matched entities. When the token is
+     *                   cancelled, it receives a {@link org.remapper.util.MatchingCancelledException}, which carries the entities
+     *                   matched so far if the token asks for partial results.
+     * @param token      A token that is checked between the units of work of every matching phase.
+     */
+    void matchAtCommit(Repository repository, String commitId, MatchingHandler handler, CancellationToken token);
+
     /**
      * Iterate over commits between two release tags of a git repository and detect the performed refactorings.
      *
@@ -39,6 +52,13 @@ public interface EntityMatcherService {
      */
     void matchBetweenTags(Repository repository, String startTag, String endTag, MatchingHandler handler);
 
+    /**
+     * Match code entities between two release tags of a git repository until the token is cancelled.
+     *
+     * @param token A token that is checked between the units of work of every matching phase.
+     */
+    void matchBetweenTags(Repository repository, String startTag, String endTag, MatchingHandler handler, CancellationToken token);
+
     /**
      * Iterate over commits between two commits of a git repository and match code entities.
      *
@@ -50,6 +70,54 @@ public interface EntityMatcherService {
      */
     void matchBetweenCommits(Repository repository, String startCommitId, String endCommitId, MatchingHandler handler);
 
+    /**
+     * Match code entities between two commits of a git repository until the token is cancelled.
+     *
+     * @param token A token that is checked between the units of work of every matching phase.
+     */
+    void matchBetweenCommits(Repository repository, String startCommitId, String endCommitId, MatchingHandler handler,
+                             CancellationToken token);
+
+    /**
+     * Match code entities in every commit between two commits of a git repository, each against its first parent.
+     *
+     * @param repository A git repository (from JGit library).
+     * @param startCommitId   The SHA key that identifies the commit to start the log lookup (excluded).
+     * @param endCommitId    The SHA key that identifies the commit to end the log lookup.
+     * @param handler A handler object that receives the matched entities of each commit, in commit order.
+     * @param threads The number of commits matched at the same time.
+     */
+    void matchCommitsBetweenCommits(Repository repository, String startCommitId, String endCommitId, MatchingHandler handler, int threads);
+
+    /**
+     * Match code entities in every commit between two commits of a git repository until the token is cancelled.
+     * A cancellation stops the commits in flight and is reported once for the whole range.
+     *
+     * @param token A token shared by the matching of all commits, including their statement matching tasks.
+     */
+    void matchCommitsBetweenCommits(Repository repository, String startCommitId, String endCommitId, MatchingHandler handler,
+                                    int threads, CancellationToken token);
+
+    /**
+     * Match code entities in every commit between two release tags of a git repository, each against its first parent.
+     *
+     * @param repository A git repository (from JGit library).
+     * @param startTag An annotated tag to start the log lookup (excluded).
+     * @param endTag An annotated tag to end the log lookup.
+     * @param handler A handler object that receives the matched entities of each commit, in commit order.
+     * @param threads The number of commits matched at the same time.
+     */
+    void matchCommitsBetweenTags(Repository repository, String startTag, String endTag, MatchingHandler handler, int threads);
+
+    /**
+     * Match code entities in every commit between two release tags of a git repository until the token is cancelled.
+     * A cancellation stops the commits in flight and is reported once for the whole range.
+     *
+     * @param token A token shared by the matching of all commits, including their statement matching tasks.
+     */
+    void matchCommitsBetweenTags(Repository repository, String startTag, String endTag, MatchingHandler handler,
+                                 int threads, CancellationToken token);
+
     MatchPair matchEntities(GitService gitService, Repository repository, RevCommit currentCommit, final MatchingHandler handler) throws Exception;
 
     MatchPair matchEntities(GitService gitService,Repository repository, RevCommit startCommit, RevCommit endCommit, final MatchingHandler handler) throws Exception;
@@ -6,30 +6,164 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.remapper.dto.*;
 import org.remapper.handler.MatchingHandler;
+import org.remapper.handler.MetricsCollector;
+import org.remapper.jfr.CommitMatchingEvent;
 import org.remapper.util.*;
 import org.remapper.visitor.NodeUsageVisitor;
 
 import java.io.File;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class EntityMatcherServiceImpl implements EntityMatcherService {
 
+    private final boolean checkoutFree;
+    private final boolean parallelStatementMatching;
+    private final ParseCache parseCache = new ParseCache();
+    private final Map<File, SourceLevel> sourceLevels = new ConcurrentHashMap<>();
+    private final Map<File, SourceRootIndex> sourceRootIndexes = new ConcurrentHashMap<>();
+    private MinHashBlocking blocking;
+    private Supplier<? extends MetricsCollector> metricsFactory = PhaseMetrics::new;
+    private ParserPool parserPool = ParserPool.getShared();
+
+    public EntityMatcherServiceImpl() {
+        this(false);
+    }
+
+    /**
+     * @param checkoutFree resolve bindings from the commit trees instead of checking out the working directory,
+     *                     which leaves the worktree untouched and allows concurrent analyses of one clone.
+     */
+    public EntityMatcherServiceImpl(boolean checkoutFree) {
+        this(checkoutFree, false);
+    }
+
+    /**
+     * @param parallelStatementMatching match the statements of method pairs that take no part in an extract or
+     *                                  inline refactoring in parallel; the statement mappings are the same, but
+     *                                  those of the parallel pairs are reported after the sequential ones.
+     */
+    public EntityMatcherServiceImpl(boolean checkoutFree, boolean parallelStatementMatching) {
+        this.checkoutFree = checkoutFree;
+        this.parallelStatementMatching = parallelStatementMatching;
+    }
+
+    /**
+     * @return the cache of parsed compilation units shared by all commits matched with this service
+     */
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    /**
+     * @return the source level learned from the files of the repository parsed by this service so far
+     */
+    public SourceLevel getSourceLevel(Repository repository) {
+        return getSourceLevel(repository.getDirectory());
+    }
+
+    private SourceLevel getSourceLevel(File directory) {
+        if (directory == null)
+            return new SourceLevel();
+        return sourceLevels.computeIfAbsent(directory.getAbsoluteFile(), key -> new SourceLevel());
+    }
+
+    /**
+     * @return the source roots of the repository found in the commits matched by this service so far
+     */
+    public SourceRootIndex getSourceRootIndex(Repository repository) {
+        return getSourceRootIndex(repository.getDirectory());
+    }
+
+    private SourceRootIndex getSourceRootIndex(File directory) {
+        if (directory == null)
+            return new SourceRootIndex();
+        return sourceRootIndexes.computeIfAbsent(directory.getAbsoluteFile(), key -> new SourceRootIndex());
+    }
+
+    /**
+     * @param blocking restricts the Dice matching of large deleted/added entity sets to the candidate pairs found by
+     *                 MinHash, trading a little recall for speed; null, the default, compares all pairs.
+     */
+    public void setBlocking(MinHashBlocking blocking) {
+        this.blocking = blocking;
+    }
+
+    /**
+     * @param parserPool the threads that parse the files of each commit, by default
+     *                   {@link ParserPool#getShared()}; the caller shuts down a pool it created
+     */
+    public void setParserPool(ParserPool parserPool) {
+        this.parserPool = parserPool;
+    }
+
+    SoftwareEntityMatcherService newEntityMatchingService(Repository repository) {
+        return newEntityMatchingService(repository, checkoutFree);
+    }
+
+    SoftwareEntityMatcherService newEntityMatchingService(Repository repository, boolean checkoutFree) {
+        return new SoftwareEntityMatcherService(checkoutFree, getSourceRootIndex(repository), blocking, parserPool);
+    }
+
+    /**
+     * @param metricsFactory creates the collector that receives the per-phase metrics of each matched commit;
+     *                       by default a {@link PhaseMetrics} that travels with the {@link MatchPair}.
+     */
+    public void setMetricsFactory(Supplier<? extends MetricsCollector> metricsFactory) {
+        this.metricsFactory = metricsFactory;
+    }
+
+    MatchPair newMatchPair() {
+        MatchPair matchPair = new MatchPair();
+        matchPair.setMetrics(metricsFactory.get());
+        return matchPair;
+    }
+
     @Override
     public void matchAtCommit(Repository repository, String commitId, MatchingHandler handler) {
+        matchAtCommit(repository, commitId, handler, CancellationToken.NONE, true);
+    }
+
+    /**
+     * The matching runs on the calling thread and checks the deadline between units of work, so it stops shortly
+     * after the timeout and puts a checked out working directory back where it was.
+     */
+    @Override
+    public void matchAtCommit(Repository repository, String commitId, MatchingHandler handler, int timeout) {
+        matchAtCommit(repository, commitId, handler, CancellationToken.withTimeout(timeout, TimeUnit.SECONDS, false), false);
+    }
+
+    @Override
+    public void matchAtCommit(Repository repository, String commitId, MatchingHandler handler, CancellationToken token) {
+        matchAtCommit(repository, commitId, handler, token, true);
+    }
+
+    private void matchAtCommit(Repository repository, String commitId, MatchingHandler handler, CancellationToken token,
+                               boolean reportCancellation) {
         GitService gitService = new GitServiceImpl();
         RevWalk walk = new RevWalk(repository);
+        MatchPair matchPair = newMatchPair();
+        matchPair.setCancellationToken(token);
         try {
             RevCommit commit = walk.parseCommit(repository.resolve(commitId));
             if (commit.getParentCount() > 0) {
                 walk.parseCommit(commit.getParent(0));
-                this.matchEntities(gitService, repository, commit, handler);
+                matchCommit(gitService, repository, commit, checkoutFree, matchPair);
+                handler.handleMetrics(commitId, matchPair.getMetrics());
+                handler.handle(commitId, matchPair);
             }
         } catch (MissingObjectException ignored) {
+        } catch (MatchingCancelledException e) {
+            if (token.isPartialResults())
+                e.setPartialMatchPair(matchPair);
+            if (reportCancellation)
+                handler.handleException(commitId, e);
         } catch (Exception e) {
             handler.handleException(commitId, e);
         } finally {
@@ -38,38 +172,194 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
         }
     }
 
-    @Override
-    public void matchAtCommit(Repository repository, String commitId, MatchingHandler handler, int timeout) {
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        Future<?> f = null;
-        try {
-            Runnable r = () -> matchAtCommit(repository, commitId, handler);
-            f = service.submit(r);
-            f.get(timeout, TimeUnit.SECONDS);
-        } catch (TimeoutException e) {
-            f.cancel(true);
-        } catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        } finally {
-            service.shutdown();
-        }
-    }
-
     @Override
     public MatchPair matchEntities(GitService gitService, Repository repository, RevCommit currentCommit, final MatchingHandler handler) throws Exception {
-        JDTService jdtService = new JDTServiceImpl();
-        SoftwareEntityMatcherService entityMatchingService = new SoftwareEntityMatcherService();
         String commitId = currentCommit.getId().getName();
-        MatchPair matchPair = new MatchPair();
+        MatchPair matchPair = newMatchPair();
+        matchCommit(gitService, repository, currentCommit, checkoutFree, matchPair);
+        handler.handleMetrics(commitId, matchPair.getMetrics());
+        handler.handle(commitId, matchPair);
+        return matchPair;
+    }
+
+    private MatchPair matchCommit(GitService gitService, Repository repository, RevCommit currentCommit, boolean checkoutFree,
+                                  MatchPair matchPair) throws Exception {
+        CommitMatchingEvent event = new CommitMatchingEvent();
+        event.begin();
+        JDTService jdtService = new JDTServiceImpl(parseCache, getSourceLevel(repository));
+        SoftwareEntityMatcherService entityMatchingService = newEntityMatchingService(repository, checkoutFree);
         entityMatchingService.matchEntities(gitService, jdtService, repository, currentCommit, matchPair);
+        matchStatements(matchPair, jdtService);
+        commitEvent(event, currentCommit.getId().getName(), matchPair);
+        return matchPair;
+    }
+
+    static void commitEvent(CommitMatchingEvent event, String commitId, MatchPair matchPair) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.commitId = commitId;
+            event.changedFiles = matchPair.getModifiedFiles().size() + matchPair.getRenamedFiles().size() +
+                    matchPair.getDeletedFiles().size() + matchPair.getAddedFiles().size();
+            event.matchedEntities = matchPair.getMatchedEntities().size();
+            event.matchedStatements = matchPair.getMatchedStatements().size();
+            event.commit();
+        }
+    }
+
+    void matchStatements(MatchPair matchPair, JDTService jdtService) {
+        PhaseTimer timer = new PhaseTimer(matchPair);
         matchStatementsInMethodPairs(matchPair, jdtService);
+        timer.lap("matchStatements");
         findRefactoringsBetweenAttributesAndVariables(matchPair);
-        handler.handle(commitId, matchPair);
-        return matchPair;
+        timer.lap("findRefactoringsBetweenAttributesAndVariables");
+        countCutoffs(matchPair);
+    }
+
+    private static void countCutoffs(MatchPair matchPair) {
+        matchPair.getMetrics().count("sizeBoundCutoffs", matchPair.getSizeBoundCutoffCount());
+        matchPair.getMetrics().count("intersectionCutoffs", matchPair.getIntersectionCutoffCount());
+    }
+
+    /**
+     * Match every commit between two commits against its first parent in a {@link MatchingPipeline}, which overlaps
+     * the git I/O and parsing of the next commits with the matching of the current one.
+     *
+     * @return the metrics of the pipeline stages
+     */
+    public List<MatchingPipeline.StageMetrics> matchCommitsInPipeline(Repository repository, String startCommitId, String endCommitId,
+                                                                      MatchingHandler handler) {
+        return matchCommitsInPipeline(repository, startCommitId, endCommitId, handler, CancellationToken.NONE);
+    }
+
+    /**
+     * @param token a token shared by the matching of all commits; a cancellation ends the run and is reported once
+     *              for the whole range
+     */
+    public List<MatchingPipeline.StageMetrics> matchCommitsInPipeline(Repository repository, String startCommitId, String endCommitId,
+                                                                      MatchingHandler handler, CancellationToken token) {
+        GitService gitService = new GitServiceImpl();
+        MatchingPipeline pipeline = new MatchingPipeline(this, repository);
+        try {
+            pipeline.run(gitService.createRevsWalkBetweenCommits(repository, startCommitId, endCommitId), startCommitId, endCommitId,
+                    handler, token);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            handler.handleException(startCommitId, endCommitId, e);
+        }
+        return pipeline.getStageMetrics();
+    }
+
+    @Override
+    public void matchCommitsBetweenCommits(Repository repository, String startCommitId, String endCommitId,
+                                           MatchingHandler handler, int threads) {
+        matchCommitsBetweenCommits(repository, startCommitId, endCommitId, handler, threads, CancellationToken.NONE);
+    }
+
+    @Override
+    public void matchCommitsBetweenCommits(Repository repository, String startCommitId, String endCommitId,
+                                           MatchingHandler handler, int threads, CancellationToken token) {
+        GitService gitService = new GitServiceImpl();
+        try {
+            matchCommits(repository, gitService.createRevsWalkBetweenCommits(repository, startCommitId, endCommitId), handler, threads, token);
+        } catch (Exception e) {
+            handler.handleException(startCommitId, endCommitId, e);
+        }
+    }
+
+    @Override
+    public void matchCommitsBetweenTags(Repository repository, String startTag, String endTag,
+                                        MatchingHandler handler, int threads) {
+        matchCommitsBetweenTags(repository, startTag, endTag, handler, threads, CancellationToken.NONE);
+    }
+
+    @Override
+    public void matchCommitsBetweenTags(Repository repository, String startTag, String endTag,
+                                        MatchingHandler handler, int threads, CancellationToken token) {
+        GitService gitService = new GitServiceImpl();
+        try {
+            matchCommits(repository, gitService.createRevsWalkBetweenTags(repository, startTag, endTag), handler, threads, token);
+        } catch (Exception e) {
+            handler.handleException(startTag, endTag, e);
+        }
+    }
+
+    /**
+     * Match each commit against its first parent on a pool of workers. Every worker owns a {@link Repository}
+     * opened on the same git directory, and with more than one worker bindings are resolved checkout-free, so
+     * that each commit exports its sources into a directory of its own instead of sharing the worktree.
+     * At most two commits per worker are in flight; the results are handed to the handler on the calling thread
+     * in commit order, as soon as all earlier commits are done. Every commit is matched under the given token, and
+     * the first cancellation ends the whole run.
+     */
+    private void matchCommits(Repository repository, Iterable<RevCommit> commits, MatchingHandler handler, int threads,
+                              CancellationToken token) throws Exception {
+        boolean parallel = threads > 1 && repository.getDirectory() != null;
+        BlockingQueue<Repository> workerRepositories = new LinkedBlockingQueue<>();
+        if (parallel) {
+            for (int i = 0; i < threads; i++)
+                workerRepositories.add(new RepositoryBuilder().setGitDir(repository.getDirectory()).setMustExist(true).build());
+        } else
+            workerRepositories.add(repository);
+        ExecutorService executor = Executors.newFixedThreadPool(parallel ? threads : 1);
+        Deque<Pair<String, Future<MatchPair>>> reorderBuffer = new ArrayDeque<>();
+        try {
+            for (RevCommit commit : commits) {
+                token.checkpoint();
+                if (commit.getParentCount() == 0)
+                    continue;
+                String commitId = commit.getId().getName();
+                Future<MatchPair> future = executor.submit(() -> {
+                    Repository worker = workerRepositories.take();
+                    try (RevWalk walk = new RevWalk(worker)) {
+                        RevCommit currentCommit = walk.parseCommit(worker.resolve(commitId));
+                        walk.parseCommit(currentCommit.getParent(0));
+                        MatchPair matchPair = newMatchPair();
+                        matchPair.setCancellationToken(token);
+                        return matchCommit(new GitServiceImpl(), worker, currentCommit, parallel || checkoutFree, matchPair);
+                    } finally {
+                        workerRepositories.put(worker);
+                    }
+                });
+                reorderBuffer.add(Pair.of(commitId, future));
+                if (reorderBuffer.size() >= 2 * threads)
+                    deliver(reorderBuffer.poll(), handler);
+            }
+            while (!reorderBuffer.isEmpty())
+                deliver(reorderBuffer.poll(), handler);
+        } finally {
+            executor.shutdownNow();
+            if (parallel) {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+                for (Repository worker : workerRepositories)
+                    worker.close();
+            }
+        }
+    }
+
+    private void deliver(Pair<String, Future<MatchPair>> result, MatchingHandler handler) throws InterruptedException {
+        String commitId = result.getLeft();
+        try {
+            MatchPair matchPair = result.getRight().get();
+            handler.handleMetrics(commitId, matchPair.getMetrics());
+            handler.handle(commitId, matchPair);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MissingObjectException)
+                return;
+            if (e.getCause() instanceof MatchingCancelledException)
+                throw (MatchingCancelledException) e.getCause();
+            handler.handleException(commitId, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
     }
 
     @Override
     public void matchBetweenTags(Repository repository, String startTag, String endTag, MatchingHandler handler) {
+        matchBetweenTags(repository, startTag, endTag, handler, CancellationToken.NONE);
+    }
+
+    @Override
+    public void matchBetweenTags(Repository repository, String startTag, String endTag, MatchingHandler handler,
+                                 CancellationToken token) {
         GitService gitService = new GitServiceImpl();
         RevWalk walk = new RevWalk(repository);
         try {
@@ -79,7 +369,7 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
             ObjectId endRefObjectId = gitService.getActualRefObjectId(refTo);
             RevCommit startCommit = walk.parseCommit(startRefObjectId);
             RevCommit endCommit = walk.parseCommit(endRefObjectId);
-            this.matchEntities(gitService, repository, startCommit, endCommit, handler);
+            this.matchEntities(gitService, repository, startCommit, endCommit, handler, token);
         } catch (MissingObjectException ignored) {
         } catch (Exception e) {
             handler.handleException(startTag, endTag, e);
@@ -92,12 +382,18 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
     @Override
     public void matchBetweenCommits(Repository repository, String startCommitId, String endCommitId,
                                     MatchingHandler handler) {
+        matchBetweenCommits(repository, startCommitId, endCommitId, handler, CancellationToken.NONE);
+    }
+
+    @Override
+    public void matchBetweenCommits(Repository repository, String startCommitId, String endCommitId,
+                                    MatchingHandler handler, CancellationToken token) {
         GitService gitService = new GitServiceImpl();
         RevWalk walk = new RevWalk(repository);
         try {
             RevCommit startCommit = walk.parseCommit(repository.resolve(startCommitId));
             RevCommit endCommit = walk.parseCommit(repository.resolve(endCommitId));
-            this.matchEntities(gitService, repository, startCommit, endCommit, handler);
+            this.matchEntities(gitService, repository, startCommit, endCommit, handler, token);
         } catch (MissingObjectException ignored) {
         } catch (Exception e) {
             handler.handleException(startCommitId, endCommitId, e);
@@ -109,14 +405,23 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
 
     @Override
     public MatchPair matchEntities(GitService gitService, Repository repository, RevCommit startCommit, RevCommit endCommit, final MatchingHandler handler) throws Exception {
-        JDTService jdtService = new JDTServiceImpl();
-        SoftwareEntityMatcherService entityMatchingService = new SoftwareEntityMatcherService();
+        return matchEntities(gitService, repository, startCommit, endCommit, handler, CancellationToken.NONE);
+    }
+
+    private MatchPair matchEntities(GitService gitService, Repository repository, RevCommit startCommit, RevCommit endCommit,
+                                    MatchingHandler handler, CancellationToken token) throws Exception {
+        JDTService jdtService = new JDTServiceImpl(parseCache, getSourceLevel(repository));
+        SoftwareEntityMatcherService entityMatchingService = newEntityMatchingService(repository);
         String startCommitId = startCommit.getId().getName();
         String endCommitId = endCommit.getId().getName();
-        MatchPair matchPair = new MatchPair();
+        CommitMatchingEvent event = new CommitMatchingEvent();
+        event.begin();
+        MatchPair matchPair = newMatchPair();
+        matchPair.setCancellationToken(token);
         entityMatchingService.matchEntities(gitService, jdtService, repository, startCommit, endCommit, matchPair);
-        matchStatementsInMethodPairs(matchPair, jdtService);
-        findRefactoringsBetweenAttributesAndVariables(matchPair);
+        matchStatements(matchPair, jdtService);
+        commitEvent(event, endCommitId, matchPair);
+        handler.handleMetrics(startCommitId, endCommitId, matchPair.getMetrics());
         handler.handle(startCommitId, endCommitId, matchPair);
         return matchPair;
     }
@@ -131,16 +436,26 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
         }
     }
 
+    /**
+     * Files matched outside of a repository share the learned source level and source roots of the directory of
+     * the previous file.
+     */
     @Override
     public MatchPair matchEntities(File previousFile, File nextFile, final MatchingHandler handler) throws Exception {
-        MatchPair matchPair = new MatchPair();
+        MatchPair matchPair = newMatchPair();
         if (previousFile.exists() && nextFile.exists() && previousFile.isFile() && nextFile.isFile() &&
                 previousFile.getName().endsWith(".java") && nextFile.getName().endsWith(".java")) {
             String id = previousFile.getName() + " -> " + nextFile.getName();
-            JDTService jdtService = new JDTServiceImpl();
-            SoftwareEntityMatcherService entityMatchingService = new SoftwareEntityMatcherService();
+            File directory = previousFile.getAbsoluteFile().getParentFile();
+            JDTService jdtService = new JDTServiceImpl(parseCache, getSourceLevel(directory));
+            SoftwareEntityMatcherService entityMatchingService = new SoftwareEntityMatcherService(checkoutFree,
+                    getSourceRootIndex(directory), blocking, parserPool);
             entityMatchingService.matchEntities(jdtService, previousFile, nextFile, matchPair);
+            PhaseTimer timer = new PhaseTimer(matchPair);
             matchStatementsInMethodPairs(matchPair, jdtService);
+            timer.lap("matchStatements");
+            countCutoffs(matchPair);
+            handler.handleMetrics(id, matchPair.getMetrics());
             handler.handle(id, matchPair);
         }
         return matchPair;
@@ -153,6 +468,7 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
         Set<DeclarationNodeTree> addedEntities = matchPair.getAddedEntities();
         Set<DeclarationNodeTree> extractedEntities = new HashSet<>();
         Set<DeclarationNodeTree> inlinedEntities = new HashSet<>();
+        List<Callable<MatchPair>> independentTasks = new ArrayList<>();
         for (DeclarationNodeTree deletedEntity : deletedEntities) {
             if (deletedEntity.getType() != EntityType.METHOD)
                 continue;
@@ -170,10 +486,12 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
             addedMethod.setMethodEntity(addedEntity);
         }
         for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchedEntities) {
+            matchPair.checkCancelled();
             DeclarationNodeTree oldEntity = pair.getLeft();
             DeclarationNodeTree newEntity = pair.getRight();
             List<Pair<String, String>> oldReplacements = new ArrayList<>();
             List<Pair<String, String>> newReplacements = new ArrayList<>();
+            boolean refactored = false;
             if ((oldEntity.getType() == EntityType.METHOD && newEntity.getType() == EntityType.METHOD) ||
                     (oldEntity.getType() == EntityType.INITIALIZER && newEntity.getType() == EntityType.INITIALIZER)) {
                 if (StringUtils.equals(oldEntity.getDeclaration().toString(), newEntity.getDeclaration().toString()))
@@ -234,6 +552,7 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
                             findMethodInvocation(allOperations, allControls, addedEntity, locations);
                         }
                         if (!locations.isEmpty()) {
+                            refactored = true;
                             MethodNode addedMethod = addedEntity.getMethodNode();
                             MethodDeclaration methodDeclaration = (MethodDeclaration) delegatedEntity.getDeclaration();
                             MethodNode delegatedMethod = delegatedEntity.getMethodNode() == null ? jdtService.parseMethodSNT(delegatedEntity.getFilePath(), methodDeclaration) : delegatedEntity.getMethodNode();
@@ -423,6 +742,7 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
                             findMethodInvocation(allOperations, allControls, deletedEntity, locations);
                         }
                         if (!locations.isEmpty()) {
+                            refactored = true;
                             MethodNode deletedMethod = deletedEntity.getMethodNode();
                             MethodDeclaration methodDeclaration = (MethodDeclaration) delegatedEntity.getDeclaration();
                             MethodNode delegatedMethod = delegatedEntity.getMethodNode() == null ? jdtService.parseMethodSNT(delegatedEntity.getFilePath(), methodDeclaration) : delegatedEntity.getMethodNode();
@@ -573,9 +893,19 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
                         }
                     }
                 }
-                statementMatchingService.matchStatements(oldMethod, newMethod, matchPair, oldReplacements, newReplacements);
+                if (parallelStatementMatching && !refactored) {
+                    MethodNode methodBefore = oldMethod;
+                    MethodNode methodAfter = newMethod;
+                    independentTasks.add(() -> {
+                        MatchPair resultPair = new MatchPair();
+                        statementMatchingService.matchStatements(methodBefore, methodAfter, matchPair, resultPair, oldReplacements, newReplacements);
+                        return resultPair;
+                    });
+                } else
+                    statementMatchingService.matchStatements(oldMethod, newMethod, matchPair, oldReplacements, newReplacements);
             }
         }
+        matchStatementsInParallel(matchPair, independentTasks);
 //        deletedEntities.removeAll(inlinedEntities);
 //        addedEntities.removeAll(extractedEntities);
         matchPair.setInlinedEntities(inlinedEntities);
@@ -602,6 +932,37 @@ public class EntityMatcherServiceImpl implements EntityMatcherService {
         }
     }
 
+    /**
+     * Match the method pairs that take no part in an extract or inline refactoring on the common fork-join pool.
+     * Each task writes into a private match pair, and the results are merged in the order of the method pairs.
+     */
+    private void matchStatementsInParallel(MatchPair matchPair, List<Callable<MatchPair>> tasks) {
+        if (tasks.isEmpty())
+            return;
+        List<Future<MatchPair>> futures = ForkJoinPool.commonPool().invokeAll(tasks);
+        for (Future<MatchPair> future : futures) {
+            MatchPair resultPair;
+            try {
+                resultPair = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MatchingCancelledException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+            for (Pair<StatementNodeTree, StatementNodeTree> pair : resultPair.getMatchedStatements())
+                matchPair.addMatchedStatement(pair.getLeft(), pair.getRight());
+            for (StatementNodeTree deletedStatement : resultPair.getDeletedStatements())
+                matchPair.addDeletedStatement(deletedStatement);
+            for (StatementNodeTree addedStatement : resultPair.getAddedStatements())
+                matchPair.addAddedStatement(addedStatement);
+        }
+    }
+
     private void findMethodInvocation(List<StatementNodeTree> allOperations, List<StatementNodeTree> allControls,
                                       DeclarationNodeTree dnt, List<StatementNodeTree> locations) {
         MethodDeclaration declaration2 = (MethodDeclaration) dnt.getDeclaration();
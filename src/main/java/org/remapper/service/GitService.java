@@ -9,6 +9,7 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.remapper.dto.EntityMatchingJSON;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +23,29 @@ public interface GitService {
     void fileTreeDiff(Repository repository, RevCommit startCommit, RevCommit endCommit, Set<String> addedFiles, Set<String> deletedFiles,
                       Set<String> modifiedFiles, Map<String, String> renamedFiles) throws IOException, CanceledException;
 
+    /**
+     * Load the contents of the changed files of two commits in a single path-filtered tree walk.
+     * Files are inserted in the order deleted, modified, renamed (before) and added, modified, renamed (current).
+     */
+    void populateFileContents(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                              Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                              Map<String, String> fileContentsBefore, Map<String, String> fileContentsCurrent) throws IOException;
+
+    /**
+     * Same as above, and also record the blob id of every loaded file in the same order.
+     */
+    void populateFileContents(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                              Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                              Map<String, String> fileContentsBefore, Map<String, String> fileContentsCurrent,
+                              Map<String, ObjectId> blobIdsBefore, Map<String, ObjectId> blobIdsCurrent) throws IOException;
+
+    /**
+     * Record the blob ids of the changed files of two commits without reading any blob.
+     */
+    void populateFileBlobIds(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                             Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                             Map<String, ObjectId> blobIdsBefore, Map<String, ObjectId> blobIdsCurrent) throws IOException;
+
     RevWalk createAllRevsWalk(Repository repository, String branch) throws Exception;
 
     Iterable<RevCommit> createRevsWalkBetweenTags(Repository repository, String startTag, String endTag) throws Exception;
@@ -57,4 +81,19 @@ public interface GitService {
     ObjectId getActualRefObjectId(Ref refFrom);
 
     List<EntityMatchingJSON.FileContent> getDiffFiles(String repository, String... commits) throws Exception;
+
+    /**
+     * Same files as {@link #getDiffFiles(String, String...)}, carrying blob ids instead of file contents.
+     */
+    List<EntityMatchingJSON.FileContent> getDiffFileBlobIds(String repository, String... commits) throws Exception;
+
+    /**
+     * Write the Java sources of a commit into a directory without checking the commit out.
+     *
+     * @param repository  A git repository (from JGit library), which may be bare.
+     * @param commit      The commit whose tree is exported.
+     * @param sourceRoots Repository-relative directories to export; an empty path exports the whole tree.
+     * @param destination The directory that receives the exported files.
+     */
+    void exportJavaSources(Repository repository, RevCommit commit, Set<String> sourceRoots, File destination) throws IOException;
 }
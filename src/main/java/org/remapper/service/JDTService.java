@@ -6,6 +6,7 @@ import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.remapper.dto.ChildNode;
 import org.remapper.dto.MethodNode;
 import org.remapper.dto.RootNode;
+import org.remapper.dto.TokenBag;
 
 import java.util.List;
 
@@ -18,4 +19,19 @@ public interface JDTService {
     MethodNode parseMethodSNT(String filePath, Initializer initializer);
 
     List<ChildNode> getDescendants(ASTNode node);
+
+    /**
+     * @return the structural tokens of all descendants of the node, excluding the node itself
+     */
+    TokenBag getDescendantTokens(ASTNode node);
+
+    /**
+     * @return the order-sensitive structural hash of the node and its descendants
+     */
+    long getStructuralHash(ASTNode node);
+
+    /**
+     * @return the number of files parsed a second time because they needed a newer source level
+     */
+    long getReparseCount();
 }
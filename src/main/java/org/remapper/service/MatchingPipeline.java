@@ -0,0 +1,296 @@
+package org.remapper.service;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.remapper.dto.MatchPair;
+import org.remapper.dto.RootNode;
+import org.remapper.handler.MatchingHandler;
+import org.remapper.jfr.CommitMatchingEvent;
+import org.remapper.util.CancellationToken;
+import org.remapper.util.GitServiceImpl;
+import org.remapper.util.JDTServiceImpl;
+import org.remapper.util.MatchingCancelledException;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Matches a sequence of commits, each against its first parent, in a pipeline of stages connected by bounded queues:
+ * diff, load blobs, parse, match and emit. Every stage runs on a thread of its own and handles one commit at a time,
+ * so the blobs of the next commits are loaded and parsed while the current commit is in the matching phases.
+ * Only the match stage resolves bindings, so the working directory is never used by two stages at once.
+ * The emit stage runs on the calling thread and hands the results to the handler in commit order. A failure of one
+ * commit is reported for that commit; a failure that stops a stage, such as a corrupt object in the commit walk,
+ * ends the run and is reported for the whole range, and so does a cancellation of the token shared by all commits.
+ */
+public class MatchingPipeline {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    private static final CommitTask END = new CommitTask(null, null);
+
+    private final EntityMatcherServiceImpl service;
+    private final Repository repository;
+    private final int queueCapacity;
+    private final List<StageMetrics> metrics = new ArrayList<>();
+
+    public MatchingPipeline(EntityMatcherServiceImpl service, Repository repository) {
+        this(service, repository, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param queueCapacity the number of commits that may wait in front of each stage
+     */
+    public MatchingPipeline(EntityMatcherServiceImpl service, Repository repository, int queueCapacity) {
+        this.service = service;
+        this.repository = repository;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void run(Iterable<RevCommit> commits, String startCommitId, String endCommitId, MatchingHandler handler)
+            throws InterruptedException {
+        run(commits, startCommitId, endCommitId, handler, CancellationToken.NONE);
+    }
+
+    /**
+     * @param token a token shared by the matching of all commits, which every stage checks through the match pair
+     *              of its commit
+     */
+    public void run(Iterable<RevCommit> commits, String startCommitId, String endCommitId, MatchingHandler handler,
+                    CancellationToken token) throws InterruptedException {
+        GitService gitService = new GitServiceImpl();
+        SoftwareEntityMatcherService entityMatchingService = service.newEntityMatchingService(repository);
+        metrics.clear();
+        AtomicReference<Exception> stageFailure = new AtomicReference<>();
+        StageMetrics diffMetrics = new StageMetrics("diff", new ArrayBlockingQueue<>(queueCapacity));
+        StageMetrics loadMetrics = new StageMetrics("load", new ArrayBlockingQueue<>(queueCapacity));
+        StageMetrics parseMetrics = new StageMetrics("parse", new ArrayBlockingQueue<>(queueCapacity));
+        StageMetrics matchMetrics = new StageMetrics("match", new ArrayBlockingQueue<>(queueCapacity));
+        StageMetrics emitMetrics = new StageMetrics("emit", new ArrayBlockingQueue<>(queueCapacity));
+        Collections.addAll(metrics, diffMetrics, loadMetrics, parseMetrics, matchMetrics, emitMetrics);
+        List<Thread> stages = new ArrayList<>();
+        stages.add(startStage(diffMetrics, loadMetrics, stageFailure, task -> {
+            try (RevWalk walk = new RevWalk(repository)) {
+                task.commit = walk.parseCommit(task.commit);
+                walk.parseCommit(task.commit.getParent(0));
+            }
+            entityMatchingService.diffFiles(gitService, repository, task.commit, task.matchPair);
+        }));
+        stages.add(startStage(loadMetrics, parseMetrics, stageFailure, task ->
+                entityMatchingService.loadFiles(gitService, repository, task.commit, task.matchPair)));
+        stages.add(startStage(parseMetrics, matchMetrics, stageFailure, task -> {
+            task.jdtService = new JDTServiceImpl(service.getParseCache(), service.getSourceLevel(repository));
+            entityMatchingService.parseFiles(task.jdtService, task.matchPair, task.fileDNTsBefore, task.fileDNTsCurrent);
+        }));
+        stages.add(startStage(matchMetrics, emitMetrics, stageFailure, task -> {
+            // the earlier stages of a commit run on other threads and overlap with other commits, so the event
+            // covers the match stage only; their time is in the stage metrics
+            task.event.begin();
+            entityMatchingService.matchEntities(gitService, repository, task.commit, task.matchPair,
+                    task.fileDNTsBefore, task.fileDNTsCurrent);
+            task.fileDNTsBefore.clear();
+            task.fileDNTsCurrent.clear();
+            service.matchStatements(task.matchPair, task.jdtService);
+            EntityMatcherServiceImpl.commitEvent(task.event, task.commit.getId().getName(), task.matchPair);
+        }));
+        try {
+            Thread feeder = new Thread(() -> {
+                boolean stopped = false;
+                try {
+                    for (RevCommit commit : commits) {
+                        token.checkpoint();
+                        if (commit.getParentCount() > 0) {
+                            MatchPair matchPair = service.newMatchPair();
+                            matchPair.setCancellationToken(token);
+                            diffMetrics.queue.put(new CommitTask(commit, matchPair));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    stopped = true;
+                } catch (RuntimeException | Error e) {
+                    recordFailure(stageFailure, e);
+                } finally {
+                    if (!stopped)
+                        end(diffMetrics);
+                }
+            }, "remapper-pipeline-feed");
+            feeder.setDaemon(true);
+            feeder.start();
+            stages.add(feeder);
+            while (true) {
+                CommitTask task = emitMetrics.queue.take();
+                if (task == END)
+                    break;
+                if (task.failure instanceof MatchingCancelledException) {
+                    stageFailure.compareAndSet(null, task.failure);
+                    break;
+                }
+                long start = System.nanoTime();
+                String commitId = task.commit.getId().getName();
+                if (task.failure == null) {
+                    handler.handleMetrics(commitId, task.matchPair.getMetrics());
+                    handler.handle(commitId, task.matchPair);
+                }
+                else if (!(task.failure instanceof MissingObjectException))
+                    handler.handleException(commitId, task.failure);
+                emitMetrics.record(System.nanoTime() - start);
+            }
+            if (stageFailure.get() != null)
+                handler.handleException(startCommitId, endCommitId, stageFailure.get());
+        } finally {
+            for (Thread stage : stages)
+                stage.interrupt();
+        }
+    }
+
+    /**
+     * @return the metrics of the stages of the last run, in pipeline order
+     */
+    public List<StageMetrics> getStageMetrics() {
+        return Collections.unmodifiableList(metrics);
+    }
+
+    private Thread startStage(StageMetrics stage, StageMetrics next, AtomicReference<Exception> stageFailure, Stage work) {
+        Thread thread = new Thread(() -> {
+            boolean stopped = false;
+            try {
+                while (true) {
+                    CommitTask task = stage.queue.take();
+                    if (task == END)
+                        break;
+                    if (task.failure == null) {
+                        long start = System.nanoTime();
+                        try {
+                            work.process(task);
+                        } catch (Exception e) {
+                            task.failure = e;
+                        } catch (Error e) {
+                            task.failure = new RuntimeException(e);
+                        }
+                        stage.record(System.nanoTime() - start);
+                    }
+                    next.sampleQueueDepth();
+                    next.queue.put(task);
+                }
+            } catch (InterruptedException e) {
+                stopped = true;
+            } catch (RuntimeException | Error e) {
+                recordFailure(stageFailure, e);
+            } finally {
+                if (!stopped)
+                    end(next);
+            }
+        }, "remapper-pipeline-" + stage.name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Record the failure that stopped a stage early. The stage still passes the end of the run on, so that the later
+     * stages and the emit loop finish instead of waiting for commits that will never come.
+     */
+    private static void recordFailure(AtomicReference<Exception> stageFailure, Throwable failure) {
+        stageFailure.compareAndSet(null, failure instanceof Exception ? (Exception) failure : new RuntimeException(failure));
+    }
+
+    /**
+     * Pass the end of the run on to the next stage; a stage is only interrupted once the emit loop is done.
+     */
+    private static void end(StageMetrics next) {
+        try {
+            next.queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Stage {
+        void process(CommitTask task) throws Exception;
+    }
+
+    private static class CommitTask {
+
+        private RevCommit commit;
+        private final MatchPair matchPair;
+        private final Map<String, RootNode> fileDNTsBefore = new LinkedHashMap<>();
+        private final Map<String, RootNode> fileDNTsCurrent = new LinkedHashMap<>();
+        private JDTService jdtService;
+        private final CommitMatchingEvent event = new CommitMatchingEvent();
+        private Exception failure;
+
+        private CommitTask(RevCommit commit, MatchPair matchPair) {
+            this.commit = commit;
+            this.matchPair = matchPair;
+        }
+    }
+
+    public static class StageMetrics {
+
+        private final String name;
+        private final BlockingQueue<CommitTask> queue;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong maxQueueDepth = new AtomicLong();
+
+        private StageMetrics(String name, BlockingQueue<CommitTask> queue) {
+            this.name = name;
+            this.queue = queue;
+        }
+
+        private void record(long nanos) {
+            processed.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private void sampleQueueDepth() {
+            maxQueueDepth.accumulateAndGet(queue.size() + 1, Math::max);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of commits currently waiting in front of this stage
+         */
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        public long getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        public long getProcessedCount() {
+            return processed.sum();
+        }
+
+        public long getTotalMillis() {
+            return totalNanos.sum() / 1_000_000;
+        }
+
+        public double getMeanMillis() {
+            long count = processed.sum();
+            return count == 0 ? 0 : totalNanos.sum() / 1e6 / count;
+        }
+
+        public long getMaxMillis() {
+            return maxNanos.get() / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d commits, mean %.1f ms, max %d ms, queue depth %d (max %d)", name,
+                    getProcessedCount(), getMeanMillis(), getMaxMillis(), getQueueDepth(), getMaxQueueDepth());
+        }
+    }
+}
@@ -4,23 +4,54 @@ import info.debatty.java.stringsimilarity.NormalizedLevenshtein;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.jdt.core.dom.*;
 import org.remapper.dto.*;
+import org.remapper.jfr.StatementMatchingEvent;
 import org.remapper.util.DiceFunction;
+import org.remapper.util.StatementDependencyIndex;
 import org.remapper.util.StringUtils;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
 import java.util.stream.Collectors;
 
 public class MethodStatementMatcherService {
 
+    private final boolean incrementalRescoring;
+
+    public MethodStatementMatcherService() {
+        this(true);
+    }
+
+    /**
+     * @param incrementalRescoring rescore only the pairs around the changed candidate mappings in each round of the
+     *                             iterative matching, instead of all pairs
+     */
+    MethodStatementMatcherService(boolean incrementalRescoring) {
+        this.incrementalRescoring = incrementalRescoring;
+    }
+
     public void matchStatements(MethodNode methodBefore, MethodNode methodAfter, MatchPair originalPair,
                                 List<Pair<String, String>> replacementsBefore, List<Pair<String, String>> replacementsCurrent) {
+        matchStatements(methodBefore, methodAfter, originalPair, originalPair, replacementsBefore, replacementsCurrent);
+    }
+
+    /**
+     * Match the statements of a method pair, reading the entity mappings from the original pair and adding
+     * the statement mappings to the result pair, which may be private to the calling thread.
+     */
+    public void matchStatements(MethodNode methodBefore, MethodNode methodAfter, MatchPair originalPair, MatchPair resultPair,
+                                List<Pair<String, String>> replacementsBefore, List<Pair<String, String>> replacementsCurrent) {
+        StatementMatchingEvent event = new StatementMatchingEvent();
+        event.begin();
         MatchPair matchPair = new MatchPair();
+        matchPair.setCancellationToken(originalPair.getCancellationToken());
         matchControls(matchPair, methodBefore, methodAfter);
         matchBlocks(matchPair, methodBefore, methodAfter);
         matchOperations(originalPair, matchPair, methodBefore, methodAfter);
         Map<EntityType, List<Pair<String, String>>> entityReplacements = getReplacements(originalPair);
         matchByVariableReplacement(matchPair, methodBefore, methodAfter, originalPair, replacementsBefore, replacementsCurrent, entityReplacements);
         iterativeMatching(originalPair, matchPair, methodBefore, methodAfter);
+        matchPair.checkCancelled();
 
         List<StatementNodeTree> unmatchedStatementsBefore = methodBefore.getUnmatchedStatements();
         for (StatementNodeTree unmatchedStatement : unmatchedStatementsBefore) {
@@ -54,20 +85,32 @@ public class MethodStatementMatcherService {
 
         Set<Pair<StatementNodeTree, StatementNodeTree>> matchedStatements = matchPair.getMatchedStatements();
         for (Pair<StatementNodeTree, StatementNodeTree> matchedStatement : matchedStatements) {
-            originalPair.addMatchedStatement(matchedStatement.getLeft(), matchedStatement.getRight());
+            resultPair.addMatchedStatement(matchedStatement.getLeft(), matchedStatement.getRight());
             matchedStatement.getLeft().setMatched();
             matchedStatement.getRight().setMatched();
         }
         Set<StatementNodeTree> deletedStatements = matchPair.getDeletedStatements();
         for (StatementNodeTree deletedStatement : deletedStatements) {
-            originalPair.addDeletedStatement(deletedStatement);
+            resultPair.addDeletedStatement(deletedStatement);
         }
         Set<StatementNodeTree> addedStatements = matchPair.getAddedStatements();
         for (StatementNodeTree addedStatement : addedStatements) {
-            originalPair.addAddedStatement(addedStatement);
+            resultPair.addAddedStatement(addedStatement);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = methodAfter.getExpression();
+            event.statementsBefore = countStatements(methodBefore);
+            event.statementsAfter = countStatements(methodAfter);
+            event.matchedStatements = matchedStatements.size();
+            event.commit();
         }
     }
 
+    private static int countStatements(MethodNode method) {
+        return method.getAllControls().size() + method.getAllBlocks().size() + method.getAllOperations().size();
+    }
+
     private Map<EntityType, List<Pair<String, String>>> getReplacements(MatchPair originalPair) {
         Map<EntityType, List<Pair<String, String>>> replacements = new LinkedHashMap<>();
         Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> matchedEntities = originalPair.getMatchedEntities();
@@ -163,11 +206,14 @@ public class MethodStatementMatcherService {
         /**
          * 1. n1.type = n2.type ^ node1.expression = node2.expression ^ n1.depth = n2.depth
          */
-        Map<StatementNodeTree, StatementNodeTree> temp1 = new LinkedHashMap<>();
+        Map<List<Object>, List<StatementNodeTree>> controlsByExpressionAndDepth = groupBy(allControlsAfter,
+                node -> Arrays.asList(node.getType(), node.getExpression(), node.getDepth()));
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp1 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allControlsBefore) {
-            for (StatementNodeTree node2 : allControlsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && node1.getType() == node2.getType() &&
-                        node1.getExpression().equals(node2.getExpression()) && node1.getDepth() == node2.getDepth()) {
+            List<StatementNodeTree> bucket = controlsByExpressionAndDepth.get(Arrays.asList(node1.getType(), node1.getExpression(), node1.getDepth()));
+            if (bucket == null) continue;
+            for (StatementNodeTree node2 : bucket) {
+                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
                     processControlMap(temp1, node1, node2);
                 }
             }
@@ -176,11 +222,14 @@ public class MethodStatementMatcherService {
         /**
          * 2. n1.type = n2.type ^ node1.expression = node2.expression
          */
-        Map<StatementNodeTree, StatementNodeTree> temp2 = new LinkedHashMap<>();
+        Map<List<Object>, List<StatementNodeTree>> controlsByExpression = groupBy(allControlsAfter,
+                node -> Arrays.asList(node.getType(), node.getExpression()));
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp2 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allControlsBefore) {
-            for (StatementNodeTree node2 : allControlsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && node1.getType() == node2.getType() &&
-                        node1.getExpression().equals(node2.getExpression())) {
+            List<StatementNodeTree> bucket = controlsByExpression.get(Arrays.asList(node1.getType(), node1.getExpression()));
+            if (bucket == null) continue;
+            for (StatementNodeTree node2 : bucket) {
+                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
                     processControlMap(temp2, node1, node2);
                 }
             }
@@ -188,10 +237,10 @@ public class MethodStatementMatcherService {
         controlMap2SetOfMatchedStatements(matchPair, temp2);
     }
 
-    private void processControlMap(Map<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
+    private void processControlMap(BidirectionalMap<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
         if (temp.containsKey(node1) || temp.containsValue(node2)) {
             StatementNodeTree candidateValue = temp.get(node1);
-            StatementNodeTree candidateKey = getKeyByValue(temp, node2);
+            StatementNodeTree candidateKey = temp.getKey(node2);
             double previousValue = calculateTextSimilarity(node1, candidateValue);
             double previousKey = calculateTextSimilarity(candidateKey, node2);
             double current = calculateTextSimilarity(node1, node2);
@@ -245,14 +294,19 @@ public class MethodStatementMatcherService {
     private void matchBlocks(MatchPair matchPair, MethodNode methodBefore, MethodNode methodAfter) {
         List<StatementNodeTree> allBlocksBefore = methodBefore.getAllBlocks();
         List<StatementNodeTree> allBlocksAfter = methodAfter.getAllBlocks();
+        Map<StatementNodeTree, String> textsBefore = getStatementTexts(allBlocksBefore);
+        Map<StatementNodeTree, String> textsAfter = getStatementTexts(allBlocksAfter);
         /**
          * 1. n1.text = n2.text ^ n1.depth = n2.depth
          */
-        Map<StatementNodeTree, StatementNodeTree> temp1 = new LinkedHashMap<>();
+        Map<List<Object>, List<StatementNodeTree>> blocksByTextAndDepth = groupBy(allBlocksAfter,
+                node -> Arrays.asList(textsAfter.get(node), node.getDepth()));
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp1 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allBlocksBefore) {
-            for (StatementNodeTree node2 : allBlocksAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && StringUtils.equals(node1.getStatement().toString(), node2.getStatement().toString()) &&
-                        node1.getDepth() == node2.getDepth()) {
+            List<StatementNodeTree> bucket = blocksByTextAndDepth.get(Arrays.asList(textsBefore.get(node1), node1.getDepth()));
+            if (bucket == null) continue;
+            for (StatementNodeTree node2 : bucket) {
+                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
                     processBlockMap(temp1, node1, node2);
                 }
             }
@@ -261,10 +315,13 @@ public class MethodStatementMatcherService {
         /**
          * 2. n1.text = n2.text
          */
-        Map<StatementNodeTree, StatementNodeTree> temp2 = new LinkedHashMap<>();
+        Map<String, List<StatementNodeTree>> blocksByText = groupBy(allBlocksAfter, textsAfter::get);
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp2 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allBlocksBefore) {
-            for (StatementNodeTree node2 : allBlocksAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && StringUtils.equals(node1.getStatement().toString(), node2.getStatement().toString())) {
+            List<StatementNodeTree> bucket = blocksByText.get(textsBefore.get(node1));
+            if (bucket == null) continue;
+            for (StatementNodeTree node2 : bucket) {
+                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
                     processBlockMap(temp2, node1, node2);
                 }
             }
@@ -272,10 +329,10 @@ public class MethodStatementMatcherService {
         blockMap2SetOfMatchedStatements(matchPair, temp2);
     }
 
-    private void processBlockMap(Map<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
+    private void processBlockMap(BidirectionalMap<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
         if (temp.containsKey(node1) || temp.containsValue(node2)) {
             StatementNodeTree candidateValue = temp.get(node1);
-            StatementNodeTree candidateKey = getKeyByValue(temp, node2);
+            StatementNodeTree candidateKey = temp.getKey(node2);
             double previousValue = calculateWeight(node1, candidateValue);
             double previousKey = calculateWeight(candidateKey, node2);
             double current = calculateWeight(node1, node2);
@@ -334,14 +391,18 @@ public class MethodStatementMatcherService {
     private void matchOperations(MatchPair originalPair, MatchPair matchPair, MethodNode methodBefore, MethodNode methodAfter) {
         List<StatementNodeTree> allOperationsBefore = methodBefore.getAllOperations();
         List<StatementNodeTree> allOperationsAfter = methodAfter.getAllOperations();
+        Map<List<Object>, List<StatementNodeTree>> operationsByExpression = groupBy(allOperationsAfter,
+                node -> Arrays.asList(node.getType(), node.getExpression()));
+        Map<StatementNodeTree, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < allOperationsAfter.size(); i++)
+            positions.put(allOperationsAfter.get(i), i);
         /**
          * 1. n1.text = n2.text ^ n1.depth = n2.depth
          */
-        Map<StatementNodeTree, StatementNodeTree> temp1 = new LinkedHashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp1 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allOperationsBefore) {
-            for (StatementNodeTree node2 : allOperationsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && isTheSameExpression(node1, node2) &&
-                        node1.getDepth() == node2.getDepth()) {
+            for (StatementNodeTree node2 : getSameExpressionCandidates(node1, operationsByExpression, positions)) {
+                if (!node1.isMatchedOver() && !node2.isMatchedOver() && node1.getDepth() == node2.getDepth()) {
                     processOperationMap(originalPair, matchPair, temp1, node1, node2);
                 }
             }
@@ -350,10 +411,10 @@ public class MethodStatementMatcherService {
         /**
          * 2. n1.text = n2.text
          */
-        Map<StatementNodeTree, StatementNodeTree> temp2 = new LinkedHashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp2 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allOperationsBefore) {
-            for (StatementNodeTree node2 : allOperationsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && isTheSameExpression(node1, node2)) {
+            for (StatementNodeTree node2 : getSameExpressionCandidates(node1, operationsByExpression, positions)) {
+                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
                     processOperationMap(originalPair, matchPair, temp2, node1, node2);
                 }
             }
@@ -362,37 +423,84 @@ public class MethodStatementMatcherService {
         /**
          * 3. n1.variableDeclaration = n2.variableDeclaration
          */
-        Map<StatementNodeTree, StatementNodeTree> temp3 = new LinkedHashMap<>();
+        Map<List<Object>, List<StatementNodeTree>> declarationsByTypeAndName = new HashMap<>();
+        for (StatementNodeTree node2 : allOperationsAfter) {
+            List<Object> key = getVariableDeclarationKey(node2);
+            if (key != null)
+                declarationsByTypeAndName.computeIfAbsent(key, k -> new ArrayList<>()).add(node2);
+        }
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp3 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allOperationsBefore) {
-            for (StatementNodeTree node2 : allOperationsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver() && node1.getType() == StatementType.VARIABLE_DECLARATION_STATEMENT &&
-                        node2.getType() == StatementType.VARIABLE_DECLARATION_STATEMENT) {
-                    VariableDeclarationStatement variableDeclaration1 = (VariableDeclarationStatement) node1.getStatement();
-                    VariableDeclarationStatement variableDeclaration2 = (VariableDeclarationStatement) node2.getStatement();
-                    if (StringUtils.type2String(variableDeclaration1.getType()).equals(StringUtils.type2String(variableDeclaration2.getType()))) {
-                        VariableDeclarationFragment fragment1 = (VariableDeclarationFragment) variableDeclaration1.fragments().get(0);
-                        VariableDeclarationFragment fragment2 = (VariableDeclarationFragment) variableDeclaration2.fragments().get(0);
-                        if (fragment1.getName().getIdentifier().equals(fragment2.getName().getIdentifier()))
-                            processOperationMap(originalPair, matchPair, temp3, node1, node2);
-                    }
-                }
+            if (node1.isMatchedOver()) continue;
+            List<Object> key = getVariableDeclarationKey(node1);
+            List<StatementNodeTree> bucket = key == null ? null : declarationsByTypeAndName.get(key);
+            if (bucket == null) continue;
+            for (StatementNodeTree node2 : bucket) {
+                if (!node2.isMatchedOver())
+                    processOperationMap(originalPair, matchPair, temp3, node1, node2);
             }
         }
         stmtMap2SetOfMatchedStatements(matchPair, temp3);
     }
 
-    private boolean isTheSameExpression(StatementNodeTree node1, StatementNodeTree node2) {
-        if (node1.getType() == StatementType.EXPRESSION_STATEMENT && node2.getType() == StatementType.LAMBDA_EXPRESSION_BODY) {
-            String expression1 = node1.getExpression();
-            String expression2 = node2.getExpression();
-            return StringUtils.equals(expression1, expression2) || StringUtils.equals(expression1, expression2 + ";\n");
-        }
-        if (node1.getType() == StatementType.LAMBDA_EXPRESSION_BODY && node2.getType() == StatementType.EXPRESSION_STATEMENT) {
-            String expression1 = node1.getExpression();
-            String expression2 = node2.getExpression();
-            return StringUtils.equals(expression1, expression2) || StringUtils.equals(expression1 + ";\n", expression2);
-        }
-        return false;
+    /**
+     * An expression statement and a lambda expression body have the same expression if their texts are equal,
+     * or if they only differ by the trailing semicolon of the expression statement.
+     *
+     * @return the operations having the same expression as the given one, in their original order
+     */
+    private List<StatementNodeTree> getSameExpressionCandidates(StatementNodeTree node1, Map<List<Object>, List<StatementNodeTree>> operationsByExpression,
+                                                                Map<StatementNodeTree, Integer> positions) {
+        String expression1 = node1.getExpression();
+        List<StatementNodeTree> sameText;
+        List<StatementNodeTree> withSemicolon;
+        if (node1.getType() == StatementType.EXPRESSION_STATEMENT) {
+            sameText = operationsByExpression.get(Arrays.asList(StatementType.LAMBDA_EXPRESSION_BODY, expression1));
+            withSemicolon = expression1 != null && expression1.endsWith(";\n") ?
+                    operationsByExpression.get(Arrays.asList(StatementType.LAMBDA_EXPRESSION_BODY, expression1.substring(0, expression1.length() - 2))) : null;
+        } else if (node1.getType() == StatementType.LAMBDA_EXPRESSION_BODY) {
+            sameText = operationsByExpression.get(Arrays.asList(StatementType.EXPRESSION_STATEMENT, expression1));
+            withSemicolon = operationsByExpression.get(Arrays.asList(StatementType.EXPRESSION_STATEMENT, expression1 + ";\n"));
+        } else
+            return Collections.emptyList();
+        if (sameText == null)
+            return withSemicolon == null ? Collections.emptyList() : withSemicolon;
+        if (withSemicolon == null)
+            return sameText;
+        List<StatementNodeTree> candidates = new ArrayList<>(sameText.size() + withSemicolon.size());
+        candidates.addAll(sameText);
+        candidates.addAll(withSemicolon);
+        candidates.sort(Comparator.comparingInt(positions::get));
+        return candidates;
+    }
+
+    /**
+     * @return the declared type and the name of the first variable, or null if the operation is not a variable declaration
+     */
+    private List<Object> getVariableDeclarationKey(StatementNodeTree node) {
+        if (node.getType() != StatementType.VARIABLE_DECLARATION_STATEMENT)
+            return null;
+        VariableDeclarationStatement variableDeclaration = (VariableDeclarationStatement) node.getStatement();
+        VariableDeclarationFragment fragment = (VariableDeclarationFragment) variableDeclaration.fragments().get(0);
+        return Arrays.asList(StringUtils.type2String(variableDeclaration.getType()), fragment.getName().getIdentifier());
+    }
+
+    private Map<StatementNodeTree, String> getStatementTexts(List<StatementNodeTree> statements) {
+        Map<StatementNodeTree, String> texts = new IdentityHashMap<>();
+        for (StatementNodeTree statement : statements)
+            texts.put(statement, statement.getStatement().toString());
+        return texts;
+    }
+
+    /**
+     * Group statements into hash buckets, so that exact matching phases only compare statements sharing a key.
+     * Each bucket keeps the original order of the statements, which keeps the greedy mapping unchanged.
+     */
+    private static <K> Map<K, List<StatementNodeTree>> groupBy(List<StatementNodeTree> statements, Function<StatementNodeTree, K> key) {
+        Map<K, List<StatementNodeTree>> buckets = new HashMap<>();
+        for (StatementNodeTree statement : statements)
+            buckets.computeIfAbsent(key.apply(statement), k -> new ArrayList<>()).add(statement);
+        return buckets;
     }
 
     private void stmtMap2SetOfMatchedStatements(MatchPair matchPair, Map<StatementNodeTree, StatementNodeTree> temp) {
@@ -417,7 +525,7 @@ public class MethodStatementMatcherService {
                 node -> node.getType() == StatementType.VARIABLE_DECLARATION_STATEMENT && !node.isMatched()).collect(Collectors.toList());
         List<StatementNodeTree> allVariablesAfter = allOperationsAfter.stream().filter(
                 node -> node.getType() == StatementType.VARIABLE_DECLARATION_STATEMENT && !node.isMatched()).collect(Collectors.toList());
-        Map<StatementNodeTree, StatementNodeTree> temp1 = new LinkedHashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp1 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allControlsBefore) {
             for (StatementNodeTree node2 : allControlsAfter) {
                 if (!node1.isMatchedOver() && !node2.isMatchedOver() &&
@@ -436,7 +544,7 @@ public class MethodStatementMatcherService {
             }
         }
         stmtMap2SetOfMatchedStatements(matchPair, temp1);
-        Map<StatementNodeTree, StatementNodeTree> temp2 = new LinkedHashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp2 = new BidirectionalMap<>();
         for (StatementNodeTree node1 : allOperationsBefore) {
             for (StatementNodeTree node2 : allOperationsAfter) {
                 if (!node1.isMatchedOver() && !node2.isMatchedOver() &&
@@ -707,10 +815,10 @@ public class MethodStatementMatcherService {
         return originalString;
     }
 
-    private void processOperationMap(MatchPair originalPair, MatchPair matchPair, Map<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
+    private void processOperationMap(MatchPair originalPair, MatchPair matchPair, BidirectionalMap<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
         if (temp.containsKey(node1) || temp.containsValue(node2)) {
             StatementNodeTree candidateValue = temp.get(node1);
-            StatementNodeTree candidateKey = getKeyByValue(temp, node2);
+            StatementNodeTree candidateKey = temp.getKey(node2);
             double previousValue = candidateValue == null ? 0.0 : DiceFunction.calculateContextSimilarity(originalPair, matchPair, node1, candidateValue);
             double previousKey = candidateKey == null ? 0.0 : DiceFunction.calculateContextSimilarity(originalPair, matchPair, candidateKey, node2);
             double current = DiceFunction.calculateContextSimilarity(originalPair, matchPair, node1, node2);
@@ -723,17 +831,57 @@ public class MethodStatementMatcherService {
             temp.put(node1, node2);
     }
 
+    /**
+     * Iterate the similarity-based matching until the candidate statement mappings reach a fixpoint.
+     * Context and descendant similarity only depend on the mappings of the parent, siblings and descendants,
+     * so after the first round only the pairs around the candidate mappings that changed are rescored.
+     * The rounds and the rescored pairs are counted in the metrics of the commit.
+     */
     private void iterativeMatching(MatchPair originalPair, MatchPair matchPair, MethodNode methodBefore, MethodNode methodAfter) {
-        Set<Pair<StatementNodeTree, StatementNodeTree>> candidateStatements = matchByDiceCoefficient(originalPair, matchPair, methodBefore, methodAfter);
+        List<Pair<StatementNodeTree, StatementNodeTree>> operationPairs = getCompatiblePairs(originalPair, methodBefore.getAllOperations(), methodAfter.getAllOperations());
+        List<Pair<StatementNodeTree, StatementNodeTree>> blockPairs = getCompatiblePairs(originalPair, methodBefore.getAllBlocks(), methodAfter.getAllBlocks());
+        List<Pair<StatementNodeTree, StatementNodeTree>> controlPairs = getCompatiblePairs(originalPair, methodBefore.getAllControls(), methodAfter.getAllControls());
+        Map<Pair<StatementNodeTree, StatementNodeTree>, Double> scores = new HashMap<>();
+        int rescored = 0;
+        rescored += rescore(originalPair, matchPair, operationPairs, scores, null, null);
+        rescored += rescore(originalPair, matchPair, blockPairs, scores, null, null);
+        rescored += rescore(originalPair, matchPair, controlPairs, scores, null, null);
+        Set<Pair<StatementNodeTree, StatementNodeTree>> scoredCandidates = new HashSet<>(matchPair.getCandidateStatements());
+        Set<Pair<StatementNodeTree, StatementNodeTree>> candidateStatements = matchByDiceCoefficient(operationPairs, blockPairs, controlPairs, scores);
+        int iterations = 1;
         matchPair.setCandidateStatements(candidateStatements);
+        StatementDependencyIndex indexBefore = null;
+        StatementDependencyIndex indexAfter = null;
         for (int i = 0; i < 5; i++) {
-            Set<Pair<StatementNodeTree, StatementNodeTree>> temp = matchByDiceCoefficient(originalPair, matchPair, methodBefore, methodAfter);
-            if (matchPair.getCandidateStatements().size() == temp.size() && matchPair.getCandidateStatements().equals(temp)) {
-//                System.out.println("At the " + (i + 1) + "th iteration, the candidate set of statement mapping does not change.");
+            matchPair.checkCancelled();
+            Set<StatementNodeTree> changedBefore = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<StatementNodeTree> changedAfter = Collections.newSetFromMap(new IdentityHashMap<>());
+            collectChangedStatements(scoredCandidates, matchPair.getCandidateStatements(), changedBefore, changedAfter);
+            collectChangedStatements(matchPair.getCandidateStatements(), scoredCandidates, changedBefore, changedAfter);
+            if (changedBefore.isEmpty())
                 break;
+            Set<StatementNodeTree> dirtyBefore = null;
+            Set<StatementNodeTree> dirtyAfter = null;
+            if (incrementalRescoring) {
+                if (indexBefore == null) {
+                    indexBefore = new StatementDependencyIndex(methodBefore);
+                    indexAfter = new StatementDependencyIndex(methodAfter);
+                }
+                dirtyBefore = indexBefore.getDependents(changedBefore);
+                dirtyAfter = indexAfter.getDependents(changedAfter);
             }
+            rescored += rescore(originalPair, matchPair, operationPairs, scores, dirtyBefore, dirtyAfter);
+            rescored += rescore(originalPair, matchPair, blockPairs, scores, dirtyBefore, dirtyAfter);
+            rescored += rescore(originalPair, matchPair, controlPairs, scores, dirtyBefore, dirtyAfter);
+            scoredCandidates = new HashSet<>(matchPair.getCandidateStatements());
+            Set<Pair<StatementNodeTree, StatementNodeTree>> temp = matchByDiceCoefficient(operationPairs, blockPairs, controlPairs, scores);
+            iterations++;
+            if (matchPair.getCandidateStatements().size() == temp.size() && matchPair.getCandidateStatements().equals(temp))
+                break;
             matchPair.setCandidateStatements(temp);
         }
+        originalPair.getMetrics().count("statementMatchingIterations", iterations);
+        originalPair.getMetrics().count("rescoredStatementPairs", rescored);
         for (Pair<StatementNodeTree, StatementNodeTree> pair : matchPair.getCandidateStatements()) {
             matchPair.getMatchedStatements().add(pair);
             pair.getLeft().setMatched();
@@ -742,26 +890,64 @@ public class MethodStatementMatcherService {
         matchPair.getCandidateStatements().clear();
     }
 
-    private Set<Pair<StatementNodeTree, StatementNodeTree>> matchByDiceCoefficient(MatchPair originalPair, MatchPair matchPair,
-                                                                                   MethodNode methodBefore, MethodNode methodAfter) {
+    /**
+     * @return the pairs of unmatched statements with compatible types, in the order the matching visits them
+     */
+    private List<Pair<StatementNodeTree, StatementNodeTree>> getCompatiblePairs(MatchPair originalPair, List<StatementNodeTree> statementsBefore,
+                                                                               List<StatementNodeTree> statementsAfter) {
+        List<Pair<StatementNodeTree, StatementNodeTree>> pairs = new ArrayList<>();
+        for (StatementNodeTree node1 : statementsBefore) {
+            if (node1.isMatchedOver()) continue;
+            for (StatementNodeTree node2 : statementsAfter) {
+                if (!node2.isMatchedOver() && typeCompatible(originalPair, node1, node2))
+                    pairs.add(Pair.of(node1, node2));
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Recompute the similarity of the pairs whose both sides are dirty, or of all pairs if no dirty set is given.
+     *
+     * @return the number of rescored pairs
+     */
+    private int rescore(MatchPair originalPair, MatchPair matchPair, List<Pair<StatementNodeTree, StatementNodeTree>> pairs,
+                         Map<Pair<StatementNodeTree, StatementNodeTree>, Double> scores,
+                         Set<StatementNodeTree> dirtyBefore, Set<StatementNodeTree> dirtyAfter) {
+        int rescored = 0;
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : pairs) {
+            if (dirtyBefore != null && !(dirtyBefore.contains(pair.getLeft()) && dirtyAfter.contains(pair.getRight())))
+                continue;
+            scores.put(pair, DiceFunction.calculateSimilarity(originalPair, matchPair, pair.getLeft(), pair.getRight()));
+            rescored++;
+        }
+        return rescored;
+    }
+
+    private void collectChangedStatements(Set<Pair<StatementNodeTree, StatementNodeTree>> candidates, Set<Pair<StatementNodeTree, StatementNodeTree>> others,
+                                          Set<StatementNodeTree> changedBefore, Set<StatementNodeTree> changedAfter) {
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : candidates) {
+            if (!others.contains(pair)) {
+                changedBefore.add(pair.getLeft());
+                changedAfter.add(pair.getRight());
+            }
+        }
+    }
+
+    private Set<Pair<StatementNodeTree, StatementNodeTree>> matchByDiceCoefficient(List<Pair<StatementNodeTree, StatementNodeTree>> operationPairs,
+                                                                                   List<Pair<StatementNodeTree, StatementNodeTree>> blockPairs,
+                                                                                   List<Pair<StatementNodeTree, StatementNodeTree>> controlPairs,
+                                                                                   Map<Pair<StatementNodeTree, StatementNodeTree>, Double> scores) {
         Set<Pair<StatementNodeTree, StatementNodeTree>> temp = new HashSet<>();
-        List<StatementNodeTree> allOperationsBefore = methodBefore.getAllOperations();
-        List<StatementNodeTree> allOperationsAfter = methodAfter.getAllOperations();
+        ToDoubleBiFunction<StatementNodeTree, StatementNodeTree> similarity = (node1, node2) -> scores.get(Pair.of(node1, node2));
         /**
          * 1. sim(n1.text, n2.text) +sim(n1.context, n2.context) > 1.0 ^ n1 instance operation
          */
-        Map<StatementNodeTree, StatementNodeTree> temp1 = new HashMap<>();
-        for (StatementNodeTree node1 : allOperationsBefore) {
-            for (StatementNodeTree node2 : allOperationsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
-                    if (!typeCompatible(originalPair, node1, node2))
-                        continue;
-                    double sim = DiceFunction.calculateSimilarity(originalPair, matchPair, node1, node2);
-                    if (sim < DiceFunction.minSimilarity)
-                        continue;
-                    processStatementMap(originalPair, matchPair, temp1, node1, node2);
-                }
-            }
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp1 = new BidirectionalMap<>(new HashMap<>());
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : operationPairs) {
+            if (scores.get(pair) < DiceFunction.minSimilarity)
+                continue;
+            processStatementMap(temp1, pair.getLeft(), pair.getRight(), similarity);
         }
         for (StatementNodeTree operation1 : temp1.keySet()) {
             StatementNodeTree operation2 = temp1.get(operation1);
@@ -770,19 +956,11 @@ public class MethodStatementMatcherService {
         /**
          * 2. sim(n1.text, n2.text) +sim(n1.context, n2.context) > 1.0 ^ n1 instance block
          */
-        Map<StatementNodeTree, StatementNodeTree> temp2 = new HashMap<>();
-        List<StatementNodeTree> allBlocksBefore = methodBefore.getAllBlocks();
-        List<StatementNodeTree> allBlocksAfter = methodAfter.getAllBlocks();
-        for (StatementNodeTree node1 : allBlocksBefore) {
-            for (StatementNodeTree node2 : allBlocksAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
-                    if (!typeCompatible(originalPair, node1, node2))
-                        continue;
-                    if (DiceFunction.calculateSimilarity(originalPair, matchPair, node1, node2) < DiceFunction.minSimilarity)
-                        continue;
-                    processStatementMap(originalPair, matchPair, temp2, node1, node2);
-                }
-            }
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp2 = new BidirectionalMap<>(new HashMap<>());
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : blockPairs) {
+            if (scores.get(pair) < DiceFunction.minSimilarity)
+                continue;
+            processStatementMap(temp2, pair.getLeft(), pair.getRight(), similarity);
         }
         for (StatementNodeTree block1 : temp2.keySet()) {
             StatementNodeTree block2 = temp2.get(block1);
@@ -791,19 +969,11 @@ public class MethodStatementMatcherService {
         /**
          * 3. sim(n1.text, n2.text) +sim(n1.context, n2.context) > 1.0 ^ n1 instance control
          */
-        Map<StatementNodeTree, StatementNodeTree> temp3 = new HashMap<>();
-        List<StatementNodeTree> allControlsBefore = methodBefore.getAllControls();
-        List<StatementNodeTree> allControlsAfter = methodAfter.getAllControls();
-        for (StatementNodeTree node1 : allControlsBefore) {
-            for (StatementNodeTree node2 : allControlsAfter) {
-                if (!node1.isMatchedOver() && !node2.isMatchedOver()) {
-                    if (!typeCompatible(originalPair, node1, node2))
-                        continue;
-                    if (DiceFunction.calculateSimilarity(originalPair, matchPair, node1, node2) < DiceFunction.minSimilarity)
-                        continue;
-                    processStatementMap(originalPair, matchPair, temp3, node1, node2);
-                }
-            }
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp3 = new BidirectionalMap<>(new HashMap<>());
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : controlPairs) {
+            if (scores.get(pair) < DiceFunction.minSimilarity)
+                continue;
+            processStatementMap(temp3, pair.getLeft(), pair.getRight(), similarity);
         }
         for (StatementNodeTree control1 : temp3.keySet()) {
             StatementNodeTree control2 = temp3.get(control1);
@@ -829,7 +999,7 @@ public class MethodStatementMatcherService {
                     (node1.getType() != StatementType.RETURN_STATEMENT && node2.getType() == StatementType.RETURN_STATEMENT)) {
                 DeclarationNodeTree entity1 = node1.getRoot().getMethodEntity();
                 DeclarationNodeTree entity2 = node2.getRoot().getMethodEntity();
-                if (!matchPair.getMatchedEntities().contains(Pair.of(entity1, entity2)))
+                if (!matchPair.isMatchedEntity(entity1, entity2))
                     isExtractedOrInlinedType = true;
             }
             boolean isSameExpression = false;
@@ -853,13 +1023,18 @@ public class MethodStatementMatcherService {
         }
     }
 
-    private void processStatementMap(MatchPair originalPair, MatchPair matchPair, Map<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
+    private void processStatementMap(MatchPair originalPair, MatchPair matchPair, BidirectionalMap<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2) {
+        processStatementMap(temp, node1, node2, (statement1, statement2) -> DiceFunction.calculateSimilarity(originalPair, matchPair, statement1, statement2));
+    }
+
+    private void processStatementMap(BidirectionalMap<StatementNodeTree, StatementNodeTree> temp, StatementNodeTree node1, StatementNodeTree node2,
+                                     ToDoubleBiFunction<StatementNodeTree, StatementNodeTree> similarity) {
         if (temp.containsKey(node1) || temp.containsValue(node2)) {
             StatementNodeTree candidateValue = temp.get(node1);
-            StatementNodeTree candidateKey = getKeyByValue(temp, node2);
-            double previousValue = candidateValue == null ? 0.0 : DiceFunction.calculateSimilarity(originalPair, matchPair, node1, candidateValue);
-            double previousKey = candidateKey == null ? 0.0 : DiceFunction.calculateSimilarity(originalPair, matchPair, candidateKey, node2);
-            double current = DiceFunction.calculateSimilarity(originalPair, matchPair, node1, node2);
+            StatementNodeTree candidateKey = temp.getKey(node2);
+            double previousValue = candidateValue == null ? 0.0 : similarity.applyAsDouble(node1, candidateValue);
+            double previousKey = candidateKey == null ? 0.0 : similarity.applyAsDouble(candidateKey, node2);
+            double current = similarity.applyAsDouble(node1, node2);
             if (current > previousValue && current > previousKey) {
                 temp.remove(node1, candidateValue);
                 temp.remove(candidateKey, node2);
@@ -880,23 +1055,15 @@ public class MethodStatementMatcherService {
             temp.put(node1, node2);
     }
 
-    public <K, V> K getKeyByValue(Map<K, V> map, V value) {
-        return map.entrySet().stream()
-                .filter(entry -> Objects.equals(entry.getValue(), value))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(null);
-    }
-
     private void additionalMatchByDice(MatchPair originalPair, MatchPair matchPair) {
         Set<StatementNodeTree> deletedStatements = matchPair.getDeletedStatements();
         Set<StatementNodeTree> addedStatements = matchPair.getAddedStatements();
-        Map<StatementNodeTree, StatementNodeTree> temp = new HashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp = new BidirectionalMap<>(new HashMap<>());
         for (StatementNodeTree node1 : deletedStatements) {
             for (StatementNodeTree node2 : addedStatements) {
                 if (typeCompatible(originalPair, node1, node2) && node1 instanceof OperationNode && node2 instanceof OperationNode &&
                         !node1.isRefactored() && !node2.isRefactored()) {
-                    double sim = DiceFunction.calculateDiceSimilarity(node1, node2);
+                    double sim = DiceFunction.calculateDiceSimilarity(originalPair, node1, node2, DiceFunction.minSimilarity);
                     if (sim < DiceFunction.minSimilarity)
                         continue;
                     processStatementMap(originalPair, matchPair, temp, node1, node2);
@@ -909,7 +1076,7 @@ public class MethodStatementMatcherService {
     private void additionalMatchByChildren(MatchPair originalPair, MatchPair matchPair) {
         Set<StatementNodeTree> deletedStatements = matchPair.getDeletedStatements();
         Set<StatementNodeTree> addedStatements = matchPair.getAddedStatements();
-        Map<StatementNodeTree, StatementNodeTree> temp = new HashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp = new BidirectionalMap<>(new HashMap<>());
         for (StatementNodeTree node1 : deletedStatements) {
             for (StatementNodeTree node2 : addedStatements) {
                 if (typeCompatible(originalPair, node1, node2) && node1 instanceof BlockNode && node2 instanceof BlockNode) {
@@ -945,7 +1112,7 @@ public class MethodStatementMatcherService {
         Set<Pair<StatementNodeTree, StatementNodeTree>> matchedStatements = matchPair.getMatchedStatements();
         Set<StatementNodeTree> deletedStatements = matchPair.getDeletedStatements();
         Set<StatementNodeTree> addedStatements = matchPair.getAddedStatements();
-        Map<StatementNodeTree, StatementNodeTree> temp = new HashMap<>();
+        BidirectionalMap<StatementNodeTree, StatementNodeTree> temp = new BidirectionalMap<>(new HashMap<>());
         for (StatementNodeTree node1 : deletedStatements) {
             for (StatementNodeTree node2 : addedStatements) {
                 if (node1.getType() == StatementType.VARIABLE_DECLARATION_STATEMENT &&
@@ -1,24 +1,60 @@
 package org.remapper.service;
 
-import org.eclipse.jdt.core.dom.ASTParser;
-import org.eclipse.jdt.core.dom.CompilationUnit;
-import org.remapper.util.ASTParserUtils;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.remapper.util.PackageScanner;
 
 import java.io.File;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Set;
 
-public class ProjectParser {
+public class ProjectParser implements AutoCloseable {
 
     private final String projectPath;
+    private final GitService gitService;
+    private final Repository repository;
+    private final RevCommit commit;
+    private final SourceRootIndex sourceRootIndex;
+    private File snapshot;
     private String[] sourcepathEntries;
     private String[] encodings;
 
     public ProjectParser(String projectPath) {
+        this(projectPath, new SourceRootIndex());
+    }
+
+    /**
+     * @param sourceRootIndex the source roots of the repository, shared by the parsers of all its commits
+     */
+    public ProjectParser(String projectPath, SourceRootIndex sourceRootIndex) {
         this.projectPath = projectPath;
+        this.gitService = null;
+        this.repository = null;
+        this.commit = null;
+        this.sourceRootIndex = sourceRootIndex;
+    }
+
+    /**
+     * Resolve bindings against the tree of the given commit rather than the working directory.
+     * The Java sources under the detected source roots are exported from the object database into a
+     * temporary directory, so the repository may be bare and its worktree is never touched.
+     */
+    public ProjectParser(GitService gitService, Repository repository, RevCommit commit) {
+        this(gitService, repository, commit, new SourceRootIndex());
+    }
+
+    public ProjectParser(GitService gitService, Repository repository, RevCommit commit, SourceRootIndex sourceRootIndex) {
+        this.projectPath = "";
+        this.gitService = gitService;
+        this.repository = repository;
+        this.commit = commit;
+        this.sourceRootIndex = sourceRootIndex;
     }
 
     public String[] getSourcepathEntries() {
@@ -30,18 +66,48 @@ public class ProjectParser {
     }
 
     public void buildEntityDependencies(Map<String, String> fileContents) {
+        if (repository != null) {
+            buildEntityDependenciesFromTree(fileContents);
+            return;
+        }
         HashSet<String> sourceRootSet = new HashSet<>();
+        Map<String, Boolean> existingRoots = new HashMap<>();
         for (String filePath : fileContents.keySet()) {
-            String file = "".equals(projectPath) ? filePath : projectPath + "/" + filePath;
-            ASTParser astParser = ASTParserUtils.getFastParser();
-            String code = fileContents.get(filePath);
-            astParser.setSource(code.toCharArray());
-            CompilationUnit cu = (CompilationUnit) astParser.createAST(null);
-            if (cu.getPackage() == null) continue;
-            String rootPath = parseRootPath(file, cu.getPackage().getName().toString());
-            if (!rootPath.equals("") && Paths.get(rootPath).toFile().exists())
+            String packageName = PackageScanner.scan(fileContents.get(filePath));
+            if (packageName == null) continue;
+            String relativeRoot = sourceRootIndex.getSourceRoot(filePath, packageName);
+            if (relativeRoot == null) continue;
+            String rootPath = "".equals(projectPath) ? relativeRoot :
+                    relativeRoot.equals("") ? projectPath : projectPath + "/" + relativeRoot;
+            if (!rootPath.equals("") && existingRoots.computeIfAbsent(rootPath, path -> Paths.get(path).toFile().exists()))
                 sourceRootSet.add(rootPath);
         }
+        populateSourcepathEntries(sourceRootSet);
+    }
+
+    private void buildEntityDependenciesFromTree(Map<String, String> fileContents) {
+        Set<String> relativeRoots = new HashSet<>();
+        for (String filePath : fileContents.keySet()) {
+            String packageName = PackageScanner.scan(fileContents.get(filePath));
+            if (packageName == null) continue;
+            String rootPath = sourceRootIndex.getSourceRoot(filePath, packageName);
+            if (rootPath != null)
+                relativeRoots.add(rootPath);
+        }
+        HashSet<String> sourceRootSet = new HashSet<>();
+        try {
+            snapshot = Files.createTempDirectory("remapper-").toFile();
+            gitService.exportJavaSources(repository, commit, relativeRoots, snapshot);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String snapshotPath = snapshot.getPath().replace("\\", "/");
+        for (String relativeRoot : relativeRoots)
+            sourceRootSet.add(relativeRoot.equals("") ? snapshotPath : snapshotPath + "/" + relativeRoot);
+        populateSourcepathEntries(sourceRootSet);
+    }
+
+    private void populateSourcepathEntries(Set<String> sourceRootSet) {
         sourcepathEntries = new String[sourceRootSet.size()];
         encodings = new String[sourceRootSet.size()];
         int index = 0;
@@ -52,12 +118,11 @@ public class ProjectParser {
         }
     }
 
-    private String parseRootPath(String filePath, String packageName) {
-        String path = packageName.replaceAll("\\.", Matcher.quoteReplacement(File.separator));
-        Path relativePath = Paths.get(path);
-        Path absolutePath = Paths.get(filePath).resolveSibling("");
-        int end = absolutePath.toString().lastIndexOf(relativePath.toString());
-        if (end == -1) return "";
-        return absolutePath.toString().substring(0, end).replace("\\", "/");
+    @Override
+    public void close() {
+        if (snapshot != null) {
+            FileUtils.deleteQuietly(snapshot);
+            snapshot = null;
+        }
     }
 }
@@ -2,84 +2,188 @@ package org.remapper.service;
 
 import info.debatty.java.stringsimilarity.NormalizedLevenshtein;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.dom.*;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.remapper.dto.*;
+import org.remapper.jfr.JdtParseEvent;
 import org.remapper.util.ASTParserUtils;
 import org.remapper.util.DiceFunction;
 import org.remapper.util.EntityUtils;
+import org.remapper.util.MinHashBlocking;
+import org.remapper.util.ParserPool;
+import org.remapper.util.PhaseTimer;
 import org.remapper.util.StringUtils;
 import org.remapper.visitor.NodeDeclarationVisitor;
 import org.remapper.visitor.NodeUsageVisitor;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class SoftwareEntityMatcherService {
 
+    private final boolean checkoutFree;
+    private final SourceRootIndex sourceRootIndex;
+    private final MinHashBlocking blocking;
+    private final ParserPool parserPool;
+
+    public SoftwareEntityMatcherService() {
+        this(false);
+    }
+
+    /**
+     * @param checkoutFree resolve bindings from the commit trees instead of checking out the working directory.
+     *                     Bare repositories always use this mode.
+     */
+    public SoftwareEntityMatcherService(boolean checkoutFree) {
+        this(checkoutFree, new SourceRootIndex());
+    }
+
+    /**
+     * @param sourceRootIndex the source roots of the matched repository, kept across its commits
+     */
+    public SoftwareEntityMatcherService(boolean checkoutFree, SourceRootIndex sourceRootIndex) {
+        this(checkoutFree, sourceRootIndex, null);
+    }
+
+    /**
+     * @param blocking restricts the Dice matching of large deleted/added sets to candidate pairs, or null to
+     *                 compare all pairs
+     */
+    public SoftwareEntityMatcherService(boolean checkoutFree, SourceRootIndex sourceRootIndex, MinHashBlocking blocking) {
+        this(checkoutFree, sourceRootIndex, blocking, ParserPool.getShared());
+    }
+
+    /**
+     * @param parserPool the threads that parse the files of each commit
+     */
+    public SoftwareEntityMatcherService(boolean checkoutFree, SourceRootIndex sourceRootIndex, MinHashBlocking blocking,
+                                        ParserPool parserPool) {
+        this.checkoutFree = checkoutFree;
+        this.sourceRootIndex = sourceRootIndex;
+        this.blocking = blocking;
+        this.parserPool = parserPool;
+    }
+
     protected void matchEntities(GitService gitService, JDTService jdtService, Repository repository,
                                  RevCommit currentCommit, MatchPair matchPair) throws Exception {
+        Map<String, RootNode> fileDNTsBefore = new LinkedHashMap<>();
+        Map<String, RootNode> fileDNTsCurrent = new LinkedHashMap<>();
+        diffFiles(gitService, repository, currentCommit, matchPair);
+        loadFiles(gitService, repository, currentCommit, matchPair);
+        parseFiles(jdtService, matchPair, fileDNTsBefore, fileDNTsCurrent);
+        matchEntities(gitService, repository, currentCommit, matchPair, fileDNTsBefore, fileDNTsCurrent);
+    }
+
+    /**
+     * The stages of {@link #matchEntities(GitService, JDTService, Repository, RevCommit, MatchPair)}, which a
+     * pipeline may run for different commits at the same time. Only the last one touches the working directory.
+     */
+    protected void diffFiles(GitService gitService, Repository repository, RevCommit currentCommit, MatchPair matchPair) throws Exception {
         Set<String> addedFiles = new LinkedHashSet<>();
         Set<String> deletedFiles = new LinkedHashSet<>();
         Set<String> modifiedFiles = new LinkedHashSet<>();
         Map<String, String> renamedFiles = new LinkedHashMap<>();
-        Map<String, String> fileContentsBefore = new LinkedHashMap<>();
-        Map<String, String> fileContentsCurrent = new LinkedHashMap<>();
-        Map<String, RootNode> fileDNTsBefore = new LinkedHashMap<>();
-        Map<String, RootNode> fileDNTsCurrent = new LinkedHashMap<>();
+        PhaseTimer timer = new PhaseTimer(matchPair);
         gitService.fileTreeDiff(repository, currentCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles);
-
-        RevCommit parentCommit = currentCommit.getParent(0);
-        populateFileContents(repository, parentCommit, deletedFiles, fileContentsBefore);
-        populateFileContents(repository, parentCommit, modifiedFiles, fileContentsBefore);
-        populateFileContents(repository, parentCommit, renamedFiles.keySet(), fileContentsBefore);
-        populateFileContents(repository, currentCommit, addedFiles, fileContentsCurrent);
-        populateFileContents(repository, currentCommit, modifiedFiles, fileContentsCurrent);
-        populateFileContents(repository, currentCommit, new HashSet<>(renamedFiles.values()), fileContentsCurrent);
         matchPair.setAddedFiles(addedFiles);
         matchPair.setDeletedFiles(deletedFiles);
         matchPair.setModifiedFiles(modifiedFiles);
         matchPair.setRenamedFiles(renamedFiles);
+        timer.lap("fileTreeDiff");
+    }
+
+    protected void loadFiles(GitService gitService, Repository repository, RevCommit currentCommit, MatchPair matchPair) throws IOException {
+        Map<String, String> fileContentsBefore = new LinkedHashMap<>();
+        Map<String, String> fileContentsCurrent = new LinkedHashMap<>();
+        Map<String, ObjectId> blobIdsBefore = new LinkedHashMap<>();
+        Map<String, ObjectId> blobIdsCurrent = new LinkedHashMap<>();
+        PhaseTimer timer = new PhaseTimer(matchPair);
+        RevCommit parentCommit = currentCommit.getParent(0);
+        gitService.populateFileContents(repository, parentCommit, currentCommit, matchPair.getAddedFiles(), matchPair.getDeletedFiles(),
+                matchPair.getModifiedFiles(), matchPair.getRenamedFiles(), fileContentsBefore, fileContentsCurrent, blobIdsBefore, blobIdsCurrent);
         matchPair.setFileContentsBefore(fileContentsBefore);
         matchPair.setFileContentsCurrent(fileContentsCurrent);
+        matchPair.setBlobIdsBefore(blobIdsBefore);
+        matchPair.setBlobIdsCurrent(blobIdsCurrent);
+        timer.lap("populateFileContents");
+    }
 
-        populateFileDNTs(jdtService, fileContentsBefore, fileDNTsBefore);
-        populateFileDNTs(jdtService, fileContentsCurrent, fileDNTsCurrent);
+    protected void parseFiles(JDTService jdtService, MatchPair matchPair, Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) {
+        PhaseTimer timer = new PhaseTimer(matchPair);
+        long reparses = jdtService.getReparseCount();
+        populateFileDNTs(jdtService, matchPair, matchPair.getFileContentsBefore(), fileDNTsBefore);
+        populateFileDNTs(jdtService, matchPair, matchPair.getFileContentsCurrent(), fileDNTsCurrent);
+        matchPair.getMetrics().count("reparsedFiles", jdtService.getReparseCount() - reparses);
+        timer.lap("populateFileDNTs");
+    }
+
+    protected void matchEntities(GitService gitService, Repository repository, RevCommit currentCommit, MatchPair matchPair,
+                                 Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) throws Exception {
+        Set<String> addedFiles = matchPair.getAddedFiles();
+        Set<String> deletedFiles = matchPair.getDeletedFiles();
+        Set<String> modifiedFiles = matchPair.getModifiedFiles();
+        Map<String, String> renamedFiles = matchPair.getRenamedFiles();
+        Map<String, String> fileContentsBefore = matchPair.getFileContentsBefore();
+        Map<String, String> fileContentsCurrent = matchPair.getFileContentsCurrent();
+        RevCommit parentCommit = currentCommit.getParent(0);
+        PhaseTimer timer = new PhaseTimer(matchPair);
 
         pruneUnchangedEntitiesInModifiedFiles(matchPair, modifiedFiles, fileDNTsBefore, fileDNTsCurrent);
         pruneUnchangedEntitiesInRenamedFiles(matchPair, renamedFiles, fileDNTsBefore, fileDNTsCurrent);
         pruneUnchangedEntitiesInRenamedFiles(matchPair, deletedFiles, addedFiles, fileDNTsBefore, fileDNTsCurrent);
+        timer.lap("pruneUnchangedEntities");
 
         matchByNameAndSignature(matchPair, modifiedFiles, fileDNTsBefore, fileDNTsCurrent);
+        timer.lap("matchByNameAndSignature");
         matchByDiceCoefficient(matchPair, modifiedFiles, renamedFiles, deletedFiles, addedFiles, fileDNTsBefore, fileDNTsCurrent);
+        timer.lap("matchByDiceCoefficient");
         matchByIntroduceObjectRefactoring(matchPair);
+        timer.lap("matchByIntroduceObjectRefactoring");
 
-        String commitId = currentCommit.getId().getName();
-        String projectPath = repository.getWorkTree().getPath();
-        gitService.checkoutCurrent(repository, commitId);
-        populateCurrentDependencies(matchPair, fileContentsCurrent, projectPath, modifiedFiles, renamedFiles, addedFiles);
-        gitService.resetHard(repository);
-        gitService.checkoutParent(repository, commitId);
-        populateBeforeDependencies(matchPair, fileContentsBefore, projectPath, modifiedFiles, renamedFiles, deletedFiles);
+        if (checkoutFree || repository.isBare()) {
+            try (ProjectParser parser = new ProjectParser(gitService, repository, currentCommit, sourceRootIndex)) {
+                populateCurrentDependencies(matchPair, fileContentsCurrent, parser, modifiedFiles, renamedFiles, addedFiles);
+            }
+            try (ProjectParser parser = new ProjectParser(gitService, repository, parentCommit, sourceRootIndex)) {
+                populateBeforeDependencies(matchPair, fileContentsBefore, parser, modifiedFiles, renamedFiles, deletedFiles);
+            }
+        } else {
+            String commitId = currentCommit.getId().getName();
+            String projectPath = repository.getWorkTree().getPath();
+            String head = repository.getFullBranch();
+            try {
+                gitService.checkoutCurrent(repository, commitId);
+                populateCurrentDependencies(matchPair, fileContentsCurrent, new ProjectParser(projectPath, sourceRootIndex), modifiedFiles, renamedFiles, addedFiles);
+                gitService.resetHard(repository);
+                gitService.checkoutParent(repository, commitId);
+                populateBeforeDependencies(matchPair, fileContentsBefore, new ProjectParser(projectPath, sourceRootIndex), modifiedFiles, renamedFiles, deletedFiles);
+            } catch (Throwable e) {
+                restoreWorkTree(gitService, repository, head, e);
+                throw e;
+            }
+        }
+        timer.lap("populateDependencies");
 
         fineMatching(matchPair, renamedFiles);
+        timer.lap("fineMatching");
         additionalMatchByName(matchPair);
+        timer.lap("additionalMatchByName");
         additionalMatchByDice(matchPair);
+        timer.lap("additionalMatchByDice");
         additionalMatchByReference(matchPair);
+        timer.lap("additionalMatchByReference");
         repairMatching(matchPair);
+        timer.lap("repairMatching");
         filter(matchPair);
+        timer.lap("filter");
     }
 
     protected void matchEntities(GitService gitService, JDTService jdtService, Repository repository,
@@ -90,50 +194,100 @@ public class SoftwareEntityMatcherService {
         Map<String, String> renamedFiles = new LinkedHashMap<>();
         Map<String, String> fileContentsBefore = new LinkedHashMap<>();
         Map<String, String> fileContentsCurrent = new LinkedHashMap<>();
+        Map<String, ObjectId> blobIdsBefore = new LinkedHashMap<>();
+        Map<String, ObjectId> blobIdsCurrent = new LinkedHashMap<>();
         Map<String, RootNode> fileDNTsBefore = new LinkedHashMap<>();
         Map<String, RootNode> fileDNTsCurrent = new LinkedHashMap<>();
+        PhaseTimer timer = new PhaseTimer(matchPair);
         gitService.fileTreeDiff(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles);
+        timer.lap("fileTreeDiff");
 
-        populateFileContents(repository, startCommit, deletedFiles, fileContentsBefore);
-        populateFileContents(repository, startCommit, modifiedFiles, fileContentsBefore);
-        populateFileContents(repository, startCommit, renamedFiles.keySet(), fileContentsBefore);
-        populateFileContents(repository, endCommit, addedFiles, fileContentsCurrent);
-        populateFileContents(repository, endCommit, modifiedFiles, fileContentsCurrent);
-        populateFileContents(repository, endCommit, new HashSet<>(renamedFiles.values()), fileContentsCurrent);
+        gitService.populateFileContents(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles,
+                fileContentsBefore, fileContentsCurrent, blobIdsBefore, blobIdsCurrent);
+        timer.lap("populateFileContents");
         matchPair.setAddedFiles(addedFiles);
         matchPair.setDeletedFiles(deletedFiles);
         matchPair.setModifiedFiles(modifiedFiles);
         matchPair.setRenamedFiles(renamedFiles);
         matchPair.setFileContentsBefore(fileContentsBefore);
         matchPair.setFileContentsCurrent(fileContentsCurrent);
+        matchPair.setBlobIdsBefore(blobIdsBefore);
+        matchPair.setBlobIdsCurrent(blobIdsCurrent);
 
-        populateFileDNTs(jdtService, fileContentsBefore, fileDNTsBefore);
-        populateFileDNTs(jdtService, fileContentsCurrent, fileDNTsCurrent);
+        long reparses = jdtService.getReparseCount();
+        populateFileDNTs(jdtService, matchPair, fileContentsBefore, fileDNTsBefore);
+        populateFileDNTs(jdtService, matchPair, fileContentsCurrent, fileDNTsCurrent);
+        matchPair.getMetrics().count("reparsedFiles", jdtService.getReparseCount() - reparses);
+        timer.lap("populateFileDNTs");
 
         pruneUnchangedEntitiesInModifiedFiles(matchPair, modifiedFiles, fileDNTsBefore, fileDNTsCurrent);
         pruneUnchangedEntitiesInRenamedFiles(matchPair, renamedFiles, fileDNTsBefore, fileDNTsCurrent);
         pruneUnchangedEntitiesInRenamedFiles(matchPair, deletedFiles, addedFiles, fileDNTsBefore, fileDNTsCurrent);
+        timer.lap("pruneUnchangedEntities");
 
         matchByNameAndSignature(matchPair, modifiedFiles, fileDNTsBefore, fileDNTsCurrent);
+        timer.lap("matchByNameAndSignature");
         matchByDiceCoefficient(matchPair, modifiedFiles, renamedFiles, deletedFiles, addedFiles, fileDNTsBefore, fileDNTsCurrent);
+        timer.lap("matchByDiceCoefficient");
         matchByIntroduceObjectRefactoring(matchPair);
+        timer.lap("matchByIntroduceObjectRefactoring");
 
-        String endCommitId = endCommit.getId().getName();
-        String projectPath = repository.getWorkTree().getPath();
-        gitService.checkoutCurrent(repository, endCommitId);
-        populateCurrentDependencies(matchPair, fileContentsCurrent, projectPath, modifiedFiles, renamedFiles, addedFiles);
-        gitService.resetHard(repository);
-
-        String startCommitId = startCommit.getId().getName();
-        gitService.checkoutCurrent(repository, startCommitId);
-        populateBeforeDependencies(matchPair, fileContentsBefore, projectPath, modifiedFiles, renamedFiles, deletedFiles);
+        if (checkoutFree || repository.isBare()) {
+            try (ProjectParser parser = new ProjectParser(gitService, repository, endCommit, sourceRootIndex)) {
+                populateCurrentDependencies(matchPair, fileContentsCurrent, parser, modifiedFiles, renamedFiles, addedFiles);
+            }
+            try (ProjectParser parser = new ProjectParser(gitService, repository, startCommit, sourceRootIndex)) {
+                populateBeforeDependencies(matchPair, fileContentsBefore, parser, modifiedFiles, renamedFiles, deletedFiles);
+            }
+        } else {
+            String endCommitId = endCommit.getId().getName();
+            String projectPath = repository.getWorkTree().getPath();
+            String head = repository.getFullBranch();
+            try {
+                gitService.checkoutCurrent(repository, endCommitId);
+                populateCurrentDependencies(matchPair, fileContentsCurrent, new ProjectParser(projectPath, sourceRootIndex), modifiedFiles, renamedFiles, addedFiles);
+                gitService.resetHard(repository);
+
+                String startCommitId = startCommit.getId().getName();
+                gitService.checkoutCurrent(repository, startCommitId);
+                populateBeforeDependencies(matchPair, fileContentsBefore, new ProjectParser(projectPath, sourceRootIndex), modifiedFiles, renamedFiles, deletedFiles);
+            } catch (Throwable e) {
+                restoreWorkTree(gitService, repository, head, e);
+                throw e;
+            }
+        }
+        timer.lap("populateDependencies");
 
         fineMatching(matchPair, renamedFiles);
+        timer.lap("fineMatching");
         additionalMatchByName(matchPair);
+        timer.lap("additionalMatchByName");
         additionalMatchByDice(matchPair);
+        timer.lap("additionalMatchByDice");
         additionalMatchByReference(matchPair);
+        timer.lap("additionalMatchByReference");
         repairMatching(matchPair);
+        timer.lap("repairMatching");
         filter(matchPair);
+        timer.lap("filter");
+    }
+
+    /**
+     * Put the working directory back to the branch or commit it was on before the matching was cancelled or failed,
+     * even if the cancellation came from an interrupt. A failure to restore it is added to the original failure.
+     */
+    private void restoreWorkTree(GitService gitService, Repository repository, String head, Throwable failure) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            gitService.resetHard(repository);
+            if (head != null)
+                gitService.checkoutCurrent(repository, head);
+        } catch (Exception e) {
+            failure.addSuppressed(e);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
     }
 
     protected void matchEntities(JDTService jdtService, File previousFile, File nextFile, MatchPair matchPair) throws Exception {
@@ -152,8 +306,8 @@ public class SoftwareEntityMatcherService {
         populateFileContents(previousFile, fileContentsBefore);
         populateFileContents(nextFile, fileContentsCurrent);
 
-        populateFileDNTs(jdtService, fileContentsBefore, fileDNTsBefore);
-        populateFileDNTs(jdtService, fileContentsCurrent, fileDNTsCurrent);
+        populateFileDNTs(jdtService, matchPair, fileContentsBefore, fileDNTsBefore);
+        populateFileDNTs(jdtService, matchPair, fileContentsCurrent, fileDNTsCurrent);
         matchPair.setRenamedFiles(renamedFiles);
         matchPair.setFileContentsBefore(fileContentsBefore);
         matchPair.setFileContentsCurrent(fileContentsCurrent);
@@ -164,8 +318,8 @@ public class SoftwareEntityMatcherService {
         matchByDiceCoefficient(matchPair, modifiedFiles, renamedFiles, deletedFiles, addedFiles, fileDNTsBefore, fileDNTsCurrent);
         matchByIntroduceObjectRefactoring(matchPair);
 
-        populateCurrentDependencies(matchPair, fileContentsCurrent, projectPath, modifiedFiles, renamedFiles, addedFiles);
-        populateBeforeDependencies(matchPair, fileContentsBefore, projectPath, modifiedFiles, renamedFiles, deletedFiles);
+        populateCurrentDependencies(matchPair, fileContentsCurrent, new ProjectParser(projectPath), modifiedFiles, renamedFiles, addedFiles);
+        populateBeforeDependencies(matchPair, fileContentsBefore, new ProjectParser(projectPath), modifiedFiles, renamedFiles, deletedFiles);
 
         fineMatching(matchPair, renamedFiles);
         additionalMatchByName(matchPair);
@@ -175,40 +329,20 @@ public class SoftwareEntityMatcherService {
         filter(matchPair);
     }
 
-    private void populateFileContents(Repository repository, RevCommit commit,
-                                      Set<String> filePaths, Map<String, String> fileContents) throws IOException {
-        RevTree parentTree = commit.getTree();
-        try (TreeWalk treeWalk = new TreeWalk(repository)) {
-            treeWalk.addTree(parentTree);
-            treeWalk.setRecursive(true);
-            while (treeWalk.next()) {
-                String pathString = treeWalk.getPathString();
-                if (filePaths.contains(pathString)) {
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-                    StringWriter writer = new StringWriter();
-                    IOUtils.copy(loader.openStream(), writer, StandardCharsets.UTF_8);
-                    fileContents.put(pathString, writer.toString());
-                }
-            }
-        }
-    }
-
     private void populateFileContents(File file, Map<String, String> fileContents) throws IOException {
         String path = file.getPath().replace("\\", "/");
         String contents = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
         fileContents.put(path, contents);
     }
 
-    private void populateFileDNTs(JDTService jdtService, Map<String, String> fileContents, Map<String, RootNode> fileDNTs) {
-        for (String filePath : fileContents.keySet()) {
-            RootNode dntBefore = jdtService.parseFileDNT(filePath, fileContents.get(filePath));
-            fileDNTs.put(filePath, dntBefore);
-        }
+    private void populateFileDNTs(JDTService jdtService, MatchPair matchPair, Map<String, String> fileContents,
+                                  Map<String, RootNode> fileDNTs) {
+        parserPool.parse(fileContents, jdtService::parseFileDNT, fileDNTs, matchPair.getCancellationToken());
     }
 
     private void pruneUnchangedEntitiesInModifiedFiles(MatchPair matchPair, Set<String> modifiedFiles, Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) {
         for (String filePath : modifiedFiles) {
+            matchPair.checkCancelled();
             RootNode dntBefore = fileDNTsBefore.get(filePath);
             RootNode dntCurrent = fileDNTsCurrent.get(filePath);
             pruneUnchangedEntities(matchPair, dntBefore, dntCurrent);
@@ -217,6 +351,7 @@ public class SoftwareEntityMatcherService {
 
     private void pruneUnchangedEntitiesInRenamedFiles(MatchPair matchPair, Map<String, String> renamedFiles, Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) {
         for (String filePath : renamedFiles.keySet()) {
+            matchPair.checkCancelled();
             String renamedFilePath = renamedFiles.get(filePath);
             RootNode dntBefore = fileDNTsBefore.get(filePath);
             RootNode dntCurrent = fileDNTsCurrent.get(renamedFilePath);
@@ -224,39 +359,97 @@ public class SoftwareEntityMatcherService {
         }
     }
 
-    private void pruneUnchangedEntitiesInRenamedFiles(MatchPair matchPair, Set<String> deletedFiles, Set<String> addedFiles, Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) {
+    /**
+     * Prune the unchanged entities of files that were moved without changing their top-level types. Each deleted file
+     * is only compared to the added files with the same name and the same kinds of top-level types.
+     */
+    void pruneUnchangedEntitiesInRenamedFiles(MatchPair matchPair, Set<String> deletedFiles, Set<String> addedFiles, Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) {
         NormalizedLevenshtein levenshtein = new NormalizedLevenshtein();
+        Map<String, Integer> addedFileOrder = new HashMap<>();
+        Map<String, List<String>> addedFilesByFingerprint = new HashMap<>();
+        for (String addedFilePath : addedFiles) {
+            addedFileOrder.put(addedFilePath, addedFileOrder.size());
+            addedFilesByFingerprint.computeIfAbsent(getMoveFingerprint(addedFilePath, fileDNTsCurrent.get(addedFilePath)),
+                    key -> new ArrayList<>()).add(addedFilePath);
+        }
         for (String deletedFilePath : deletedFiles) {
-            String deletedFileName = deletedFilePath.substring(deletedFilePath.lastIndexOf('/') + 1);
-            for (String addedFilePath : addedFiles) {
-                String addedFileName = addedFilePath.substring(addedFilePath.lastIndexOf('/') + 1);
-                if (!StringUtils.equals(deletedFileName, addedFileName)) continue;
-                RootNode dntBefore = fileDNTsBefore.get(deletedFilePath);
+            matchPair.checkCancelled();
+            RootNode dntBefore = fileDNTsBefore.get(deletedFilePath);
+            String deletedFingerprint = getMoveFingerprint(deletedFilePath, dntBefore);
+            Deque<String> candidates = new ArrayDeque<>(addedFilesByFingerprint.getOrDefault(deletedFingerprint, Collections.emptyList()));
+            while (!candidates.isEmpty()) {
+                String addedFilePath = candidates.poll();
                 RootNode dntCurrent = fileDNTsCurrent.get(addedFilePath);
-                List<DeclarationNodeTree> deletedNodes = dntBefore.getChildren();
-                List<DeclarationNodeTree> addedNodes = dntCurrent.getChildren();
-                if (deletedNodes.size() == addedNodes.size()) {
-                    boolean exactMatch = true;
-                    for (int i = 0; i < deletedNodes.size(); i++) {
-                        DeclarationNodeTree node1 = deletedNodes.get(i);
-                        DeclarationNodeTree node2 = addedNodes.get(i);
-                        double similarity = levenshtein.distance(node1.getDeclaration().toString(), node2.getDeclaration().toString());
-                        if (node1.getType() == node2.getType() && (StringUtils.equals(node1.getDeclaration().toString(), node2.getDeclaration().toString()) ||
-                                similarity < 0.01)) ;
-                        else {
-                            exactMatch = false;
-                            break;
-                        }
-                    }
-                    if (exactMatch)
-                        pruneUnchangedEntities(matchPair, deletedFilePath, addedFilePath, dntBefore, dntCurrent);
+                if (!isMovedWithoutChange(levenshtein, dntBefore, dntCurrent))
+                    continue;
+                pruneUnchangedEntities(matchPair, deletedFilePath, addedFilePath, dntBefore, dntCurrent);
+                // pruning removes top-level types from the added file, which may now be a candidate for other files
+                addCandidateFile(addedFilesByFingerprint, addedFileOrder, getMoveFingerprint(addedFilePath, dntCurrent), addedFilePath);
+                // so may the deleted file itself, which goes on with the later added files of its new kinds
+                String prunedFingerprint = getMoveFingerprint(deletedFilePath, dntBefore);
+                if (!prunedFingerprint.equals(deletedFingerprint)) {
+                    deletedFingerprint = prunedFingerprint;
+                    candidates = getLaterCandidateFiles(addedFilesByFingerprint, addedFileOrder, deletedFingerprint, addedFilePath);
                 }
             }
         }
     }
 
+    private boolean isMovedWithoutChange(NormalizedLevenshtein levenshtein, RootNode dntBefore, RootNode dntCurrent) {
+        List<DeclarationNodeTree> deletedNodes = dntBefore.getChildren();
+        List<DeclarationNodeTree> addedNodes = dntCurrent.getChildren();
+        if (deletedNodes.size() != addedNodes.size())
+            return false;
+        for (int i = 0; i < deletedNodes.size(); i++) {
+            DeclarationNodeTree node1 = deletedNodes.get(i);
+            DeclarationNodeTree node2 = addedNodes.get(i);
+            if (node1.getType() != node2.getType() || !(node1.hasSameDeclaration(node2) ||
+                    levenshtein.distance(node1.getDeclaration().toString(), node2.getDeclaration().toString()) < 0.01))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add an added file to the candidates with the given fingerprint, keeping them in the order of the added files.
+     */
+    private void addCandidateFile(Map<String, List<String>> addedFilesByFingerprint, Map<String, Integer> addedFileOrder,
+                                  String fingerprint, String addedFilePath) {
+        List<String> candidates = addedFilesByFingerprint.computeIfAbsent(fingerprint, key -> new ArrayList<>());
+        if (candidates.contains(addedFilePath))
+            return;
+        int index = 0;
+        while (index < candidates.size() && addedFileOrder.get(candidates.get(index)) < addedFileOrder.get(addedFilePath))
+            index++;
+        candidates.add(index, addedFilePath);
+    }
+
+    /**
+     * @return the candidates with the given fingerprint that come after the given added file
+     */
+    private Deque<String> getLaterCandidateFiles(Map<String, List<String>> addedFilesByFingerprint, Map<String, Integer> addedFileOrder,
+                                                 String fingerprint, String addedFilePath) {
+        int order = addedFileOrder.get(addedFilePath);
+        Deque<String> candidates = new ArrayDeque<>();
+        for (String candidate : addedFilesByFingerprint.getOrDefault(fingerprint, Collections.emptyList())) {
+            if (addedFileOrder.get(candidate) > order)
+                candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the name of the file followed by the kinds of its top-level types
+     */
+    private String getMoveFingerprint(String filePath, RootNode dnt) {
+        StringBuilder fingerprint = new StringBuilder(filePath.substring(filePath.lastIndexOf('/') + 1));
+        for (DeclarationNodeTree node : dnt.getChildren())
+            fingerprint.append('/').append(node.getType());
+        return fingerprint.toString();
+    }
+
     private boolean pruneUnchangedEntities(MatchPair matchPair, DeclarationNodeTree dntBefore, DeclarationNodeTree dntCurrent) {
-        if (StringUtils.equals(dntBefore.getDeclaration().toString(), dntCurrent.getDeclaration().toString())) {
+        if (dntBefore.hasSameDeclaration(dntCurrent)) {
             if (dntBefore.isRoot() && dntCurrent.isRoot() && dntBefore.hasChildren() && dntCurrent.hasChildren())
                 pruneUnchangedEntities(matchPair, dntBefore.getChildren(), dntCurrent.getChildren());
             return true;
@@ -284,7 +477,7 @@ public class SoftwareEntityMatcherService {
     }
 
     private boolean pruneUnchangedEntities(MatchPair matchPair, String filePath, String renamedFilePath, DeclarationNodeTree dntBefore, DeclarationNodeTree dntCurrent) {
-        if (StringUtils.equals(dntBefore.getDeclaration().toString(), dntCurrent.getDeclaration().toString())) {
+        if (dntBefore.hasSameDeclaration(dntCurrent)) {
             if (dntBefore.isRoot() && dntCurrent.isRoot() && dntBefore.hasChildren() && dntCurrent.hasChildren())
                 pruneUnchangedEntities(matchPair, filePath, renamedFilePath, dntBefore.getChildren(), dntCurrent.getChildren());
             return true;
@@ -310,8 +503,7 @@ public class SoftwareEntityMatcherService {
     }
 
     private void addInternalCandidateEntity(MatchPair matchPair, String filePath, String renamedFilePath, DeclarationNodeTree node1, DeclarationNodeTree node2) {
-        if (node1.equals(node2, filePath, renamedFilePath) &&
-                StringUtils.equals(node1.getDeclaration().toString(), node2.getDeclaration().toString())) {
+        if (node1.equals(node2, filePath, renamedFilePath) && node1.hasSameDeclaration(node2)) {
             node1.setMatched();
             node2.setMatched();
             matchPair.addMatchedEntity(node1, node2);
@@ -338,6 +530,7 @@ public class SoftwareEntityMatcherService {
 
     private void matchByNameAndSignature(MatchPair matchPair, Set<String> modifiedFiles, Map<String, RootNode> fileDNTsBefore, Map<String, RootNode> fileDNTsCurrent) {
         for (String filePath : modifiedFiles) {
+            matchPair.checkCancelled();
             RootNode dntBefore = fileDNTsBefore.get(filePath);
             RootNode dntCurrent = fileDNTsCurrent.get(filePath);
             boolean repairPublicClass = repairPublicClass(dntBefore, dntCurrent);
@@ -461,6 +654,7 @@ public class SoftwareEntityMatcherService {
                                         Set<String> deletedFiles, Set<String> addedFiles, Map<String, RootNode> fileDNTsBefore,
                                         Map<String, RootNode> fileDNTsCurrent) {
         for (String filePath : modifiedFiles) {
+            matchPair.checkCancelled();
             RootNode dntBefore = fileDNTsBefore.get(filePath);
             RootNode dntCurrent = fileDNTsCurrent.get(filePath);
             matchLeafNodesByDice(matchPair, dntBefore.getLeafNodes(), dntCurrent.getLeafNodes());
@@ -469,6 +663,7 @@ public class SoftwareEntityMatcherService {
             matchPair.addAddedEntities(dntCurrent.getUnmatchedNodes());
         }
         for (String filePath : renamedFiles.keySet()) {
+            matchPair.checkCancelled();
             RootNode dntBefore = fileDNTsBefore.get(filePath);
             RootNode dntCurrent = fileDNTsCurrent.get(renamedFiles.get(filePath));
             matchLeafNodesByDice(matchPair, dntBefore.getLeafNodes(), dntCurrent.getLeafNodes());
@@ -508,11 +703,18 @@ public class SoftwareEntityMatcherService {
 
     private void matchLeafNodesByDice(MatchPair matchPair, List<LeafNode> leafNodesBefore, List<LeafNode> leafNodesCurrent) {
         List<EntityPair> entityPairs = new ArrayList<>();
-        for (LeafNode leafBefore : leafNodesBefore) {
-            for (LeafNode leafCurrent : leafNodesCurrent) {
+        List<BitSet> candidates = blocking != null && blocking.isApplicable(leafNodesBefore.size(), leafNodesCurrent.size()) ?
+                blocking.candidates(leafNodesBefore, leafNodesCurrent, DiceFunction::getSimilarityTokens) : null;
+        for (int i = 0; i < leafNodesBefore.size(); i++) {
+            matchPair.checkCancelled();
+            LeafNode leafBefore = leafNodesBefore.get(i);
+            for (int j = 0; j < leafNodesCurrent.size(); j++) {
+                LeafNode leafCurrent = leafNodesCurrent.get(j);
                 if (leafBefore.getType() != leafCurrent.getType())
                     continue;
-                double dice = DiceFunction.calculateDiceSimilarity(leafBefore, leafCurrent);
+                if (candidates != null && !candidates.get(i).get(j))
+                    continue;
+                double dice = DiceFunction.calculateDiceSimilarity(matchPair, leafBefore, leafCurrent, DiceFunction.minSimilarity);
                 if (dice < DiceFunction.minSimilarity)
                     continue;
                 EntityPair entityPair = new EntityPair(leafBefore, leafCurrent);
@@ -526,6 +728,7 @@ public class SoftwareEntityMatcherService {
     private void matchInternalNodesByDice(MatchPair matchPair, List<InternalNode> internalNodesBefore, List<InternalNode> internalNodesCurrent) {
         List<EntityPair> entityPairs = new ArrayList<>();
         for (InternalNode internalBefore : internalNodesBefore) {
+            matchPair.checkCancelled();
             for (InternalNode internalCurrent : internalNodesCurrent) {
                 if (internalBefore.getType() != internalCurrent.getType())
                     continue;
@@ -557,11 +760,25 @@ public class SoftwareEntityMatcherService {
 
     private void populateEntityDependencies(ProjectParser parser, Map<String, String> fileContents,
                                             Map<EntityInfo, List<EntityInfo>> dependencies, Map<String, List<ASTNode>> astNodes) {
+        Map<String, CompilationUnit> compilationUnits = parseWithBindings(parser, fileContents);
         for (String filePath : fileContents.keySet()) {
-            ASTParser astParser = ASTParserUtils.getASTParser(parser.getSourcepathEntries(), parser.getEncodings());
-            String code = fileContents.get(filePath);
-            astParser.setSource(code.toCharArray());
-            CompilationUnit cu = (CompilationUnit) astParser.createAST(null);
+            CompilationUnit cu = compilationUnits.get(filePath);
+            if (cu == null) {
+                JdtParseEvent event = new JdtParseEvent();
+                event.begin();
+                ASTParser astParser = ASTParserUtils.getASTParser(parser.getSourcepathEntries(), parser.getEncodings());
+                String code = fileContents.get(filePath);
+                astParser.setSource(code.toCharArray());
+                cu = (CompilationUnit) astParser.createAST(null);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.filePath = filePath;
+                    event.files = 1;
+                    event.sourceLength = code.length();
+                    event.bindings = true;
+                    event.commit();
+                }
+            }
             NodeDeclarationVisitor visitor = new NodeDeclarationVisitor();
             cu.accept(visitor);
             astNodes.put(filePath, visitor.getASTNodes());
@@ -586,6 +803,55 @@ public class SoftwareEntityMatcherService {
         }
     }
 
+    /**
+     * Parse all files of one side in a single createASTs batch, so that the lookup environment and the
+     * type bindings of the sourcepath are built once instead of once per file. createASTs reads its
+     * units from disk, so the file contents are written to a temporary directory first.
+     */
+    private Map<String, CompilationUnit> parseWithBindings(ProjectParser parser, Map<String, String> fileContents) {
+        Map<String, CompilationUnit> compilationUnits = new HashMap<>();
+        if (fileContents.isEmpty())
+            return compilationUnits;
+        File batchDirectory = null;
+        try {
+            batchDirectory = Files.createTempDirectory("remapper-batch-").toFile();
+            Map<String, String> sourceFiles = new HashMap<>();
+            String[] sourceFilePaths = new String[fileContents.size()];
+            String[] encodings = new String[fileContents.size()];
+            int index = 0;
+            for (String filePath : fileContents.keySet()) {
+                String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
+                File file = new File(new File(batchDirectory, String.valueOf(index)), fileName);
+                FileUtils.writeStringToFile(file, fileContents.get(filePath), StandardCharsets.UTF_8);
+                sourceFilePaths[index] = file.getPath();
+                encodings[index] = "utf-8";
+                sourceFiles.put(file.getPath(), filePath);
+                index++;
+            }
+            JdtParseEvent event = new JdtParseEvent();
+            event.begin();
+            ASTParser astParser = ASTParserUtils.getASTParser(parser.getSourcepathEntries(), parser.getEncodings());
+            astParser.createASTs(sourceFilePaths, encodings, new String[0], new FileASTRequestor() {
+                @Override
+                public void acceptAST(String sourceFilePath, CompilationUnit ast) {
+                    compilationUnits.put(sourceFiles.get(sourceFilePath), ast);
+                }
+            }, null);
+            event.end();
+            if (event.shouldCommit()) {
+                event.files = sourceFilePaths.length;
+                event.sourceLength = fileContents.values().stream().mapToInt(String::length).sum();
+                event.bindings = true;
+                event.commit();
+            }
+        } catch (IOException e) {
+            compilationUnits.clear();
+        } finally {
+            FileUtils.deleteQuietly(batchDirectory);
+        }
+        return compilationUnits;
+    }
+
     private void populateDependencyOnTypeDeclaration(List<TypeDeclaration> typeDeclarations,
                                                      Map<EntityInfo, List<EntityInfo>> dependencies, CompilationUnit cu, String filePath) {
         for (TypeDeclaration declaration : typeDeclarations) {
@@ -784,9 +1050,8 @@ public class SoftwareEntityMatcherService {
         }
     }
 
-    private void populateCurrentDependencies(MatchPair matchPair, Map<String, String> fileContentsCurrent, String projectPath,
+    private void populateCurrentDependencies(MatchPair matchPair, Map<String, String> fileContentsCurrent, ProjectParser parser,
                                              Set<String> modifiedFiles, Map<String, String> renamedFiles, Set<String> addedFiles) {
-        ProjectParser parser = new ProjectParser(projectPath);
         Map<EntityInfo, DeclarationNodeTree> entities = new HashMap<>();
         List<String> changedJavaFiles = new ArrayList<>();
         changedJavaFiles.addAll(modifiedFiles);
@@ -796,6 +1061,7 @@ public class SoftwareEntityMatcherService {
         Map<String, List<ASTNode>> nodeMap = new HashMap<>();
         parser.buildEntityDependencies(fileContentsCurrent);
         populateEntityDependencies(parser, fileContentsCurrent, dependencies, nodeMap);
+        matchPair.checkCancelled();
         for (DeclarationNodeTree dnt : matchPair.getMatchedEntitiesRight()) {
             entities.put(dnt.getEntity(), dnt);
             replaceASTNodeWithBinding(nodeMap, dnt);
@@ -903,9 +1169,8 @@ public class SoftwareEntityMatcherService {
         }
     }
 
-    private void populateBeforeDependencies(MatchPair matchPair, Map<String, String> fileContentsBefore, String projectPath,
+    private void populateBeforeDependencies(MatchPair matchPair, Map<String, String> fileContentsBefore, ProjectParser parser,
                                             Set<String> modifiedFiles, Map<String, String> renamedFiles, Set<String> deletedFiles) {
-        ProjectParser parser = new ProjectParser(projectPath);
         List<String> changedJavaFiles = new ArrayList<>();
         Map<EntityInfo, DeclarationNodeTree> entities = new HashMap<>();
         changedJavaFiles.addAll(modifiedFiles);
@@ -915,6 +1180,7 @@ public class SoftwareEntityMatcherService {
         Map<String, List<ASTNode>> nodeMap = new HashMap<>();
         parser.buildEntityDependencies(fileContentsBefore);
         populateEntityDependencies(parser, fileContentsBefore, dependencies, nodeMap);
+        matchPair.checkCancelled();
         for (DeclarationNodeTree dnt : matchPair.getMatchedEntitiesLeft()) {
             entities.put(dnt.getEntity(), dnt);
             replaceASTNodeWithBinding(nodeMap, dnt);
@@ -942,6 +1208,7 @@ public class SoftwareEntityMatcherService {
         Set<DeclarationNodeTree> deletedEntitiesDeletion = new HashSet<>();
         Set<DeclarationNodeTree> addedEntitiesDeletion = new HashSet<>();
         for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchedEntities) {
+            matchPair.checkCancelled();
             DeclarationNodeTree dntBefore = pair.getLeft();
             DeclarationNodeTree dntCurrent = pair.getRight();
             if (!isSameType(dntBefore, dntCurrent))
@@ -1021,6 +1288,7 @@ public class SoftwareEntityMatcherService {
             if (i == 0)
                 populateRenamedFiles(beforeEntities, currentEntities, renamedFiles, temp);
             for (DeclarationNodeTree dntBefore : beforeEntities) {
+                matchPair.checkCancelled();
                 for (DeclarationNodeTree dntCurrent : currentEntities) {
                     if (typeCompatible(dntBefore, dntCurrent)) {
                         if (dntBefore.getType() == EntityType.METHOD && dntCurrent.getType() == EntityType.METHOD) {
@@ -1034,10 +1302,8 @@ public class SoftwareEntityMatcherService {
                                 continue;
                             DeclarationNodeTree dntBeforeParent = dntBefore.getParent();
                             DeclarationNodeTree dntCurrentParent = dntCurrent.getParent();
-                            Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> matchedEntities = matchPair.getMatchedEntities();
-                            Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> candidateEntities = matchPair.getCandidateEntities();
-                            if (matchedEntities.contains(Pair.of(dntBeforeParent, dntCurrentParent)) ||
-                                    candidateEntities.contains(Pair.of(dntBeforeParent, dntCurrentParent))) {
+                            if (matchPair.isMatchedEntity(dntBeforeParent, dntCurrentParent) ||
+                                    matchPair.isCandidateEntity(dntBeforeParent, dntCurrentParent)) {
                                 List<IExtendedModifier> modifiers1 = oldMethod.modifiers();
                                 List<IExtendedModifier> modifiers2 = newMethod.modifiers();
                                 boolean isOverride1 = false;
@@ -1156,6 +1422,7 @@ public class SoftwareEntityMatcherService {
         Set<DeclarationNodeTree> deletedEntityAddition = new HashSet<>();
         Set<DeclarationNodeTree> addedEntityAddition = new HashSet<>();
         for (DeclarationNodeTree dntBefore : matchPair.getDeletedEntities()) {
+            matchPair.checkCancelled();
             for (DeclarationNodeTree dntCurrent : matchPair.getAddedEntities()) {
                 if (dntBefore.equals(dntCurrent)) {
                     double dice = 0;
@@ -1355,12 +1622,25 @@ public class SoftwareEntityMatcherService {
         Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> unchangedEntities = matchPair.getUnchangedEntities();
         Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> matchedEntities = matchPair.getMatchedEntities();
         NormalizedLevenshtein levenshtein = new NormalizedLevenshtein();
-        for (DeclarationNodeTree dntBefore : matchPair.getDeletedEntities()) {
-            for (DeclarationNodeTree dntCurrent : matchPair.getAddedEntities()) {
+        List<DeclarationNodeTree> deletedEntities = new ArrayList<>(matchPair.getDeletedEntities());
+        List<DeclarationNodeTree> addedEntities = new ArrayList<>(matchPair.getAddedEntities());
+        List<BitSet> candidates = blocking != null && blocking.isApplicable(deletedEntities.size(), addedEntities.size()) ?
+                blocking.candidates(deletedEntities, addedEntities, dnt -> dnt instanceof LeafNode ?
+                        DiceFunction.getSimilarityTokens((LeafNode) dnt) : Collections.emptyList()) : null;
+        for (int i = 0; i < deletedEntities.size(); i++) {
+            matchPair.checkCancelled();
+            DeclarationNodeTree dntBefore = deletedEntities.get(i);
+            for (int j = 0; j < addedEntities.size(); j++) {
+                DeclarationNodeTree dntCurrent = addedEntities.get(j);
                 if (dntBefore.getType() == dntCurrent.getType()) {
                     double dice = 0;
                     if (dntBefore instanceof LeafNode && dntCurrent instanceof LeafNode) {
-                        dice = DiceFunction.calculateDiceSimilarity((LeafNode) dntBefore, (LeafNode) dntCurrent);
+                        // fields may be rescored by references and names below, so they are never blocked
+                        if (candidates != null && dntBefore.getType() != EntityType.FIELD && !candidates.get(i).get(j))
+                            continue;
+                        dice = dntBefore.getType() == EntityType.FIELD ?
+                                DiceFunction.calculateDiceSimilarity((LeafNode) dntBefore, (LeafNode) dntCurrent) :
+                                DiceFunction.calculateDiceSimilarity(matchPair, (LeafNode) dntBefore, (LeafNode) dntCurrent, DiceFunction.minSimilarity);
                         double references = DiceFunction.calculateReferenceSimilarity(matchPair, dntBefore, dntCurrent);
                         if (references == 0 && dice < 0.85)
                             dice = 0;
@@ -1368,7 +1648,7 @@ public class SoftwareEntityMatcherService {
                                 && !dntBefore.getName().equals(dntCurrent.getName()))
                             dice = 0;
                         if (dntBefore.getType() == EntityType.FIELD && dntCurrent.getType() == EntityType.FIELD) {
-                            if (!matchedEntities.contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) {
+                            if (!matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent())) {
                                 List<DeclarationNodeTree> children = dntCurrent.getParent().getChildren();
                                 for (DeclarationNodeTree child : children) {
                                     if (child.getType() == EntityType.FIELD) continue;
@@ -1387,8 +1667,8 @@ public class SoftwareEntityMatcherService {
                                     }
                                 }
                             }
-                            if (!(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) &&
+                            if (!(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())) &&
                                     references == 0.0) {
                                 boolean isMulti1 = false;
                                 boolean isMulti2 = false;
@@ -1470,7 +1750,7 @@ public class SoftwareEntityMatcherService {
                                     }
                                 }
                             }
-                            if (matchedEntities.contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) {
+                            if (matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent())) {
                                 List<DeclarationNodeTree> children1 = dntBefore.getParent().getChildren();
                                 List<DeclarationNodeTree> children2 = dntCurrent.getParent().getChildren();
                                 List<DeclarationNodeTree> fields1 = children1.stream().filter(child -> !child.isMatched() && child.getType() == EntityType.FIELD).collect(Collectors.toList());
@@ -1501,6 +1781,7 @@ public class SoftwareEntityMatcherService {
         selectByDice(matchPair, entityPairs);
         entityPairs.clear();
         for (DeclarationNodeTree dntBefore : matchPair.getDeletedEntities()) {
+            matchPair.checkCancelled();
             for (DeclarationNodeTree dntCurrent : matchPair.getAddedEntities()) {
                 if (dntBefore.getType() == dntCurrent.getType()) {
                     double dice = 0;
@@ -1602,6 +1883,7 @@ public class SoftwareEntityMatcherService {
         Set<DeclarationNodeTree> deletedEntities = matchPair.getDeletedEntities();
         Set<DeclarationNodeTree> addedEntities = matchPair.getAddedEntities();
         for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchedEntities) {
+            matchPair.checkCancelled();
             DeclarationNodeTree dntBefore = pair.getLeft();
             DeclarationNodeTree dntCurrent = pair.getRight();
             for (DeclarationNodeTree dntDeleted : deletedEntities) {
@@ -1663,6 +1945,11 @@ public class SoftwareEntityMatcherService {
     }
 
     private DeclarationNodeTree findMatchedEntity(Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> matchedEntities, DeclarationNodeTree entity) {
+        if (matchedEntities instanceof PairSet) {
+            PairSet<DeclarationNodeTree, DeclarationNodeTree> index = (PairSet<DeclarationNodeTree, DeclarationNodeTree>) matchedEntities;
+            DeclarationNodeTree partner = index.getRight(entity);
+            return partner != null ? partner : index.getLeft(entity);
+        }
         for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchedEntities) {
             if (pair.getLeft() == entity)
                 return pair.getRight();
@@ -1770,6 +2057,7 @@ public class SoftwareEntityMatcherService {
         Set<DeclarationNodeTree> addedEntitiesAdded = new HashSet<>();
         Set<DeclarationNodeTree> addedEntitiesDeleted = new HashSet<>();
         for (Pair<DeclarationNodeTree, DeclarationNodeTree> pair : matchedEntities) {
+            matchPair.checkCancelled();
             DeclarationNodeTree left = pair.getLeft();
             DeclarationNodeTree right = pair.getRight();
             if (isSameSignature(left, right)) continue;
@@ -1824,7 +2112,7 @@ public class SoftwareEntityMatcherService {
                                 break;
                             }
                         }
-                        if (isTest1 && isTest2 && isTest3 && matchedEntities.contains(Pair.of(entity.getParent(), right.getParent())) &&
+                        if (isTest1 && isTest2 && isTest3 && matchPair.isMatchedEntity(entity.getParent(), right.getParent()) &&
                                 declaration1.getBody() != null && declaration2.getBody() != null && declaration3.getBody() != null &&
                                 StringUtils.equals(declaration1.getBody().toString(), declaration3.getBody().toString()) &&
                                 !StringUtils.equals(declaration1.getBody().toString(), declaration2.getBody().toString())) {
@@ -1836,7 +2124,7 @@ public class SoftwareEntityMatcherService {
                             left.setMatched(false);
                         }
                     }
-                    if (matchedEntities.contains(Pair.of(entity.getParent(), right.getParent())) && isSameSignature(entity, right)) {
+                    if (matchPair.isMatchedEntity(entity.getParent(), right.getParent()) && isSameSignature(entity, right)) {
                         matchedEntitiesDeleted.add(pair);
                         matchedEntitiesAdded.add(Pair.of(entity, right));
                         deletedEntitiesDeleted.add(entity);
@@ -1895,7 +2183,7 @@ public class SoftwareEntityMatcherService {
                                 break;
                             }
                         }
-                        if (isTest1 && isTest2 && isTest3 && matchedEntities.contains(Pair.of(left.getParent(), entity.getParent())) &&
+                        if (isTest1 && isTest2 && isTest3 && matchPair.isMatchedEntity(left.getParent(), entity.getParent()) &&
                                 declaration1.getBody() != null && declaration2.getBody() != null && declaration3.getBody() != null &&
                                 StringUtils.equals(declaration1.getBody().toString(), declaration3.getBody().toString()) &&
                                 !StringUtils.equals(declaration1.getBody().toString(), declaration2.getBody().toString())) {
@@ -1907,7 +2195,7 @@ public class SoftwareEntityMatcherService {
                             right.setMatched(false);
                         }
                     }
-                    if (matchedEntities.contains(Pair.of(left.getParent(), entity.getParent())) && isSameSignature(left, entity)) {
+                    if (matchPair.isMatchedEntity(left.getParent(), entity.getParent()) && isSameSignature(left, entity)) {
                         matchedEntitiesDeleted.add(pair);
                         matchedEntitiesAdded.add(Pair.of(left, entity));
                         addedEntitiesDeleted.add(entity);
@@ -0,0 +1,41 @@
+package org.remapper.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The source roots of one repository, by the directory of a Java file and its declared package. The index is kept
+ * across the commits matched in the repository and grows with the changed files of each commit, so that the root of
+ * a directory is derived once rather than for every changed file of every commit.
+ */
+public class SourceRootIndex {
+
+    private final Map<String, Optional<String>> roots = new ConcurrentHashMap<>();
+
+    /**
+     * @param filePath    a path relative to the repository, or an absolute path
+     * @param packageName the package declared by the file
+     * @return the source root of the file without a trailing slash, an empty string for the repository root,
+     * or null if the directory of the file does not contain the package path
+     */
+    public String getSourceRoot(String filePath, String packageName) {
+        String normalizedPath = filePath.replace('\\', '/');
+        String directory = normalizedPath.substring(0, normalizedPath.lastIndexOf('/') + 1);
+        return roots.computeIfAbsent(directory + ':' + packageName,
+                key -> Optional.ofNullable(parseSourceRoot(directory, packageName))).orElse(null);
+    }
+
+    public int size() {
+        return roots.size();
+    }
+
+    private static String parseSourceRoot(String directory, String packageName) {
+        String packagePath = packageName.replace('.', '/') + "/";
+        int end = directory.lastIndexOf(packagePath);
+        if (end == -1)
+            return null;
+        String rootPath = directory.substring(0, end);
+        return rootPath.endsWith("/") ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+    }
+}
@@ -6,26 +6,49 @@ import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ASTParserUtils {
 
-    private static final String DEFAULT_JAVA_CORE_VERSION = JavaCore.VERSION_14;
+    static final String DEFAULT_JAVA_CORE_VERSION = JavaCore.VERSION_14;
+
+    /**
+     * Compiler options by Java version, built once because {@link JavaCore#getOptions()} copies every option of the
+     * workspace. {@link ASTParser#setCompilerOptions(Map)} takes a copy, so the maps are shared read-only.
+     */
+    private static final Map<String, Map<String, String>> OPTIONS = new ConcurrentHashMap<>();
+
+    /**
+     * One parser per thread; a parser returns to its defaults after each {@link ASTParser#createAST}.
+     */
+    private static final ThreadLocal<ASTParser> REUSABLE_PARSERS = ThreadLocal.withInitial(() -> ASTParser.newParser(AST.getJLSLatest()));
 
     public static ASTParser getASTParser(String[] sourcepathEntries, String[] encodings) {
-        return setAttributes(sourcepathEntries, encodings);
+        return setAttributes(ASTParser.newParser(AST.getJLSLatest()), DEFAULT_JAVA_CORE_VERSION, sourcepathEntries, encodings);
     }
 
     public static ASTParser getASTParser() {
-        return setAttributes(null, null);
+        return setAttributes(ASTParser.newParser(AST.getJLSLatest()), DEFAULT_JAVA_CORE_VERSION, null, null);
+    }
+
+    /**
+     * Like {@link #getASTParser()}, but reconfigures the parser of the current thread instead of creating one.
+     * The parser must not be used by the caller after the next call on the same thread.
+     */
+    public static ASTParser getReusableASTParser() {
+        return getReusableASTParser(DEFAULT_JAVA_CORE_VERSION);
+    }
+
+    /**
+     * Like {@link #getReusableASTParser()}, with the same bindings, but at the given Java version.
+     */
+    public static ASTParser getReusableASTParser(String javaCoreVersion) {
+        return setAttributes(REUSABLE_PARSERS.get(), javaCoreVersion, null, null);
     }
 
     public static ASTParser getFastParser() {
         ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
-        Map<String, String> options = JavaCore.getOptions();
-        options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, DEFAULT_JAVA_CORE_VERSION);
-        options.put(JavaCore.COMPILER_SOURCE, DEFAULT_JAVA_CORE_VERSION);
-        options.put(JavaCore.COMPILER_COMPLIANCE, DEFAULT_JAVA_CORE_VERSION);
-        parser.setCompilerOptions(options);
+        parser.setCompilerOptions(getCompilerOptions(DEFAULT_JAVA_CORE_VERSION));
         parser.setResolveBindings(false);
         parser.setKind(ASTParser.K_COMPILATION_UNIT);
         parser.setStatementsRecovery(true);
@@ -34,24 +57,16 @@ public class ASTParserUtils {
 
     public static ASTParser getBodyParser() {
         ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
-        Map<String, String> options = JavaCore.getOptions();
-        options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, DEFAULT_JAVA_CORE_VERSION);
-        options.put(JavaCore.COMPILER_SOURCE, DEFAULT_JAVA_CORE_VERSION);
-        options.put(JavaCore.COMPILER_COMPLIANCE, DEFAULT_JAVA_CORE_VERSION);
-        parser.setCompilerOptions(options);
+        parser.setCompilerOptions(getCompilerOptions(DEFAULT_JAVA_CORE_VERSION));
         parser.setResolveBindings(false);
         parser.setKind(ASTParser.K_CLASS_BODY_DECLARATIONS);
         parser.setStatementsRecovery(true);
         return parser;
     }
 
-    private static ASTParser setAttributes(String[] sourcepathEntries, String[] encodings) {
-        ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
-        Map<String, String> options = JavaCore.getOptions();
-        options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, DEFAULT_JAVA_CORE_VERSION);
-        options.put(JavaCore.COMPILER_SOURCE, DEFAULT_JAVA_CORE_VERSION);
-        options.put(JavaCore.COMPILER_COMPLIANCE, DEFAULT_JAVA_CORE_VERSION);
-        parser.setCompilerOptions(options);
+    private static ASTParser setAttributes(ASTParser parser, String javaCoreVersion, String[] sourcepathEntries,
+                                           String[] encodings) {
+        parser.setCompilerOptions(getCompilerOptions(javaCoreVersion));
         parser.setResolveBindings(true);
         parser.setKind(ASTParser.K_COMPILATION_UNIT);
         parser.setEnvironment(null, sourcepathEntries, encodings, true);
@@ -62,15 +77,21 @@ public class ASTParserUtils {
     }
 
     public static CompilationUnit getCompilationUnit(String javaCoreVersion, ASTParser parser, char[] charArray) {
-        Map<String, String> options = JavaCore.getOptions();
-        options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, javaCoreVersion);
-        options.put(JavaCore.COMPILER_SOURCE, javaCoreVersion);
-        options.put(JavaCore.COMPILER_COMPLIANCE, javaCoreVersion);
-        parser.setCompilerOptions(options);
+        parser.setCompilerOptions(getCompilerOptions(javaCoreVersion));
         parser.setResolveBindings(false);
         parser.setKind(ASTParser.K_COMPILATION_UNIT);
         parser.setStatementsRecovery(true);
         parser.setSource(charArray);
         return (CompilationUnit) parser.createAST(null);
     }
+
+    private static Map<String, String> getCompilerOptions(String javaCoreVersion) {
+        return OPTIONS.computeIfAbsent(javaCoreVersion, version -> {
+            Map<String, String> options = JavaCore.getOptions();
+            options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, version);
+            options.put(JavaCore.COMPILER_SOURCE, version);
+            options.put(JavaCore.COMPILER_COMPLIANCE, version);
+            return options;
+        });
+    }
 }
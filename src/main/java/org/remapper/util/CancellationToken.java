@@ -0,0 +1,75 @@
+package org.remapper.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cooperative cancellation of the matching of one commit. The entity and statement matchers call
+ * {@link #checkpoint()} between units of work, which throws a {@link MatchingCancelledException} once the token was
+ * cancelled, its deadline passed or the matching thread was interrupted.
+ */
+public class CancellationToken {
+
+    /**
+     * A token that is never cancelled, except by interrupting the matching thread. It is shared by every matching
+     * that was not given a token of its own, so it cannot be cancelled.
+     */
+    public static final CancellationToken NONE = new CancellationToken(Long.MAX_VALUE, false) {
+        @Override
+        public void cancel() {
+            throw new UnsupportedOperationException("CancellationToken.NONE cannot be cancelled");
+        }
+    };
+
+    private final long deadline;
+    private final boolean partialResults;
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this(Long.MAX_VALUE, false);
+    }
+
+    private CancellationToken(long deadline, boolean partialResults) {
+        this.deadline = deadline;
+        this.partialResults = partialResults;
+    }
+
+    /**
+     * @param timeout        the time after which the token is cancelled
+     * @param partialResults attach the entities and statements matched so far to the
+     *                       {@link MatchingCancelledException}
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit, boolean partialResults) {
+        return new CancellationToken(deadline(System.nanoTime(), unit.toNanos(timeout)), partialResults);
+    }
+
+    /**
+     * @return the deadline in {@link System#nanoTime()} units, or {@link Long#MAX_VALUE} for none if it would
+     * overflow; the origin of nanoTime is arbitrary and may be negative
+     */
+    static long deadline(long now, long nanos) {
+        return nanos >= Long.MAX_VALUE - Math.max(now, 0) ? Long.MAX_VALUE : now + nanos;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        if (cancelled || Thread.currentThread().isInterrupted())
+            return true;
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+            cancelled = true;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isPartialResults() {
+        return partialResults;
+    }
+
+    public void checkpoint() {
+        if (isCancelled())
+            throw new MatchingCancelledException();
+    }
+}
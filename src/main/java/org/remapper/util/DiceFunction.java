@@ -5,6 +5,7 @@ import info.debatty.java.stringsimilarity.NormalizedLevenshtein;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.jdt.core.dom.*;
 import org.remapper.dto.*;
+import org.remapper.jfr.SlowSimilarityEvent;
 import org.remapper.service.JDTService;
 
 import java.util.*;
@@ -14,17 +15,26 @@ public class DiceFunction {
     public static double minSimilarity = 0.5;
 
     public static double calculateDiceSimilarity(LeafNode leafBefore, LeafNode leafCurrent) {
-        JDTService jdtService = new JDTServiceImpl();
-        List<ChildNode> list1 = jdtService.getDescendants(leafBefore.getDeclaration());
-        List<ChildNode> list2 = jdtService.getDescendants(leafCurrent.getDeclaration());
+        return calculateDiceSimilarity(null, leafBefore, leafCurrent, 0.0);
+    }
+
+    /**
+     * Threshold-aware variant that stops as soon as the similarity provably falls below the threshold.
+     *
+     * @param matchPair the commit whose metrics count the computations that were abandoned
+     * @return the exact similarity if it is at least the threshold, otherwise a value below the threshold
+     */
+    public static double calculateDiceSimilarity(MatchPair matchPair, LeafNode leafBefore, LeafNode leafCurrent, double threshold) {
+        TokenBag list1 = getDescendantTokens(leafBefore);
+        TokenBag list2 = getDescendantTokens(leafCurrent);
         if (leafBefore.getType() == EntityType.METHOD && leafCurrent.getType() == EntityType.METHOD) {
             MethodDeclaration declaration1 = (MethodDeclaration) leafBefore.getDeclaration();
             MethodDeclaration declaration2 = (MethodDeclaration) leafCurrent.getDeclaration();
             if (declaration1.getBody() != null && declaration2.getBody() != null) {
-                List<ChildNode> body1 = jdtService.getDescendants(declaration1.getBody());
-                List<ChildNode> body2 = jdtService.getDescendants(declaration2.getBody());
+                TokenBag body1 = getBodyTokens(leafBefore);
+                TokenBag body2 = getBodyTokens(leafCurrent);
                 if (!body1.isEmpty() && !body2.isEmpty() && body1.size() * 2 < list1.size() && body2.size() * 2 < list2.size() &&
-                        body1.toString().equals(body2.toString()) && leafBefore.getName().equals(leafCurrent.getName()) &&
+                        body1.equals(body2) && getBodyHash(leafBefore) == getBodyHash(leafCurrent) && leafBefore.getName().equals(leafCurrent.getName()) &&
                         leafBefore.getParent().getName().equals(leafCurrent.getParent().getName()) && declaration1.getReturnType2() != null &&
                         declaration2.getReturnType2() != null && declaration1.getReturnType2().toString().equals(declaration2.getReturnType2().toString())) {
                     return 1.0;
@@ -37,43 +47,104 @@ public class DiceFunction {
             }
         }
         if (leafBefore.getType() == EntityType.FIELD && leafCurrent.getType() == EntityType.FIELD) {
-            List<ChildNode> removed = new ArrayList<>();
-            for (ChildNode node : list1) {
-                if (node.getLabel() == 83)
-                    removed.add(node);
-            }
-            for (ChildNode node : list2) {
-                if (node.getLabel() == 83)
-                    removed.add(node);
-            }
-            list1.removeAll(removed);
-            list2.removeAll(removed);
+            list1 = list1.withoutLabel(ASTNode.MODIFIER);
+            list2 = list2.withoutLabel(ASTNode.MODIFIER);
         }
-        return calculateDiceSimilarity(list1, list2);
+        return calculateDiceSimilarity(matchPair, list1, list2, threshold);
     }
 
-    private static double calculateDiceSimilarity(List<ChildNode> list1, List<ChildNode> list2) {
-        int intersection = 0;
-        int union = list1.size() + list2.size();
-        Set<Integer> matched = new HashSet<>();
-        for (ChildNode childBefore : list1) {
-            for (int i = 0; i < list2.size(); i++) {
-                if (matched.contains(i)) continue;
-                ChildNode childCurrent = list2.get(i);
-                if (childBefore.equals(childCurrent)) {
-                    intersection++;
-                    matched.add(i);
-                    break;
-                }
-            }
+    /**
+     * @return the token bags that calculateDiceSimilarity(LeafNode, LeafNode) may compare for this leaf,
+     * used to build blocking signatures
+     */
+    public static List<TokenBag> getSimilarityTokens(LeafNode leaf) {
+        if (leaf.getType() == EntityType.FIELD)
+            return Collections.singletonList(getDescendantTokens(leaf).withoutLabel(ASTNode.MODIFIER));
+        if (leaf.getType() == EntityType.METHOD)
+            return Arrays.asList(getDescendantTokens(leaf), getBodyTokens(leaf));
+        return Collections.singletonList(getDescendantTokens(leaf));
+    }
+
+    private static TokenBag getDescendantTokens(DeclarationNodeTree dnt) {
+        TokenBag tokens = dnt.getDescendantTokens();
+        if (tokens == null) {
+            JDTService jdtService = new JDTServiceImpl();
+            tokens = jdtService.getDescendantTokens(dnt.getDeclaration());
+            dnt.setDescendantTokens(tokens);
         }
-        return union == 0 ? 0 : 2.0 * intersection / union;
+        return tokens;
+    }
+
+    private static TokenBag getBodyTokens(DeclarationNodeTree dnt) {
+        TokenBag tokens = dnt.getBodyTokens();
+        if (tokens == null) {
+            JDTService jdtService = new JDTServiceImpl();
+            ASTNode declaration = dnt.getDeclaration();
+            if (declaration instanceof MethodDeclaration)
+                tokens = jdtService.getDescendantTokens(((MethodDeclaration) declaration).getBody());
+            else if (declaration instanceof Initializer)
+                tokens = jdtService.getDescendantTokens(((Initializer) declaration).getBody());
+            else
+                tokens = TokenBag.empty();
+            dnt.setBodyTokens(tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * The body tokens are a multiset, so equal bags do not imply equal bodies; the structural hash of the body
+     * also depends on the order of its statements.
+     */
+    private static long getBodyHash(LeafNode leaf) {
+        Long hash = leaf.getBodyHash();
+        if (hash == null) {
+            JDTService jdtService = new JDTServiceImpl();
+            hash = jdtService.getStructuralHash(((MethodDeclaration) leaf.getDeclaration()).getBody());
+            leaf.setBodyHash(hash);
+        }
+        return hash;
+    }
+
+    private static TokenBag getDescendantTokens(StatementNodeTree snt) {
+        TokenBag tokens = snt.getDescendantTokens();
+        if (tokens == null) {
+            JDTService jdtService = new JDTServiceImpl();
+            tokens = jdtService.getDescendantTokens(snt.getStatement());
+            snt.setDescendantTokens(tokens);
+        }
+        return tokens;
+    }
+
+    private static double calculateDiceSimilarity(TokenBag list1, TokenBag list2) {
+        int union = list1.size() + list2.size();
+        return union == 0 ? 0 : 2.0 * list1.intersectionSize(list2) / union;
+    }
+
+    /**
+     * @param matchPair the commit that counts the abandoned computations; only used with a positive threshold
+     */
+    private static double calculateDiceSimilarity(MatchPair matchPair, TokenBag list1, TokenBag list2, double threshold) {
+        if (threshold <= 0)
+            return calculateDiceSimilarity(list1, list2);
+        int union = list1.size() + list2.size();
+        if (union == 0)
+            return 0;
+        if (2.0 * Math.min(list1.size(), list2.size()) / union < threshold) {
+            matchPair.countSizeBoundCutoff();
+            return 0;
+        }
+        int minimum = (int) Math.floor(threshold * union / 2.0);
+        int intersection = list1.intersectionSize(list2, minimum);
+        if (intersection < minimum) {
+            matchPair.countIntersectionCutoff();
+            return 0;
+        }
+        return 2.0 * intersection / union;
     }
 
     public static double calculateDiceSimilarity(InternalNode internalBefore, InternalNode internalCurrent) {
-        JDTService jdtService = new JDTServiceImpl();
-        List<ChildNode> list1 = jdtService.getDescendants(internalBefore.getDeclaration());
-        List<ChildNode> list2 = jdtService.getDescendants(internalCurrent.getDeclaration());
+        TokenBag list1 = getDescendantTokens(internalBefore);
+        TokenBag list2 = getDescendantTokens(internalCurrent);
         return calculateDiceSimilarity(list1, list2);
     }
 
@@ -84,9 +155,9 @@ public class DiceFunction {
         int union = list1.size() + list2.size();
         for (DeclarationNodeTree leafBefore : list1) {
             for (DeclarationNodeTree leafCurrent : list2) {
-                if (matchPair.getUnchangedEntities().contains(Pair.of(leafBefore, leafCurrent)) ||
-                        matchPair.getMatchedEntities().contains(Pair.of(leafBefore, leafCurrent)) ||
-                        matchPair.getCandidateEntities().contains(Pair.of(leafBefore, leafCurrent)))
+                if (matchPair.isUnchangedEntity(leafBefore, leafCurrent) ||
+                        matchPair.isMatchedEntity(leafBefore, leafCurrent) ||
+                        matchPair.isCandidateEntity(leafBefore, leafCurrent))
                     intersection++;
             }
         }
@@ -223,6 +294,22 @@ public class DiceFunction {
     }
 
     public static double calculateSimilarity(MatchPair matchPair, DeclarationNodeTree dntBefore, DeclarationNodeTree dntCurrent) {
+        matchPair.countScoredPair();
+        SlowSimilarityEvent event = new SlowSimilarityEvent();
+        event.begin();
+        double similarity = computeSimilarity(matchPair, dntBefore, dntCurrent);
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = dntBefore.getType() + " -> " + dntCurrent.getType();
+            event.left = dntBefore.getNamespace() + "." + dntBefore.getName();
+            event.right = dntCurrent.getNamespace() + "." + dntCurrent.getName();
+            event.similarity = similarity;
+            event.commit();
+        }
+        return similarity;
+    }
+
+    private static double computeSimilarity(MatchPair matchPair, DeclarationNodeTree dntBefore, DeclarationNodeTree dntCurrent) {
         double descendants = 0.0;
         if (dntBefore instanceof InternalNode && dntCurrent instanceof InternalNode)
             descendants = calculateDiceSimilarity(matchPair, (InternalNode) dntBefore, (InternalNode) dntCurrent);
@@ -233,7 +320,7 @@ public class DiceFunction {
         NGram ngram = new NGram(2);
         double biGram = 1 - ngram.distance(dntBefore.getNamespace() + "." + dntBefore.getName(), dntCurrent.getNamespace() + "." + dntCurrent.getName());
         if (descendants == 1.0 && dntBefore.getDeclaration().toString().equals(dntCurrent.getDeclaration().toString()) &&
-                matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) {
+                matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())) {
             return 1.0 + biGram;
         }
         if (dntBefore.getType() == EntityType.METHOD && dntCurrent.getType() == EntityType.METHOD) {
@@ -262,8 +349,8 @@ public class DiceFunction {
                         }
                     }
                 }
-                if (dependencies == 0.0 && !(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                        matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))))
+                if (dependencies == 0.0 && !(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                        matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())))
                     return 0.49;
             }
             List<IExtendedModifier> modifiers1 = declaration1.modifiers();
@@ -285,8 +372,8 @@ public class DiceFunction {
                     isOverride2 = true;
             }
             if (union == 0 && isTest1 && isTest2) {
-                if (!(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                        matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())))) {
+                if (!(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                        matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent()))) {
                     Block body1 = declaration1.getBody();
                     Block body2 = declaration2.getBody();
                     if (body1 != null && body1.toString().equals("{\n}\n") && body2 != null && body2.toString().equals("{\n}\n") &&
@@ -300,8 +387,8 @@ public class DiceFunction {
                         return 0.49;
                 }
                 if (dntBefore.getName().equals(dntCurrent.getName()) ||
-                        matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                        matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) {
+                        matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                        matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())) {
                     return descendants + 0.01 * biGram;
                 } else
                     return 0.8 * descendants + 0.01 * biGram;
@@ -311,12 +398,12 @@ public class DiceFunction {
             if (!isTest1 && isTest2)
                 return 0.49;
             if (isOverride1 && !isOverride2 && !dntBefore.getName().equals(dntCurrent.getName()) &&
-                    !(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                            matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))))
+                    !(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                            matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())))
                 return 0.49;
             if (!isOverride1 && isOverride2 && !dntBefore.getName().equals(dntCurrent.getName()) &&
-                    !(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                            matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))))
+                    !(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                            matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())))
                 return 0.49;
             if (MethodUtils.isSetter(declaration1) && !MethodUtils.isSetter(declaration2))
                 return 0.49;
@@ -327,11 +414,11 @@ public class DiceFunction {
             if (!MethodUtils.isGetter(declaration1) && MethodUtils.isGetter(declaration2))
                 return 0.49;
             if (MethodUtils.isGetter(declaration1) && MethodUtils.isGetter(declaration2) && !dntBefore.getName().equals(dntCurrent.getName()) &&
-                    !(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                            matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))))
+                    !(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                            matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())))
                 return 0.49;
-            if (!(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())))) {
+            if (!(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent()))) {
                 Block body1 = declaration1.getBody();
                 Block body2 = declaration2.getBody();
                 if ((body1 == null || body1.toString().equals("{\n}\n")) && (body2 == null || body2.toString().equals("{\n}\n")) &&
@@ -365,8 +452,8 @@ public class DiceFunction {
             }
         }
         if (dntBefore.getType() == EntityType.FIELD && dntCurrent.getType() == EntityType.FIELD) {
-            if (!(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) &&
+            if (!(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())) &&
                     dependencies == 0.0) {
                 Set<DeclarationNodeTree> candidateEntitiesLeft = matchPair.getDeletedEntities();
                 Set<DeclarationNodeTree> candidateEntitiesRight = matchPair.getAddedEntities();
@@ -446,8 +533,8 @@ public class DiceFunction {
                     }
                 }
             }
-            if ((matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) &&
+            if ((matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())) &&
                     dependencies == 0.0 && dntBefore.getDependencies().isEmpty() && dntCurrent.getDependencies().isEmpty()) {
                 FieldDeclaration declaration1 = (FieldDeclaration) dntBefore.getDeclaration();
                 FieldDeclaration declaration2 = (FieldDeclaration) dntCurrent.getDeclaration();
@@ -494,16 +581,16 @@ public class DiceFunction {
             }
             if (dependencies == 1.0 && dntBefore.getDependencies().size() < 4 && dntCurrent.getDependencies().size() < 4 &&
                     new HashSet<>(dntBefore.getDependencies()).size() == 1 && new HashSet<>(dntCurrent.getDependencies()).size() == 1 &&
-                    descendants == 0.0 && !(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())))) {
+                    descendants == 0.0 && !(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent()))) {
                 return 0.49;
             }
         }
         if (dependencies == 1.0 && dntBefore.getDependencies().size() < 4 && dntCurrent.getDependencies().size() < 4 &&
                 new HashSet<>(dntBefore.getDependencies()).size() == 1 && new HashSet<>(dntCurrent.getDependencies()).size() == 1 &&
                 dntBefore.getType() == EntityType.FIELD && dntCurrent.getType() == EntityType.FIELD && descendants == 0.0) {
-            if (!(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))))
+            if (!(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())))
                 return 0.49;
             EntityInfo dependency1 = dntBefore.getDependencies().get(0);
             EntityInfo dependency2 = dntCurrent.getDependencies().get(0);
@@ -515,11 +602,11 @@ public class DiceFunction {
                 dntBefore.getType() == EntityType.METHOD && dntCurrent.getType() == EntityType.METHOD &&
                 ((MethodDeclaration) dntBefore.getDeclaration()).getBody() != null &&
                 ((MethodDeclaration) dntCurrent.getDeclaration()).getBody() != null) {
-            if (dntBefore.getName().equals(dntCurrent.getName()) && (matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))))
+            if (dntBefore.getName().equals(dntCurrent.getName()) && (matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())))
                 return descendants * 3;
-            if (!(matchPair.getMatchedEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent())) ||
-                    matchPair.getCandidateEntities().contains(Pair.of(dntBefore.getParent(), dntCurrent.getParent()))) &&
+            if (!(matchPair.isMatchedEntity(dntBefore.getParent(), dntCurrent.getParent()) ||
+                    matchPair.isCandidateEntity(dntBefore.getParent(), dntCurrent.getParent())) &&
                     !dntBefore.getName().equals(dntCurrent.getName()))
                 return descendants;
         }
@@ -528,18 +615,17 @@ public class DiceFunction {
 
     public static double calculateContextSimilarity(MatchPair originalPair, MatchPair matchPair, StatementNodeTree statement1, StatementNodeTree statement2) {
         if (statement1 instanceof BlockNode && statement2 instanceof BlockNode && statement1.getParent() instanceof ControlNode && statement2.getParent() instanceof ControlNode) {
-            if (matchPair.getMatchedStatements().contains(Pair.of(statement1.getParent(), statement2.getParent())) ||
-                    matchPair.getCandidateStatements().contains(Pair.of(statement1.getParent(), statement2.getParent())))
+            if (matchPair.isMatchedStatement(statement1.getParent(), statement2.getParent()) ||
+                    matchPair.isCandidateStatement(statement1.getParent(), statement2.getParent()))
                 return 1.0;
         }
-        Set<Pair<DeclarationNodeTree, DeclarationNodeTree>> matchedEntities = originalPair.getMatchedEntities();
         MethodNode root1 = statement1.getRoot();
         MethodNode root2 = statement2.getRoot();
         DeclarationNodeTree entity1 = root1.getMethodEntity();
         DeclarationNodeTree entity2 = root2.getMethodEntity();
         List<StatementNodeTree> children1 = new ArrayList<>();
         List<StatementNodeTree> children2 = new ArrayList<>();
-        if (matchedEntities.contains(Pair.of(entity1, entity2))) {
+        if (originalPair.isMatchedEntity(entity1, entity2)) {
             StatementNodeTree parent1 = statement1.getParent();
             StatementNodeTree parent2 = statement2.getParent();
             children1 = parent1.getChildren();
@@ -590,10 +676,10 @@ public class DiceFunction {
                 if (originalPair.getAddedStatements().contains(nextNode2) && (next2 + 1) < children2.size()) {
                     nextNode2 = children2.get(next2 + 1);
                 }
-                if ((matchPair.getMatchedStatements().contains(Pair.of(previousNode1, previousNode2)) ||
-                        matchPair.getCandidateStatements().contains(Pair.of(previousNode1, previousNode2))) &&
-                        (matchPair.getMatchedStatements().contains(Pair.of(nextNode1, nextNode2)) ||
-                                matchPair.getCandidateStatements().contains(Pair.of(nextNode1, nextNode2))))
+                if ((matchPair.isMatchedStatement(previousNode1, previousNode2) ||
+                        matchPair.isCandidateStatement(previousNode1, previousNode2)) &&
+                        (matchPair.isMatchedStatement(nextNode1, nextNode2) ||
+                                matchPair.isCandidateStatement(nextNode1, nextNode2)))
                     return 1.0;
             }
             if (previous1 == -1 && previous2 == -1 && next1 < children1.size() && next2 < children2.size()) {
@@ -605,15 +691,15 @@ public class DiceFunction {
                 if (matchPair.getAddedStatements().contains(nextNode2) && (next2 + 1) < children2.size()) {
                     nextNode2 = children2.get(next2 + 1);
                 }
-                if (matchPair.getMatchedStatements().contains(Pair.of(nextNode1, nextNode2)) ||
-                        matchPair.getCandidateStatements().contains(Pair.of(nextNode1, nextNode2)))
+                if (matchPair.isMatchedStatement(nextNode1, nextNode2) ||
+                        matchPair.isCandidateStatement(nextNode1, nextNode2))
                     return 1.0;
             }
             if (previous1 >= 0 && previous2 >= 0 && next1 == children1.size() && next2 == children2.size()) {
                 StatementNodeTree previousNode1 = children1.get(previous1);
                 StatementNodeTree previousNode2 = children2.get(previous2);
-                if (matchPair.getMatchedStatements().contains(Pair.of(previousNode1, previousNode2)) ||
-                        matchPair.getCandidateStatements().contains(Pair.of(previousNode1, previousNode2)))
+                if (matchPair.isMatchedStatement(previousNode1, previousNode2) ||
+                        matchPair.isCandidateStatement(previousNode1, previousNode2))
                     return 1.0;
             }
         }
@@ -622,8 +708,8 @@ public class DiceFunction {
         List<StatementNodeTree> context2 = new ArrayList<>(children2);
         context2.remove(statement2);
         if (context1.isEmpty() || context2.isEmpty()) {
-            if (matchPair.getMatchedStatements().contains(Pair.of(statement1.getParent(), statement2.getParent())) ||
-                    matchPair.getCandidateStatements().contains(Pair.of(statement1.getParent(), statement2.getParent())))
+            if (matchPair.isMatchedStatement(statement1.getParent(), statement2.getParent()) ||
+                    matchPair.isCandidateStatement(statement1.getParent(), statement2.getParent()))
                 return 1.0;
             if (statement1 instanceof ControlNode && statement2 instanceof ControlNode &&
                     statement1.getDepth() == 1 && statement2.getDepth() == 1)
@@ -641,12 +727,8 @@ public class DiceFunction {
             for (int i = 0; i < list2.size(); i++) {
                 if (matched.contains(i)) continue;
                 StatementNodeTree childCurrent = list2.get(i);
-                if (matchPair.getMatchedStatements().contains(Pair.of(childBefore, childCurrent))) {
-                    intersection++;
-                    matched.add(i);
-                    break;
-                }
-                if (matchPair.getCandidateStatements().contains(Pair.of(childBefore, childCurrent))) {
+                if (matchPair.isMatchedStatement(childBefore, childCurrent) ||
+                        matchPair.isCandidateStatement(childBefore, childCurrent)) {
                     intersection++;
                     matched.add(i);
                     break;
@@ -657,14 +739,24 @@ public class DiceFunction {
     }
 
     public static double calculateDiceSimilarity(StatementNodeTree statement1, StatementNodeTree statement2) {
+        return calculateDiceSimilarity(null, statement1, statement2, 0.0);
+    }
+
+    /**
+     * Threshold-aware variant that stops as soon as the similarity provably falls below the threshold.
+     *
+     * @param matchPair the commit whose metrics count the computations that were abandoned
+     * @return the exact similarity if it is at least the threshold, otherwise a value below the threshold
+     */
+    public static double calculateDiceSimilarity(MatchPair matchPair, StatementNodeTree statement1, StatementNodeTree statement2,
+                                                 double threshold) {
         Expression expression1 = getExpression(statement1);
         Expression expression2 = getExpression(statement2);
         if (expression1 != null && expression2 != null && StringUtils.equals(expression1.toString(), expression2.toString()))
             return 1.0;
-        JDTService jdtService = new JDTServiceImpl();
-        List<ChildNode> list1 = jdtService.getDescendants(statement1.getStatement());
-        List<ChildNode> list2 = jdtService.getDescendants(statement2.getStatement());
-        return calculateDiceSimilarity(list1, list2);
+        TokenBag list1 = getDescendantTokens(statement1);
+        TokenBag list2 = getDescendantTokens(statement2);
+        return calculateDiceSimilarity(matchPair, list1, list2, threshold);
     }
 
     private static Expression getExpression(StatementNodeTree statement) {
@@ -733,6 +825,22 @@ public class DiceFunction {
     }
 
     public static double calculateSimilarity(MatchPair originalPair, MatchPair matchPair, StatementNodeTree statement1, StatementNodeTree statement2) {
+        originalPair.countScoredPair();
+        SlowSimilarityEvent event = new SlowSimilarityEvent();
+        event.begin();
+        double similarity = computeSimilarity(originalPair, matchPair, statement1, statement2);
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = statement1.getType() + " -> " + statement2.getType();
+            event.left = statement1.getExpression();
+            event.right = statement2.getExpression();
+            event.similarity = similarity;
+            event.commit();
+        }
+        return similarity;
+    }
+
+    private static double computeSimilarity(MatchPair originalPair, MatchPair matchPair, StatementNodeTree statement1, StatementNodeTree statement2) {
         double descendants = 0.0;
         double contexts = calculateContextSimilarity(originalPair, matchPair, statement1, statement2);
         if (statement1 instanceof OperationNode && statement2 instanceof OperationNode) {
@@ -768,85 +876,39 @@ public class DiceFunction {
     }
 
     public static double calculateBodyDice(LeafNode oldNode, LeafNode newNode, LeafNode anotherNode) {
-        if (oldNode.getType() == EntityType.METHOD && newNode.getType() == EntityType.METHOD) {
-            JDTService jdtService = new JDTServiceImpl();
-            MethodDeclaration oldDeclaration = (MethodDeclaration) oldNode.getDeclaration();
-            Block oldBody = oldDeclaration.getBody();
-            List<ChildNode> list1 = jdtService.getDescendants(oldBody);
-            MethodDeclaration newDeclaration = (MethodDeclaration) newNode.getDeclaration();
-            Block newBody = newDeclaration.getBody();
-            List<ChildNode> list2 = jdtService.getDescendants(newBody);
-            MethodDeclaration anotherDeclaration = (MethodDeclaration) anotherNode.getDeclaration();
-            Block anotherBody = anotherDeclaration.getBody();
-            List<ChildNode> list3 = jdtService.getDescendants(anotherBody);
-            return calculateBodyDice(list1, list2, list3);
-        }
-        if (oldNode.getType() == EntityType.INITIALIZER && newNode.getType() == EntityType.INITIALIZER) {
-            JDTService jdtService = new JDTServiceImpl();
-            Initializer oldDeclaration = (Initializer) oldNode.getDeclaration();
-            Block oldBody = oldDeclaration.getBody();
-            List<ChildNode> list1 = jdtService.getDescendants(oldBody);
-            Initializer newDeclaration = (Initializer) newNode.getDeclaration();
-            Block newBody = newDeclaration.getBody();
-            List<ChildNode> list2 = jdtService.getDescendants(newBody);
-            MethodDeclaration anotherDeclaration = (MethodDeclaration) anotherNode.getDeclaration();
-            Block anotherBody = anotherDeclaration.getBody();
-            List<ChildNode> list3 = jdtService.getDescendants(anotherBody);
+        if ((oldNode.getType() == EntityType.METHOD && newNode.getType() == EntityType.METHOD) ||
+                (oldNode.getType() == EntityType.INITIALIZER && newNode.getType() == EntityType.INITIALIZER)) {
+            TokenBag list1 = getBodyTokens(oldNode);
+            TokenBag list2 = getBodyTokens(newNode);
+            TokenBag list3 = getBodyTokens(anotherNode);
             return calculateBodyDice(list1, list2, list3);
         }
         return 0.0;
     }
 
-    public static double calculateBodyDice(List<ChildNode> list1, List<ChildNode> list2, List<ChildNode> list3) {
-        int intersection = 0;
-        Set<Integer> matched = new HashSet<>();
-        for (ChildNode node2 : list2) {
-            for (int i = 0; i < list1.size(); i++) {
-                if (matched.contains(i)) continue;
-                ChildNode node1 = list1.get(i);
-                if (node2.equals(node1)) {
-                    matched.add(i);
-                    break;
-                }
-            }
-        }
-        for (int i = list1.size() - 1; i >= 0; i--) {
-            if (matched.contains(i))
-                list1.remove(i);
-        }
-        matched.clear();
-        for (ChildNode node3 : list3) {
-            for (int i = 0; i < list1.size(); i++) {
-                if (matched.contains(i)) continue;
-                ChildNode node1 = list1.get(i);
-                if (node3.equals(node1)) {
-                    intersection++;
-                    matched.add(i);
-                    break;
-                }
-            }
-        }
-        return list3.isEmpty() ? 0 : 1.0 * intersection / list3.size();
+    public static double calculateBodyDice(TokenBag list1, TokenBag list2, TokenBag list3) {
+        TokenBag remaining = list1.minus(list2);
+        return list3.isEmpty() ? 0 : 1.0 * remaining.intersectionSize(list3) / list3.size();
     }
 
     public static double calculateBodyDice(VariableDeclarationFragment fragment, StatementNodeTree oldStatement, StatementNodeTree newStatement) {
         JDTService jdtService = new JDTServiceImpl();
-        List<ChildNode> list1 = new ArrayList<>();
-        List<ChildNode> list2 = new ArrayList<>();
-        List<ChildNode> list3 = jdtService.getDescendants(fragment.getInitializer());
+        TokenBag list1 = TokenBag.empty();
+        TokenBag list2 = TokenBag.empty();
+        TokenBag list3 = jdtService.getDescendantTokens(fragment.getInitializer());
         if (oldStatement.getType() == StatementType.DO_STATEMENT && newStatement.getType() == StatementType.DO_STATEMENT) {
             DoStatement statement1 = (DoStatement) oldStatement.getStatement();
             DoStatement statement2 = (DoStatement) newStatement.getStatement();
-            list1.addAll(jdtService.getDescendants(statement1.getExpression()));
-            list2.addAll(jdtService.getDescendants(statement2.getExpression()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getExpression()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getExpression()));
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.ENHANCED_FOR_STATEMENT && newStatement.getType() == StatementType.ENHANCED_FOR_STATEMENT) {
             EnhancedForStatement statement1 = (EnhancedForStatement) oldStatement.getStatement();
             EnhancedForStatement statement2 = (EnhancedForStatement) newStatement.getStatement();
-            list1.addAll(jdtService.getDescendants(statement1.getParameter()));
-            list1.addAll(jdtService.getDescendants(statement1.getExpression()));
-            list2.addAll(jdtService.getDescendants(statement2.getParameter()));
-            list2.addAll(jdtService.getDescendants(statement2.getExpression()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getParameter()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getExpression()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getParameter()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getExpression()));
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.FOR_STATEMENT && newStatement.getType() == StatementType.FOR_STATEMENT) {
             ForStatement statement1 = (ForStatement) oldStatement.getStatement();
@@ -858,31 +920,31 @@ public class DiceFunction {
             Expression expression2 = statement2.getExpression();
             List<Expression> updaters2 = statement2.updaters();
             for (Expression expression : initializers1) {
-                list1.addAll(jdtService.getDescendants(expression));
+                list1 = list1.plus(jdtService.getDescendantTokens(expression));
             }
-            list1.addAll(jdtService.getDescendants(expression1));
+            list1 = list1.plus(jdtService.getDescendantTokens(expression1));
             for (Expression expression : updaters1) {
-                list1.addAll(jdtService.getDescendants(expression));
+                list1 = list1.plus(jdtService.getDescendantTokens(expression));
             }
             for (Expression expression : initializers2) {
-                list2.addAll(jdtService.getDescendants(expression));
+                list2 = list2.plus(jdtService.getDescendantTokens(expression));
             }
-            list2.addAll(jdtService.getDescendants(expression2));
+            list2 = list2.plus(jdtService.getDescendantTokens(expression2));
             for (Expression expression : updaters2) {
-                list2.addAll(jdtService.getDescendants(expression));
+                list2 = list2.plus(jdtService.getDescendantTokens(expression));
             }
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.IF_STATEMENT && newStatement.getType() == StatementType.IF_STATEMENT) {
             IfStatement statement1 = (IfStatement) oldStatement.getStatement();
             IfStatement statement2 = (IfStatement) newStatement.getStatement();
-            list1.addAll(jdtService.getDescendants(statement1.getExpression()));
-            list2.addAll(jdtService.getDescendants(statement2.getExpression()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getExpression()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getExpression()));
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.SWITCH_STATEMENT && newStatement.getType() == StatementType.SWITCH_STATEMENT) {
             SwitchStatement statement1 = (SwitchStatement) oldStatement.getStatement();
             SwitchStatement statement2 = (SwitchStatement) newStatement.getStatement();
-            list1.addAll(jdtService.getDescendants(statement1.getExpression()));
-            list2.addAll(jdtService.getDescendants(statement2.getExpression()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getExpression()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getExpression()));
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.TRY_STATEMENT && newStatement.getType() == StatementType.TRY_STATEMENT) {
             TryStatement statement1 = (TryStatement) oldStatement.getStatement();
@@ -890,27 +952,27 @@ public class DiceFunction {
             List<Expression> resources1 = statement1.resources();
             List<Expression> resources2 = statement2.resources();
             for (Expression expression : resources1) {
-                list1.addAll(jdtService.getDescendants(expression));
+                list1 = list1.plus(jdtService.getDescendantTokens(expression));
             }
             for (Expression expression : resources2) {
-                list2.addAll(jdtService.getDescendants(expression));
+                list2 = list2.plus(jdtService.getDescendantTokens(expression));
             }
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.WHILE_STATEMENT && newStatement.getType() == StatementType.WHILE_STATEMENT) {
             WhileStatement statement1 = (WhileStatement) oldStatement.getStatement();
             WhileStatement statement2 = (WhileStatement) newStatement.getStatement();
-            list1.addAll(jdtService.getDescendants(statement1.getExpression()));
-            list2.addAll(jdtService.getDescendants(statement2.getExpression()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getExpression()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getExpression()));
             return calculateBodyDice(list1, list2, list3);
         } else if (oldStatement.getType() == StatementType.CATCH_CLAUSE && newStatement.getType() == StatementType.CATCH_CLAUSE) {
             CatchClause statement1 = (CatchClause) oldStatement.getStatement();
             CatchClause statement2 = (CatchClause) newStatement.getStatement();
-            list1.addAll(jdtService.getDescendants(statement1.getException()));
-            list2.addAll(jdtService.getDescendants(statement2.getException()));
+            list1 = list1.plus(jdtService.getDescendantTokens(statement1.getException()));
+            list2 = list2.plus(jdtService.getDescendantTokens(statement2.getException()));
             return calculateBodyDice(list1, list2, list3);
         }
-        list1 = jdtService.getDescendants(oldStatement.getStatement());
-        list2 = jdtService.getDescendants(newStatement.getStatement());
+        list1 = getDescendantTokens(oldStatement);
+        list2 = getDescendantTokens(newStatement);
         return calculateBodyDice(list1, list2, list3);
     }
 
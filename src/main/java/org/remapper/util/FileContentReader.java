@@ -0,0 +1,48 @@
+package org.remapper.util;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.remapper.dto.EntityMatchingJSON;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the sources of files recorded by blob id (see {@link EntityMatchingJSON.FileContent}) from the repository
+ * they were matched in, only when a consumer asks for them.
+ */
+public class FileContentReader implements AutoCloseable {
+
+    private final ObjectReader reader;
+
+    public FileContentReader(Repository repository) {
+        this.reader = repository.newObjectReader();
+    }
+
+    /**
+     * @return the content of the blob, or an empty string if there is no blob id
+     */
+    public synchronized String read(String blobId) throws IOException {
+        if (blobId == null || blobId.isEmpty())
+            return "";
+        try (InputStream in = reader.open(ObjectId.fromString(blobId)).openStream()) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    public String getOldCode(EntityMatchingJSON.FileContent file) throws IOException {
+        return file.getOldCode() != null ? file.getOldCode() : read(file.getOldBlobId());
+    }
+
+    public String getNewCode(EntityMatchingJSON.FileContent file) throws IOException {
+        return file.getNewCode() != null ? file.getNewCode() : read(file.getNewBlobId());
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+    }
+}
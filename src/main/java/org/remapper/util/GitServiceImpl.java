@@ -9,19 +9,24 @@ import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.remapper.dto.EntityMatchingJSON;
 import org.remapper.service.GitService;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -187,12 +192,8 @@ public class GitServiceImpl implements GitService {
         Map<String, String> fileContentsCurrent = new LinkedHashMap<>();
         fileTreeDiff(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles);
 
-        populateFileContents(repository, startCommit, deletedFiles, fileContentsBefore);
-        populateFileContents(repository, startCommit, modifiedFiles, fileContentsBefore);
-        populateFileContents(repository, startCommit, renamedFiles.keySet(), fileContentsBefore);
-        populateFileContents(repository, endCommit, addedFiles, fileContentsCurrent);
-        populateFileContents(repository, endCommit, modifiedFiles, fileContentsCurrent);
-        populateFileContents(repository, endCommit, new HashSet<>(renamedFiles.values()), fileContentsCurrent);
+        populateFileContents(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles,
+                fileContentsBefore, fileContentsCurrent);
 
         List<EntityMatchingJSON.FileContent> files = new ArrayList<>();
         EntityMatchingJSON json = new EntityMatchingJSON();
@@ -216,6 +217,43 @@ public class GitServiceImpl implements GitService {
         return files;
     }
 
+    @Override
+    public List<EntityMatchingJSON.FileContent> getDiffFileBlobIds(String projectPath, String... commits) throws Exception {
+        try (Repository repository = openRepository(projectPath); RevWalk walk = new RevWalk(repository)) {
+            if (commits.length == 1) {
+                RevCommit currentCommit = walk.parseCommit(repository.resolve(commits[0]));
+                if (currentCommit.getParentCount() == 0)
+                    return Collections.emptyList();
+                RevCommit parentCommit = walk.parseCommit(currentCommit.getParent(0));
+                return getDiffFileBlobIds(repository, parentCommit, currentCommit);
+            } else if (commits.length == 2) {
+                RevCommit startCommit = walk.parseCommit(repository.resolve(commits[0]));
+                RevCommit endCommit = walk.parseCommit(repository.resolve(commits[1]));
+                return getDiffFileBlobIds(repository, startCommit, endCommit);
+            }
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Same files as {@link #getDiffFiles(Repository, RevCommit, RevCommit)}, but with the blob ids of both versions
+     * instead of their contents, so that no blob is read. Use {@link FileContentReader} to load a content on demand.
+     */
+    public List<EntityMatchingJSON.FileContent> getDiffFileBlobIds(Repository repository, RevCommit startCommit, RevCommit endCommit) throws Exception {
+        Set<String> addedFiles = new LinkedHashSet<>();
+        Set<String> deletedFiles = new LinkedHashSet<>();
+        Set<String> modifiedFiles = new LinkedHashSet<>();
+        Map<String, String> renamedFiles = new LinkedHashMap<>();
+        Map<String, ObjectId> blobIdsBefore = new LinkedHashMap<>();
+        Map<String, ObjectId> blobIdsCurrent = new LinkedHashMap<>();
+        fileTreeDiff(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles);
+
+        populateFileBlobIds(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles,
+                blobIdsBefore, blobIdsCurrent);
+        return new EntityMatchingJSON().createFileBlobIds(modifiedFiles, renamedFiles, deletedFiles, addedFiles,
+                blobIdsBefore, blobIdsCurrent);
+    }
+
     private List<EntityMatchingJSON.FileContent> getDiffFiles(String before, String after) throws Exception {
         File previousFile = new File(before);
         File nextFile = new File(after);
@@ -236,20 +274,133 @@ public class GitServiceImpl implements GitService {
         return files;
     }
 
-    private void populateFileContents(Repository repository, RevCommit commit,
-                                      Set<String> filePaths, Map<String, String> fileContents) throws IOException {
-        RevTree parentTree = commit.getTree();
-        try (TreeWalk treeWalk = new TreeWalk(repository)) {
-            treeWalk.addTree(parentTree);
+    @Override
+    public void populateFileContents(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                                     Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                                     Map<String, String> fileContentsBefore, Map<String, String> fileContentsCurrent) throws IOException {
+        walkChangedFiles(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles,
+                fileContentsBefore, fileContentsCurrent, null, null);
+    }
+
+    @Override
+    public void populateFileContents(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                                     Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                                     Map<String, String> fileContentsBefore, Map<String, String> fileContentsCurrent,
+                                     Map<String, ObjectId> blobIdsBefore, Map<String, ObjectId> blobIdsCurrent) throws IOException {
+        walkChangedFiles(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles,
+                fileContentsBefore, fileContentsCurrent, blobIdsBefore, blobIdsCurrent);
+    }
+
+    @Override
+    public void populateFileBlobIds(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                                    Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                                    Map<String, ObjectId> blobIdsBefore, Map<String, ObjectId> blobIdsCurrent) throws IOException {
+        walkChangedFiles(repository, startCommit, endCommit, addedFiles, deletedFiles, modifiedFiles, renamedFiles,
+                null, null, blobIdsBefore, blobIdsCurrent);
+    }
+
+    /**
+     * Walk the changed files of two commits once, loading their contents and/or recording their blob ids
+     * into whichever of the maps are not null.
+     */
+    private void walkChangedFiles(Repository repository, RevCommit startCommit, RevCommit endCommit,
+                                  Set<String> addedFiles, Set<String> deletedFiles, Set<String> modifiedFiles, Map<String, String> renamedFiles,
+                                  Map<String, String> fileContentsBefore, Map<String, String> fileContentsCurrent,
+                                  Map<String, ObjectId> blobIdsBefore, Map<String, ObjectId> blobIdsCurrent) throws IOException {
+        Set<String> renamedFilesCurrent = new HashSet<>(renamedFiles.values());
+        Set<String> filePaths = new HashSet<>();
+        filePaths.addAll(deletedFiles);
+        filePaths.addAll(modifiedFiles);
+        filePaths.addAll(renamedFiles.keySet());
+        filePaths.addAll(addedFiles);
+        filePaths.addAll(renamedFilesCurrent);
+        if (filePaths.isEmpty())
+            return;
+        List<String> walkOrder = new ArrayList<>();
+        Map<String, String> loadedBefore = new HashMap<>();
+        Map<String, String> loadedCurrent = new HashMap<>();
+        Map<String, ObjectId> idsBefore = new HashMap<>();
+        Map<String, ObjectId> idsCurrent = new HashMap<>();
+        try (ObjectReader reader = repository.newObjectReader(); TreeWalk treeWalk = new TreeWalk(repository, reader)) {
+            treeWalk.addTree(startCommit.getTree());
+            treeWalk.addTree(endCommit.getTree());
             treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(filePaths));
             while (treeWalk.next()) {
                 String pathString = treeWalk.getPathString();
-                if (filePaths.contains(pathString)) {
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-                    StringWriter writer = new StringWriter();
-                    IOUtils.copy(loader.openStream(), writer, StandardCharsets.UTF_8);
-                    fileContents.put(pathString, writer.toString());
+                walkOrder.add(pathString);
+                if (treeWalk.getRawMode(0) != 0 && (deletedFiles.contains(pathString) ||
+                        modifiedFiles.contains(pathString) || renamedFiles.containsKey(pathString))) {
+                    idsBefore.put(pathString, treeWalk.getObjectId(0));
+                    if (fileContentsBefore != null)
+                        loadedBefore.put(pathString, readBlob(reader, treeWalk.getObjectId(0)));
+                }
+                if (treeWalk.getRawMode(1) != 0 && (addedFiles.contains(pathString) ||
+                        modifiedFiles.contains(pathString) || renamedFilesCurrent.contains(pathString))) {
+                    idsCurrent.put(pathString, treeWalk.getObjectId(1));
+                    if (fileContentsCurrent != null)
+                        loadedCurrent.put(pathString, readBlob(reader, treeWalk.getObjectId(1)));
+                }
+            }
+        }
+        if (fileContentsBefore != null) {
+            putInWalkOrder(walkOrder, deletedFiles, loadedBefore, fileContentsBefore);
+            putInWalkOrder(walkOrder, modifiedFiles, loadedBefore, fileContentsBefore);
+            putInWalkOrder(walkOrder, renamedFiles.keySet(), loadedBefore, fileContentsBefore);
+        }
+        if (fileContentsCurrent != null) {
+            putInWalkOrder(walkOrder, addedFiles, loadedCurrent, fileContentsCurrent);
+            putInWalkOrder(walkOrder, modifiedFiles, loadedCurrent, fileContentsCurrent);
+            putInWalkOrder(walkOrder, renamedFilesCurrent, loadedCurrent, fileContentsCurrent);
+        }
+        if (blobIdsBefore != null) {
+            putInWalkOrder(walkOrder, deletedFiles, idsBefore, blobIdsBefore);
+            putInWalkOrder(walkOrder, modifiedFiles, idsBefore, blobIdsBefore);
+            putInWalkOrder(walkOrder, renamedFiles.keySet(), idsBefore, blobIdsBefore);
+        }
+        if (blobIdsCurrent != null) {
+            putInWalkOrder(walkOrder, addedFiles, idsCurrent, blobIdsCurrent);
+            putInWalkOrder(walkOrder, modifiedFiles, idsCurrent, blobIdsCurrent);
+            putInWalkOrder(walkOrder, renamedFilesCurrent, idsCurrent, blobIdsCurrent);
+        }
+    }
+
+    private String readBlob(ObjectReader reader, ObjectId objectId) throws IOException {
+        StringWriter writer = new StringWriter();
+        IOUtils.copy(reader.open(objectId).openStream(), writer, StandardCharsets.UTF_8);
+        return writer.toString();
+    }
+
+    private <V> void putInWalkOrder(List<String> walkOrder, Set<String> filePaths, Map<String, V> loaded,
+                                    Map<String, V> fileContents) {
+        for (String pathString : walkOrder) {
+            if (filePaths.contains(pathString) && loaded.containsKey(pathString))
+                fileContents.put(pathString, loaded.get(pathString));
+        }
+    }
+
+    @Override
+    public void exportJavaSources(Repository repository, RevCommit commit, Set<String> sourceRoots, File destination) throws IOException {
+        if (sourceRoots.isEmpty())
+            return;
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            TreeFilter javaFilter = PathSuffixFilter.create(".java");
+            if (sourceRoots.contains(""))
+                treeWalk.setFilter(javaFilter);
+            else
+                treeWalk.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(sourceRoots), javaFilter));
+            ObjectReader reader = treeWalk.getObjectReader();
+            while (treeWalk.next()) {
+                if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE)
+                    continue;
+                File file = new File(destination, treeWalk.getPathString());
+                File parent = file.getParentFile();
+                if (!parent.exists() && !parent.mkdirs())
+                    throw new IOException("Cannot create directory " + parent);
+                try (OutputStream out = new FileOutputStream(file)) {
+                    reader.open(treeWalk.getObjectId(0)).copyTo(out);
                 }
             }
         }
@@ -3,28 +3,85 @@ package org.remapper.util;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.eclipse.jdt.core.dom.*;
+import org.eclipse.jgit.lib.ObjectId;
 import org.remapper.dto.*;
+import org.remapper.jfr.JdtParseEvent;
 import org.remapper.service.JDTService;
 import org.remapper.visitor.AnonymousClassDeclarationVisitor;
 import org.remapper.visitor.StatementVisitor;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class JDTServiceImpl implements JDTService {
 
+    private final ParseCache parseCache;
+    private final SourceLevel sourceLevel;
+    private final LongAdder reparseCount = new LongAdder();
+
+    public JDTServiceImpl() {
+        this(null);
+    }
+
+    /**
+     * @param parseCache a cache of compilation units shared across commits, or null to always parse
+     */
+    public JDTServiceImpl(ParseCache parseCache) {
+        this(parseCache, null);
+    }
+
+    /**
+     * @param sourceLevel the source level learned for the repository of the parsed files, or null to always
+     *                    parse at the default level first
+     */
+    public JDTServiceImpl(ParseCache parseCache, SourceLevel sourceLevel) {
+        this.parseCache = parseCache;
+        this.sourceLevel = sourceLevel;
+    }
+
+    @Override
+    public long getReparseCount() {
+        return reparseCount.sum();
+    }
+
     /**
      * parse CompilationUnit without binding method
      */
     @Override
     public RootNode parseFileDNT(String filePath, String fileContent) {
-        ASTParser parser = ASTParserUtils.getASTParser();
-        char[] charArray = fileContent.toCharArray();
-        parser.setSource(charArray);
-        CompilationUnit cu = (CompilationUnit) parser.createAST(null);
-        String maxRecommendedVersionFromProblems = getMaxRecommendedVersionFromProblems(cu);
-        if (maxRecommendedVersionFromProblems != null)
-            cu = ASTParserUtils.getCompilationUnit(maxRecommendedVersionFromProblems, parser, charArray);
+        CompilationUnit cu = parseCompilationUnit(filePath, fileContent);
+        // a cached unit may be shared by files parsed on other threads, and building the tree strips its javadoc
+        synchronized (cu) {
+            RootNode rootNode = buildFileDNT(filePath, cu);
+            populateStructuralHashes(cu, rootNode);
+            return rootNode;
+        }
+    }
+
+    /**
+     * Hash every declaration of the file bottom-up in one pass over the compilation unit. The copies made for
+     * the fragments of a multi-variable field are not part of the unit and are hashed on their own.
+     */
+    private static void populateStructuralHashes(CompilationUnit cu, RootNode rootNode) {
+        Map<ASTNode, DeclarationNodeTree> declarations = new IdentityHashMap<>();
+        List<ASTNode> detachedDeclarations = new ArrayList<>();
+        Deque<DeclarationNodeTree> stack = new ArrayDeque<>();
+        stack.push(rootNode);
+        while (!stack.isEmpty()) {
+            DeclarationNodeTree dnt = stack.pop();
+            declarations.put(dnt.getDeclaration(), dnt);
+            if (dnt.getDeclaration().getRoot() != cu)
+                detachedDeclarations.add(dnt.getDeclaration());
+            for (DeclarationNodeTree child : dnt.getChildren())
+                stack.push(child);
+        }
+        cu.accept(new StructuralHashVisitor(declarations));
+        for (ASTNode declaration : detachedDeclarations)
+            declaration.accept(new StructuralHashVisitor(declarations));
+    }
+
+    private RootNode buildFileDNT(String filePath, CompilationUnit cu) {
         PackageDeclaration packageDeclaration = cu.getPackage();
         String container = packageDeclaration != null ? packageDeclaration.getName().getFullyQualifiedName() : "";
         RootNode rootNode = new RootNode(cu, filePath, cu);
@@ -48,7 +105,6 @@ public class JDTServiceImpl implements JDTService {
             topLevelNode.setNamespace(container);
             topLevelNode.setName(type.getName().getFullyQualifiedName());
             topLevelNode.setParent(rootNode);
-            type.setJavadoc(null);
             topLevelNode.setDeclaration(type);
             topLevelNode.setFilePath(filePath);
             rootNode.addChild(topLevelNode);
@@ -62,6 +118,33 @@ public class JDTServiceImpl implements JDTService {
             for (BodyDeclaration body : bodies)
                 customizedBodyDeclarations.add(new CustomizedBodyDeclaration(topLevelNode, body));
             breadthFirstSearch(cu, filePath, customizedBodyDeclarations);
+        }
+        return rootNode;
+    }
+
+    /**
+     * Remove the javadoc of every declaration that becomes an entity, and of the members of anonymous classes,
+     * right after parsing. The compilation unit may then be cached and shared, and is never modified again.
+     */
+    private static void stripJavadoc(CompilationUnit cu) {
+        List<AbstractTypeDeclaration> types = cu.types();
+        for (AbstractTypeDeclaration type : types) {
+            Deque<BodyDeclaration> bodies = new ArrayDeque<>();
+            bodies.add(type);
+            while (!bodies.isEmpty()) {
+                BodyDeclaration body = bodies.poll();
+                body.setJavadoc(null);
+                if (body instanceof EnumDeclaration)
+                    bodies.addAll(((EnumDeclaration) body).enumConstants());
+                if (body instanceof AbstractTypeDeclaration) {
+                    List<BodyDeclaration> bds = ((AbstractTypeDeclaration) body).bodyDeclarations();
+                    for (BodyDeclaration bd : bds) {
+                        if (body == type || bd instanceof AbstractTypeDeclaration || bd instanceof Initializer ||
+                                bd instanceof FieldDeclaration || bd instanceof MethodDeclaration)
+                            bodies.add(bd);
+                    }
+                }
+            }
             AnonymousClassDeclarationVisitor visitor = new AnonymousClassDeclarationVisitor();
             type.accept(visitor);
             Set<AnonymousClassDeclaration> anonymousClassDeclarations = visitor.getAnonymousClassDeclarations();
@@ -74,7 +157,58 @@ public class JDTServiceImpl implements JDTService {
                 }
             }
         }
-        return rootNode;
+    }
+
+    private CompilationUnit parseCompilationUnit(String filePath, String fileContent) {
+        JdtParseEvent event = new JdtParseEvent();
+        event.begin();
+        ObjectId blobId = null;
+        if (parseCache != null) {
+            blobId = ParseCache.blobId(fileContent);
+            CompilationUnit cached = parseCache.get(blobId);
+            if (cached != null) {
+                commitParseEvent(event, filePath, fileContent.length(), true, false);
+                return cached;
+            }
+        }
+        char[] charArray = fileContent.toCharArray();
+        String version = sourceLevel != null ? sourceLevel.choose(charArray) : null;
+        // files parsed at a newer level resolve bindings like the others, so that their entities do not depend on
+        // whether the level was learned before or after them
+        CompilationUnit cu = parse(version == null ? ASTParserUtils.getReusableASTParser() :
+                ASTParserUtils.getReusableASTParser(version), charArray);
+        String maxRecommendedVersionFromProblems = getMaxRecommendedVersionFromProblems(cu);
+        boolean reparsed = maxRecommendedVersionFromProblems != null &&
+                (version == null || SourceLevel.isNewer(maxRecommendedVersionFromProblems, version));
+        if (reparsed) {
+            cu = parse(ASTParserUtils.getReusableASTParser(maxRecommendedVersionFromProblems), charArray);
+            reparseCount.increment();
+            if (sourceLevel != null)
+                sourceLevel.learn(maxRecommendedVersionFromProblems);
+        }
+        stripJavadoc(cu);
+        if (parseCache != null)
+            parseCache.put(blobId, cu, charArray.length);
+        commitParseEvent(event, filePath, charArray.length, false, reparsed);
+        return cu;
+    }
+
+    private static CompilationUnit parse(ASTParser parser, char[] charArray) {
+        parser.setSource(charArray);
+        return (CompilationUnit) parser.createAST(null);
+    }
+
+    private static void commitParseEvent(JdtParseEvent event, String filePath, int sourceLength, boolean cached,
+                                         boolean reparsed) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.filePath = filePath;
+            event.files = 1;
+            event.sourceLength = sourceLength;
+            event.cached = cached;
+            event.reparsed = reparsed;
+            event.commit();
+        }
     }
 
     private static String getMaxRecommendedVersionFromProblems(CompilationUnit compilationUnit) {
@@ -97,9 +231,11 @@ public class JDTServiceImpl implements JDTService {
     }
 
     /**
-     * breadth-first search
+     * breadth-first search. The declarations of the single fragments of a multi-variable field are copied into an
+     * AST of their own, so that the compilation unit, which may be cached and shared, is left as it is.
      */
     private void breadthFirstSearch(CompilationUnit cu, String filePath, List<CustomizedBodyDeclaration> customizedBodyDeclarations) {
+        AST detachedAST = null;
         int height = 1;
         while (!customizedBodyDeclarations.isEmpty()) {
             height++;
@@ -123,7 +259,6 @@ public class JDTServiceImpl implements JDTService {
                     internalNode.setNamespace("".equals(parent.getNamespace()) ? parent.getName() : parent.getNamespace() + "." + parent.getName());
                     internalNode.setName(((AbstractTypeDeclaration) body).getName().getFullyQualifiedName());
                     internalNode.setParent(parent);
-                    body.setJavadoc(null);
                     internalNode.setDeclaration(body);
                     internalNode.setFilePath(filePath);
                     parent.addChild(internalNode);
@@ -151,7 +286,6 @@ public class JDTServiceImpl implements JDTService {
                     int modifiers = body.getModifiers();
                     leafNode.setName(Flags.isStatic(modifiers) ? "static" : "instance");
                     leafNode.setParent(parent);
-                    body.setJavadoc(null);
                     leafNode.setDeclaration(body);
                     leafNode.setFilePath(filePath);
                     parent.addChild(leafNode);
@@ -165,13 +299,13 @@ public class JDTServiceImpl implements JDTService {
                         leafNode.setNamespace("".equals(parent.getNamespace()) ? parent.getName() : parent.getNamespace() + "." + parent.getName());
                         leafNode.setName(fragment.getName().getFullyQualifiedName());
                         leafNode.setParent(parent);
-                        body.setJavadoc(null);
                         if (fragments.size() > 1) {
-                            FieldDeclaration fieldNode = (FieldDeclaration) ASTNode.copySubtree(body.getParent().getAST(), body);
+                            if (detachedAST == null)
+                                detachedAST = AST.newAST(cu.getAST().apiLevel(), cu.getAST().isPreviewEnabled());
+                            FieldDeclaration fieldNode = (FieldDeclaration) ASTNode.copySubtree(detachedAST, body);
                             fieldNode.fragments().clear();
-                            VariableDeclarationFragment fragmentNode = (VariableDeclarationFragment) ASTNode.copySubtree(fragment.getParent().getAST(), fragment);
+                            VariableDeclarationFragment fragmentNode = (VariableDeclarationFragment) ASTNode.copySubtree(detachedAST, fragment);
                             fieldNode.fragments().add(fragmentNode);
-                            fieldNode.setJavadoc(null);
                             leafNode.setDeclaration(fieldNode);
                         } else
                             leafNode.setDeclaration(body);
@@ -186,7 +320,6 @@ public class JDTServiceImpl implements JDTService {
                     leafNode.setNamespace("".equals(parent.getNamespace()) ? parent.getName() : parent.getNamespace() + "." + parent.getName());
                     leafNode.setName(((MethodDeclaration) body).getName().getFullyQualifiedName());
                     leafNode.setParent(parent);
-                    body.setJavadoc(null);
                     leafNode.setDeclaration(body);
                     leafNode.setFilePath(filePath);
                     parent.addChild(leafNode);
@@ -198,7 +331,6 @@ public class JDTServiceImpl implements JDTService {
                     leafNode.setNamespace("".equals(parent.getNamespace()) ? parent.getName() : parent.getNamespace() + "." + parent.getName());
                     leafNode.setName(((AnnotationTypeMemberDeclaration) body).getName().getFullyQualifiedName());
                     leafNode.setParent(parent);
-                    body.setJavadoc(null);
                     leafNode.setDeclaration(body);
                     leafNode.setFilePath(filePath);
                     parent.addChild(leafNode);
@@ -210,7 +342,6 @@ public class JDTServiceImpl implements JDTService {
                     leafNode.setNamespace("".equals(parent.getNamespace()) ? parent.getName() : parent.getNamespace() + "." + parent.getName());
                     leafNode.setName(((EnumConstantDeclaration) body).getName().getFullyQualifiedName());
                     leafNode.setParent(parent);
-                    body.setJavadoc(null);
                     leafNode.setDeclaration(body);
                     leafNode.setFilePath(filePath);
                     parent.addChild(leafNode);
@@ -578,4 +709,103 @@ public class JDTServiceImpl implements JDTService {
         descendants.remove(0);
         return descendants;
     }
+
+    @Override
+    public TokenBag getDescendantTokens(ASTNode node) {
+        if (node == null) return TokenBag.empty();
+        StructuralHashVisitor visitor = new StructuralHashVisitor();
+        node.accept(visitor);
+        return TokenBag.of(visitor.getTokens());
+    }
+
+    @Override
+    public long getStructuralHash(ASTNode node) {
+        StructuralHashVisitor visitor = new StructuralHashVisitor();
+        node.accept(visitor);
+        return visitor.getRootHash();
+    }
+
+    /**
+     * Computes a bottom-up structural hash for every node from its type, its simple properties
+     * and the hashes of its children, which avoids flattening each subtree to a string.
+     */
+    private static class StructuralHashVisitor extends ASTVisitor {
+
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private final Deque<long[]> stack = new ArrayDeque<>();
+        private final Map<ASTNode, DeclarationNodeTree> declarations;
+        private long[] tokens = new long[64];
+        private int size;
+        private long rootHash;
+
+        private StructuralHashVisitor() {
+            this(Collections.emptyMap());
+        }
+
+        /**
+         * @param declarations the declaration nodes whose hash is recorded, by their AST node
+         */
+        private StructuralHashVisitor(Map<ASTNode, DeclarationNodeTree> declarations) {
+            this.declarations = declarations;
+        }
+
+        @Override
+        public boolean preVisit2(ASTNode node) {
+            stack.push(new long[]{mix(FNV_OFFSET, node.getNodeType())});
+            return true;
+        }
+
+        @Override
+        public void postVisit(ASTNode node) {
+            long hash = stack.pop()[0];
+            List<StructuralPropertyDescriptor> properties = node.structuralPropertiesForType();
+            for (StructuralPropertyDescriptor property : properties) {
+                if (property.isSimpleProperty())
+                    hash = mix(hash, hashString(String.valueOf(node.getStructuralProperty(property))));
+            }
+            hash = finish(hash);
+            DeclarationNodeTree declaration = declarations.get(node);
+            if (declaration != null)
+                declaration.setStructuralHash(hash);
+            if (stack.isEmpty()) {
+                rootHash = hash;
+                return;
+            }
+            long[] parent = stack.peek();
+            parent[0] = mix(parent[0], hash);
+            if (size == tokens.length)
+                tokens = Arrays.copyOf(tokens, size * 2);
+            tokens[size++] = TokenBag.token(node.getNodeType(), hash);
+        }
+
+        private long[] getTokens() {
+            return Arrays.copyOf(tokens, size);
+        }
+
+        private long getRootHash() {
+            return rootHash;
+        }
+
+        private static long mix(long hash, long value) {
+            return (hash ^ value) * FNV_PRIME;
+        }
+
+        private static long hashString(String value) {
+            long hash = FNV_OFFSET;
+            for (int i = 0; i < value.length(); i++)
+                hash = mix(hash, value.charAt(i));
+            return hash;
+        }
+
+        private static long finish(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
 }
@@ -0,0 +1,96 @@
+package org.remapper.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import org.remapper.dto.EntityMatchingJSON;
+import org.remapper.dto.LocationDeserializer;
+import org.remapper.dto.MatchPair;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends the matching result of each commit to a JSON Lines file as one compact {@link EntityMatchingJSON.Result}
+ * record, so that the cost of writing a commit does not grow with the number of commits already written.
+ * {@link #toJSON(Path, Path)} turns such a file into the single document written by the {@code -json} option.
+ */
+public class JsonLinesWriter implements Closeable {
+
+    private final Writer out;
+    private final JsonWriter jsonWriter;
+    private final boolean fileContents;
+    private final boolean metrics;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping()
+            .registerTypeAdapter(EntityMatchingJSON.Location.class, new LocationDeserializer()).create();
+
+    /**
+     * Open the file for appending, creating it and its parent directories when needed.
+     */
+    public JsonLinesWriter(Path path) throws IOException {
+        this(path, true, false);
+    }
+
+    /**
+     * @param fileContents copy the sources of the changed files into each record instead of their blob ids
+     * @param metrics      embed the per-phase metrics of each commit
+     */
+    public JsonLinesWriter(Path path, boolean fileContents, boolean metrics) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null && Files.notExists(parent)) {
+            Files.createDirectories(parent);
+        }
+        this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.jsonWriter = gson.newJsonWriter(out);
+        this.jsonWriter.setLenient(true);
+        this.fileContents = fileContents;
+        this.metrics = metrics;
+    }
+
+    public synchronized void write(String cloneURL, String currentCommitId, String url, MatchPair matchPair) throws IOException {
+        EntityMatchingJSON results = new EntityMatchingJSON();
+        results.populateJSON(cloneURL, currentCommitId, url, matchPair, fileContents, metrics);
+        for (EntityMatchingJSON.Result result : results.getResults()) {
+            gson.toJson(result, EntityMatchingJSON.Result.class, jsonWriter);
+            jsonWriter.flush();
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        jsonWriter.close();
+    }
+
+    /**
+     * Convert a JSON Lines file into the pretty printed single document of the {@code -json} option, reading and
+     * writing one record at a time.
+     */
+    public static void toJSON(Path jsonLinesFile, Path jsonFile) throws IOException {
+        Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting()
+                .registerTypeAdapter(EntityMatchingJSON.Location.class, new LocationDeserializer()).create();
+        Path parent = jsonFile.toAbsolutePath().getParent();
+        if (parent != null && Files.notExists(parent)) {
+            Files.createDirectories(parent);
+        }
+        try (BufferedReader in = Files.newBufferedReader(jsonLinesFile, StandardCharsets.UTF_8);
+             JsonWriter writer = gson.newJsonWriter(Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("results");
+            writer.beginArray();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                EntityMatchingJSON.Result result = gson.fromJson(line, EntityMatchingJSON.Result.class);
+                gson.toJson(result, EntityMatchingJSON.Result.class, writer);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.remapper.util;
+
+import org.remapper.dto.MatchPair;
+
+/**
+ * Thrown from a {@link CancellationToken#checkpoint()} when the matching of a commit was cancelled or ran out of time.
+ */
+public class MatchingCancelledException extends RuntimeException {
+
+    private MatchPair partialMatchPair;
+
+    public MatchingCancelledException() {
+        super("Matching was cancelled");
+    }
+
+    /**
+     * @return the entities and statements matched before the cancellation, or null if they were not requested
+     */
+    public MatchPair getPartialMatchPair() {
+        return partialMatchPair;
+    }
+
+    public void setPartialMatchPair(MatchPair partialMatchPair) {
+        this.partialMatchPair = partialMatchPair;
+    }
+}
@@ -0,0 +1,120 @@
+package org.remapper.util;
+
+import org.remapper.dto.TokenBag;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Optional candidate blocking for Dice matching over large deleted/added entity sets. Each entity is summarized
+ * by MinHash signatures of its token bags, and only pairs that share at least one LSH band are scored.
+ * With r rows per band and b bands, a pair with Jaccard similarity J collides with probability 1 - (1 - J^r)^b.
+ * A Dice of 0.5 corresponds to J = 1/3, so the defaults keep about 98% of the pairs at the threshold.
+ * Raising the bands or lowering the rows trades speed for recall. The blocking is off unless an instance is given
+ * to the matcher, see {@link org.remapper.service.EntityMatcherServiceImpl#setBlocking(MinHashBlocking)}.
+ */
+public class MinHashBlocking {
+
+    public static final int DEFAULT_BANDS = 32;
+
+    public static final int DEFAULT_ROWS = 2;
+
+    public static final int DEFAULT_MIN_COMPARISONS = 10000;
+
+    private static final long SEED = 0x2545F4914F6CDD1DL;
+
+    private final int bands;
+    private final int rows;
+    private final int minComparisons;
+
+    public MinHashBlocking() {
+        this(DEFAULT_BANDS, DEFAULT_ROWS, DEFAULT_MIN_COMPARISONS);
+    }
+
+    /**
+     * @param minComparisons grids smaller than this number of pairs are always compared exhaustively
+     */
+    public MinHashBlocking(int bands, int rows, int minComparisons) {
+        if (bands < 1 || rows < 1)
+            throw new IllegalArgumentException("bands and rows must be positive");
+        this.bands = bands;
+        this.rows = rows;
+        this.minComparisons = minComparisons;
+    }
+
+    public boolean isApplicable(int sizeBefore, int sizeCurrent) {
+        return (long) sizeBefore * sizeCurrent >= minComparisons;
+    }
+
+    /**
+     * @return for every element of the before list, the indices of the current elements it should be compared with
+     */
+    public <T> List<BitSet> candidates(List<T> before, List<T> current, Function<T, List<TokenBag>> tokens) {
+        long[] seeds = new long[bands * rows];
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < seeds.length; i++)
+            seeds[i] = random.nextLong();
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < before.size(); i++) {
+            for (TokenBag bag : tokens.apply(before.get(i))) {
+                if (bag.isEmpty()) continue;
+                long[] signature = signature(bag, seeds);
+                for (int band = 0; band < bands; band++)
+                    buckets.computeIfAbsent(bandKey(signature, band), key -> new ArrayList<>()).add(i);
+            }
+        }
+        List<BitSet> candidates = new ArrayList<>(before.size());
+        for (int i = 0; i < before.size(); i++)
+            candidates.add(new BitSet(current.size()));
+        for (int j = 0; j < current.size(); j++) {
+            for (TokenBag bag : tokens.apply(current.get(j))) {
+                if (bag.isEmpty()) continue;
+                long[] signature = signature(bag, seeds);
+                for (int band = 0; band < bands; band++) {
+                    List<Integer> bucket = buckets.get(bandKey(signature, band));
+                    if (bucket == null) continue;
+                    for (int i : bucket)
+                        candidates.get(i).set(j);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Repeated tokens are made distinct by their occurrence number, so that the signatures estimate the
+     * Jaccard similarity of the multisets that the Dice coefficient is computed on.
+     */
+    private static long[] signature(TokenBag bag, long[] seeds) {
+        long[] signature = new long[seeds.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int occurrence = 0;
+        for (int t = 0; t < bag.size(); t++) {
+            long token = bag.get(t);
+            occurrence = t > 0 && bag.get(t - 1) == token ? occurrence + 1 : 0;
+            long element = mix(token + 0x9E3779B97F4A7C15L * occurrence);
+            for (int k = 0; k < seeds.length; k++) {
+                long hash = mix(element ^ seeds[k]);
+                if (hash < signature[k])
+                    signature[k] = hash;
+            }
+        }
+        return signature;
+    }
+
+    private long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int row = 0; row < rows; row++)
+            key = mix(key * 31 + signature[band * rows + row]);
+        return key;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,135 @@
+package org.remapper.util;
+
+/**
+ * Reads the package declaration of a Java source from its leading tokens, skipping white space, comments and
+ * package annotations, without building an AST.
+ */
+public class PackageScanner {
+
+    /**
+     * @return the qualified name of the declared package, or null for the default package or an unreadable declaration
+     */
+    public static String scan(String source) {
+        int length = source.length();
+        int i = skipWhitespaceAndComments(source, !source.isEmpty() && source.charAt(0) == '\uFEFF' ? 1 : 0);
+        while (i < length && source.charAt(i) == '@') {
+            i = skipAnnotation(source, i + 1);
+            if (i == -1)
+                return null;
+            i = skipWhitespaceAndComments(source, i);
+        }
+        if (!isKeyword(source, i, "package"))
+            return null;
+        i += "package".length();
+        StringBuilder name = new StringBuilder();
+        while (true) {
+            i = skipWhitespaceAndComments(source, i);
+            int start = i;
+            i = skipIdentifier(source, i);
+            if (i == start)
+                return null;
+            name.append(source, start, i);
+            i = skipWhitespaceAndComments(source, i);
+            if (i >= length)
+                return null;
+            char c = source.charAt(i);
+            if (c == ';')
+                return name.toString();
+            if (c != '.')
+                return null;
+            name.append('.');
+            i++;
+        }
+    }
+
+    private static boolean isKeyword(String source, int offset, String keyword) {
+        int end = offset + keyword.length();
+        return source.startsWith(keyword, offset) &&
+                (end == source.length() || !Character.isJavaIdentifierPart(source.charAt(end)));
+    }
+
+    private static int skipIdentifier(String source, int offset) {
+        int i = offset;
+        if (i < source.length() && Character.isJavaIdentifierStart(source.charAt(i))) {
+            i++;
+            while (i < source.length() && Character.isJavaIdentifierPart(source.charAt(i)))
+                i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the offset after the annotation that starts at the given offset (after its {@code @}), or -1
+     */
+    private static int skipAnnotation(String source, int offset) {
+        int i = offset;
+        while (true) {
+            i = skipWhitespaceAndComments(source, i);
+            int start = i;
+            i = skipIdentifier(source, i);
+            if (i == start)
+                return -1;
+            int next = skipWhitespaceAndComments(source, i);
+            if (next < source.length() && source.charAt(next) == '.')
+                i = next + 1;
+            else
+                break;
+        }
+        int next = skipWhitespaceAndComments(source, i);
+        if (next >= source.length() || source.charAt(next) != '(')
+            return i;
+        int depth = 0;
+        i = next;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = skipLiteral(source, i);
+                continue;
+            }
+            if (c == '/' && i + 1 < source.length() && (source.charAt(i + 1) == '/' || source.charAt(i + 1) == '*')) {
+                i = skipWhitespaceAndComments(source, i);
+                continue;
+            }
+            if (c == '(')
+                depth++;
+            else if (c == ')' && --depth == 0)
+                return i + 1;
+            i++;
+        }
+        return -1;
+    }
+
+    private static int skipLiteral(String source, int offset) {
+        char quote = source.charAt(offset);
+        int i = offset + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\')
+                i += 2;
+            else if (c == quote)
+                return i + 1;
+            else
+                i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespaceAndComments(String source, int offset) {
+        int i = offset;
+        int length = source.length();
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                while (i < length && source.charAt(i) != '\n' && source.charAt(i) != '\r')
+                    i++;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+            } else
+                break;
+        }
+        return i;
+    }
+}
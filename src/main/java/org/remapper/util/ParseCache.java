@@ -0,0 +1,119 @@
+package org.remapper.util;
+
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of parsed compilation units keyed by git blob id, so that a file version
+ * shared by successive commits is parsed only once. Entries are weighted by an estimate of the
+ * retained AST size and the least recently used ones are evicted once the budget is exceeded.
+ * A cached unit is handed to every file, commit and thread that parses the same blob, so it must not be modified;
+ * {@link JDTServiceImpl} strips the javadoc before a unit is cached and builds its trees without touching it.
+ */
+public class ParseCache {
+
+    /**
+     * Rough number of retained AST bytes per source character.
+     */
+    private static final long ESTIMATED_BYTES_PER_CHAR = 20;
+
+    private final long maxWeight;
+    private final LinkedHashMap<ObjectId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Create a cache that may retain about a quarter of the maximum heap.
+     */
+    public ParseCache() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * @param maxWeight the estimated number of heap bytes the cached ASTs may retain
+     */
+    public ParseCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the git blob id of the given file content
+     */
+    public static ObjectId blobId(String fileContent) {
+        byte[] bytes = fileContent.getBytes(StandardCharsets.UTF_8);
+        try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+            return formatter.idFor(Constants.OBJ_BLOB, bytes);
+        }
+    }
+
+    public synchronized CompilationUnit get(ObjectId blobId) {
+        Entry entry = entries.get(blobId);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.cu;
+    }
+
+    public synchronized void put(ObjectId blobId, CompilationUnit cu, int sourceLength) {
+        long entryWeight = sourceLength * ESTIMATED_BYTES_PER_CHAR;
+        if (entryWeight > maxWeight)
+            return;
+        Entry previous = entries.put(blobId, new Entry(cu, entryWeight));
+        if (previous != null)
+            weight -= previous.weight;
+        weight += entryWeight;
+        Iterator<Map.Entry<ObjectId, Entry>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            weight -= eldest.weight;
+            evictionCount++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static class Entry {
+        private final CompilationUnit cu;
+        private final long weight;
+
+        private Entry(CompilationUnit cu, long weight) {
+            this.cu = cu;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.remapper.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A bounded pool of threads that parse the files of a commit side by side. Every thread reuses one parser
+ * (see {@link ASTParserUtils#getReusableASTParser()}), and the parsed files are collected in the iteration order
+ * of the file contents, so the result does not depend on the number of threads.
+ */
+public class ParserPool {
+
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    public static final int DEFAULT_MIN_PARALLEL_FILES = 8;
+
+    private static ParserPool shared;
+
+    private final int threads;
+    private final int minParallelFiles;
+    private final ExecutorService executor;
+
+    public ParserPool(int threads) {
+        this(threads, DEFAULT_MIN_PARALLEL_FILES);
+    }
+
+    /**
+     * @param minParallelFiles fewer files than this are parsed on the calling thread
+     */
+    public ParserPool(int threads, int minParallelFiles) {
+        this.threads = threads;
+        this.minParallelFiles = minParallelFiles;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "remapper-parser-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the pool that matcher services use unless given another, with {@link #DEFAULT_THREADS} threads
+     */
+    public static synchronized ParserPool getShared() {
+        if (shared == null)
+            shared = new ParserPool(DEFAULT_THREADS);
+        return shared;
+    }
+
+    public <T> void parse(Map<String, String> fileContents, BiFunction<String, String, T> parser, Map<String, T> results) {
+        parse(fileContents, parser, results, CancellationToken.NONE);
+    }
+
+    /**
+     * @param token the token of the commit, checked before each file is parsed; an interruption of the calling
+     *              thread also ends the parse with a {@link MatchingCancelledException}
+     */
+    public <T> void parse(Map<String, String> fileContents, BiFunction<String, String, T> parser, Map<String, T> results,
+                          CancellationToken token) {
+        if (threads <= 1 || fileContents.size() < minParallelFiles) {
+            for (String filePath : fileContents.keySet()) {
+                token.checkpoint();
+                results.put(filePath, parser.apply(filePath, fileContents.get(filePath)));
+            }
+            return;
+        }
+        List<String> filePaths = new ArrayList<>(fileContents.keySet());
+        List<Future<T>> futures = new ArrayList<>(filePaths.size());
+        try {
+            for (String filePath : filePaths) {
+                String fileContent = fileContents.get(filePath);
+                futures.add(executor.submit(() -> {
+                    token.checkpoint();
+                    return parser.apply(filePath, fileContent);
+                }));
+            }
+            for (int i = 0; i < filePaths.size(); i++) {
+                token.checkpoint();
+                results.put(filePaths.get(i), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MatchingCancelledException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<T> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,63 @@
+package org.remapper.util;
+
+import org.remapper.dto.MatchPair;
+import org.remapper.jfr.MatchingPhaseEvent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Splits the work done on a commit into consecutive phases. Each {@link #lap(String)} reports the wall time, the
+ * bytes allocated by the current thread and the pairs scored for the commit since the previous lap, or since the
+ * timer was created, to the metrics collector of the commit, and records it as a {@link MatchingPhaseEvent}.
+ * Every lap is also a cancellation checkpoint of the commit.
+ */
+public class PhaseTimer {
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final MatchPair matchPair;
+    private long nanos;
+    private long allocatedBytes;
+    private long scoredPairs;
+    private MatchingPhaseEvent event;
+
+    public PhaseTimer(MatchPair matchPair) {
+        this.matchPair = matchPair;
+        this.nanos = System.nanoTime();
+        this.allocatedBytes = allocatedBytes();
+        this.scoredPairs = matchPair.getScoredPairCount();
+        this.event = new MatchingPhaseEvent();
+        event.begin();
+    }
+
+    public void lap(String phase) {
+        long nanos = System.nanoTime();
+        long allocatedBytes = allocatedBytes();
+        long scoredPairs = matchPair.getScoredPairCount();
+        long allocated = allocatedBytes < 0 || this.allocatedBytes < 0 ? -1 : allocatedBytes - this.allocatedBytes;
+        matchPair.getMetrics().record(phase, nanos - this.nanos, allocated, scoredPairs - this.scoredPairs);
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.allocatedBytes = allocated;
+            event.scoredPairs = scoredPairs - this.scoredPairs;
+            event.commit();
+        }
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+        this.scoredPairs = scoredPairs;
+        this.event = new MatchingPhaseEvent();
+        event.begin();
+        matchPair.checkCancelled();
+    }
+
+    private static long allocatedBytes() {
+        if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
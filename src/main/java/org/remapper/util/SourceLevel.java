@@ -0,0 +1,154 @@
+package org.remapper.util;
+
+/**
+ * The Java source level learned for the files of one repository. A file is parsed at the default level of
+ * {@link ASTParserUtils} first and parsed again at the version recommended by its problems when it uses newer
+ * syntax. Once a file of the repository needed a newer level, the files whose tokens hint at such syntax are parsed
+ * at that level up front, and only files that turn out to need an even newer level are parsed twice.
+ */
+public class SourceLevel {
+
+    private static final double DEFAULT_VERSION = Double.parseDouble(ASTParserUtils.DEFAULT_JAVA_CORE_VERSION);
+
+    private static final String[] HINTS = {"record", "sealed", "permits", "yield", "instanceof", "\"\"\""};
+
+    private volatile String learnedVersion;
+
+    /**
+     * @return the version to parse the source at, or null for the default level
+     */
+    public String choose(char[] source) {
+        String version = learnedVersion;
+        if (version == null || !mayUseNewerSyntax(source))
+            return null;
+        return version;
+    }
+
+    /**
+     * Remember a version recommended by the problems of a file, if it is newer than the default and learned ones.
+     */
+    public synchronized void learn(String version) {
+        if (compare(version, DEFAULT_VERSION) <= 0)
+            return;
+        if (learnedVersion == null || compare(version, Double.parseDouble(learnedVersion)) > 0)
+            learnedVersion = version;
+    }
+
+    public String getLearnedVersion() {
+        return learnedVersion;
+    }
+
+    /**
+     * @return whether the first version is newer than the second; versions that are not numbers are never newer
+     */
+    public static boolean isNewer(String version, String than) {
+        try {
+            return compare(version, Double.parseDouble(than)) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int compare(String version, double other) {
+        try {
+            return Double.compare(Double.parseDouble(version), other);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A lexical scan for the keywords and text blocks of the syntax added after the default level, and for
+     * {@code instanceof} followed by a type pattern or a record pattern rather than a plain type. Comments and
+     * string literals are not skipped, so the scan may report files that parse fine at the default level.
+     */
+    static boolean mayUseNewerSyntax(char[] source) {
+        for (int i = 0; i < source.length; i++) {
+            char c = source[i];
+            if (c != 'r' && c != 's' && c != 'p' && c != 'y' && c != 'i' && c != '"')
+                continue;
+            if (i > 0 && Character.isJavaIdentifierPart(source[i - 1]) && c != '"')
+                continue;
+            for (String hint : HINTS) {
+                if (hint.charAt(0) == c && matches(source, i, hint) &&
+                        (!hint.equals("instanceof") || isPattern(source, i + hint.length())))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the type after an {@code instanceof} at the given offset is followed by a binding variable,
+     * as in {@code o instanceof final List<?> list}, or by the components of a record pattern
+     */
+    static boolean isPattern(char[] source, int offset) {
+        int i = skipWhitespace(source, offset);
+        if (matches(source, i, "final"))
+            i = skipWhitespace(source, i + "final".length());
+        int end = skipIdentifier(source, i);
+        if (end == i)
+            return false;
+        i = skipWhitespace(source, end);
+        while (i < source.length && (source[i] == '.' || source[i] == '<' || source[i] == '[')) {
+            if (source[i] == '.') {
+                i = skipWhitespace(source, i + 1);
+                end = skipIdentifier(source, i);
+                if (end == i)
+                    return false;
+                i = end;
+            } else if (source[i] == '<') {
+                int depth = 0;
+                for (; i < source.length; i++) {
+                    char c = source[i];
+                    if (c == '<')
+                        depth++;
+                    else if (c == '>' && --depth == 0)
+                        break;
+                    else if (c == ';' || c == '{' || c == ')' || c == '&' || c == '|')
+                        return false;
+                }
+                if (i == source.length)
+                    return false;
+                i++;
+            } else {
+                i = skipWhitespace(source, i + 1);
+                if (i >= source.length || source[i] != ']')
+                    return false;
+                i++;
+            }
+            i = skipWhitespace(source, i);
+        }
+        if (i < source.length && source[i] == '(')
+            return true;
+        return skipIdentifier(source, i) > i;
+    }
+
+    private static int skipWhitespace(char[] source, int offset) {
+        int i = offset;
+        while (i < source.length && Character.isWhitespace(source[i]))
+            i++;
+        return i;
+    }
+
+    private static int skipIdentifier(char[] source, int offset) {
+        int i = offset;
+        if (i < source.length && Character.isJavaIdentifierStart(source[i])) {
+            i++;
+            while (i < source.length && Character.isJavaIdentifierPart(source[i]))
+                i++;
+        }
+        return i;
+    }
+
+    private static boolean matches(char[] source, int offset, String word) {
+        int end = offset + word.length();
+        if (end > source.length)
+            return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (source[offset + i] != word.charAt(i))
+                return false;
+        }
+        return word.charAt(0) == '"' || end == source.length || !Character.isJavaIdentifierPart(source[end]);
+    }
+}
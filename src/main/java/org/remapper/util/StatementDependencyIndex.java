@@ -0,0 +1,72 @@
+package org.remapper.util;
+
+import org.remapper.dto.MethodNode;
+import org.remapper.dto.StatementNodeTree;
+
+import java.util.*;
+
+/**
+ * Index of the statements of a method by the neighbours their similarity depends on.
+ * The context and descendant similarity of a statement only look at its parent, at the statements sharing a
+ * children list with it (including the blocks an inlined or extracted statement was spliced into) and at its
+ * descendants. Given the statements whose mapping changed, the index returns every statement whose similarity
+ * to any other statement may have changed.
+ */
+public class StatementDependencyIndex {
+
+    private final Map<StatementNodeTree, List<StatementNodeTree>> childrenByParent = new IdentityHashMap<>();
+    private final Map<StatementNodeTree, List<StatementNodeTree>> containersByChild = new IdentityHashMap<>();
+
+    public StatementDependencyIndex(MethodNode method) {
+        Deque<StatementNodeTree> stack = new ArrayDeque<>();
+        Set<MethodNode> higherRoots = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<StatementNodeTree> statements = new ArrayList<>();
+        statements.addAll(method.getAllOperations());
+        statements.addAll(method.getAllBlocks());
+        statements.addAll(method.getAllControls());
+        for (StatementNodeTree statement : statements) {
+            stack.push(statement);
+            if (statement.getParent() != null)
+                stack.push(statement.getParent());
+            if (statement.getHigherRoot() != null && higherRoots.add(statement.getHigherRoot()))
+                stack.addAll(statement.getHigherRoot().getAllBlocks());
+        }
+        Set<StatementNodeTree> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        while (!stack.isEmpty()) {
+            StatementNodeTree container = stack.pop();
+            if (!visited.add(container))
+                continue;
+            if (container.getParent() != null)
+                childrenByParent.computeIfAbsent(container.getParent(), k -> new ArrayList<>()).add(container);
+            for (StatementNodeTree child : container.getChildren()) {
+                containersByChild.computeIfAbsent(child, k -> new ArrayList<>()).add(container);
+                stack.push(child);
+            }
+        }
+    }
+
+    /**
+     * @return the given statements together with the statements whose similarity depends on them
+     */
+    public Set<StatementNodeTree> getDependents(Collection<StatementNodeTree> changedStatements) {
+        Set<StatementNodeTree> dependents = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<StatementNodeTree> ancestors = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<StatementNodeTree> stack = new ArrayDeque<>();
+        for (StatementNodeTree statement : changedStatements) {
+            dependents.add(statement);
+            dependents.addAll(childrenByParent.getOrDefault(statement, Collections.emptyList()));
+            List<StatementNodeTree> containers = containersByChild.getOrDefault(statement, Collections.emptyList());
+            for (StatementNodeTree container : containers)
+                dependents.addAll(container.getChildren());
+            stack.addAll(containers);
+            while (!stack.isEmpty()) {
+                StatementNodeTree ancestor = stack.pop();
+                if (!ancestors.add(ancestor))
+                    continue;
+                dependents.add(ancestor);
+                stack.addAll(containersByChild.getOrDefault(ancestor, Collections.emptyList()));
+            }
+        }
+        return dependents;
+    }
+}
@@ -0,0 +1,99 @@
+package org.remapper.dto;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BidirectionalMapTest {
+
+    @Test
+    public void findsTheKeyOfAValue() {
+        BidirectionalMap<String, String> map = new BidirectionalMap<>();
+        map.put("a", "x");
+        map.put("b", "y");
+        assertEquals("a", map.getKey("x"));
+        assertTrue(map.containsValue("y"));
+        assertNull(map.getKey("z"));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.keySet()));
+    }
+
+    @Test
+    public void putReplacesTheMappingsOfTheKeyAndTheValue() {
+        BidirectionalMap<String, String> map = new BidirectionalMap<>();
+        map.put("a", "x");
+        map.put("b", "y");
+        assertEquals("x", map.put("a", "y"));
+        assertEquals(1, map.size());
+        assertFalse(map.containsKey("b"));
+        assertFalse(map.containsValue("x"));
+        assertEquals("a", map.getKey("y"));
+    }
+
+    @Test
+    public void removesOnlyMatchingMappings() {
+        BidirectionalMap<String, String> map = new BidirectionalMap<>();
+        map.put("a", "x");
+        assertFalse(map.remove("a", "y"));
+        assertFalse(map.remove("a", null));
+        assertFalse(map.remove(null, "x"));
+        assertTrue(map.remove("a", "x"));
+        assertNull(map.getKey("x"));
+        assertTrue(map.isEmpty());
+    }
+
+    /**
+     * Replays the conflict resolution of the exact statement matching phases, which used a plain map and a linear
+     * search for the key of a value, and expects the same mappings in the same order.
+     */
+    @Test
+    public void sameMappingsAsLinearKeySearch() {
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            Map<String, String> expected = new LinkedHashMap<>();
+            BidirectionalMap<String, String> map = new BidirectionalMap<>();
+            Map<String, Double> scores = new HashMap<>();
+            for (int step = 0; step < 30; step++) {
+                String node1 = "l" + random.nextInt(6);
+                String node2 = "r" + random.nextInt(6);
+                scores.putIfAbsent(node1 + node2, random.nextDouble());
+                process(expected, node1, node2, getKeyByValue(expected, node2), scores);
+                process(map, node1, node2, map.getKey(node2), scores);
+                assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+                for (String value : expected.values())
+                    assertEquals(getKeyByValue(expected, value), map.getKey(value));
+            }
+        }
+    }
+
+    private static void process(Map<String, String> temp, String node1, String node2, String candidateKey,
+                                Map<String, Double> scores) {
+        if (temp.containsKey(node1) || temp.containsValue(node2)) {
+            String candidateValue = temp.get(node1);
+            double previousValue = score(scores, node1, candidateValue);
+            double previousKey = score(scores, candidateKey, node2);
+            double current = score(scores, node1, node2);
+            if (current > previousValue && current > previousKey) {
+                temp.remove(node1, candidateValue);
+                temp.remove(candidateKey, node2);
+                temp.put(node1, node2);
+            }
+        } else
+            temp.put(node1, node2);
+    }
+
+    private static double score(Map<String, Double> scores, String node1, String node2) {
+        if (node1 == null || node2 == null)
+            return 0.0;
+        return scores.getOrDefault(node1 + node2, 0.0);
+    }
+
+    private static <K, V> K getKeyByValue(Map<K, V> map, V value) {
+        return map.entrySet().stream()
+                .filter(entry -> Objects.equals(entry.getValue(), value))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse(null);
+    }
+}
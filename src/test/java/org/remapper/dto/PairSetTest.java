@@ -0,0 +1,106 @@
+package org.remapper.dto;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PairSetTest {
+
+    @Test
+    public void looksUpPartnersOnBothSides() {
+        Object a = new Object(), b = new Object(), x = new Object(), y = new Object();
+        PairSet<Object, Object> pairs = new PairSet<>();
+        assertTrue(pairs.add(Pair.of(a, x)));
+        assertTrue(pairs.add(Pair.of(a, y)));
+        assertTrue(pairs.add(Pair.of(b, y)));
+        assertFalse(pairs.add(Pair.of(a, x)));
+        assertEquals(3, pairs.size());
+        assertTrue(pairs.contains(a, y));
+        assertFalse(pairs.contains(b, x));
+        assertSame(x, pairs.getRight(a));
+        assertSame(a, pairs.getLeft(y));
+        assertEquals(Arrays.asList(a, b), pairs.getLefts(y));
+        assertNull(pairs.getRight(new Object()));
+        assertTrue(pairs.getRights(new Object()).isEmpty());
+    }
+
+    @Test
+    public void indexesFollowIteratorRemoval() {
+        Object a = new Object(), b = new Object(), x = new Object(), y = new Object();
+        PairSet<Object, Object> pairs = new PairSet<>(Arrays.asList(Pair.of(a, x), Pair.of(b, y)));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(a, b)), pairs.lefts());
+        Iterator<Pair<Object, Object>> iterator = pairs.iterator();
+        iterator.next();
+        iterator.remove();
+        assertFalse(pairs.contains(a, x));
+        assertNull(pairs.getLeft(x));
+        assertEquals(Collections.singleton(b), pairs.lefts());
+        assertEquals(Collections.singleton(y), pairs.rights());
+        pairs.clear();
+        assertNull(pairs.getRight(b));
+        assertTrue(pairs.lefts().isEmpty());
+    }
+
+    /**
+     * The indexed lookups must answer like the scans over a plain set of pairs that they replaced.
+     */
+    @Test
+    public void sameAnswersAsPlainSet() {
+        Random random = new Random(9);
+        List<Object> nodes = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            nodes.add(new Object());
+        PairSet<Object, Object> pairs = new PairSet<>();
+        Set<Pair<Object, Object>> expected = new LinkedHashSet<>();
+        for (int round = 0; round < 2000; round++) {
+            Pair<Object, Object> pair = Pair.of(nodes.get(random.nextInt(4)), nodes.get(4 + random.nextInt(4)));
+            int operation = random.nextInt(4);
+            if (operation < 2)
+                assertEquals(expected.add(pair), pairs.add(pair));
+            else if (operation == 2)
+                assertEquals(expected.remove(pair), pairs.remove(pair));
+            else
+                removeIf(pairs, expected, pair.getLeft());
+            assertEquals(new ArrayList<>(expected), new ArrayList<>(pairs));
+            for (Object left : nodes.subList(0, 4)) {
+                for (Object right : nodes.subList(4, 8))
+                    assertEquals(expected.contains(Pair.of(left, right)), pairs.contains(left, right));
+                assertSame(firstRight(expected, left), pairs.getRight(left));
+            }
+            for (Object right : nodes.subList(4, 8))
+                assertSame(firstLeft(expected, right), pairs.getLeft(right));
+            Set<Object> lefts = new LinkedHashSet<>();
+            Set<Object> rights = new LinkedHashSet<>();
+            for (Pair<Object, Object> mapping : expected) {
+                lefts.add(mapping.getLeft());
+                rights.add(mapping.getRight());
+            }
+            assertEquals(new ArrayList<>(lefts), new ArrayList<>(pairs.lefts()));
+            assertEquals(new ArrayList<>(rights), new ArrayList<>(pairs.rights()));
+        }
+    }
+
+    private static void removeIf(PairSet<Object, Object> pairs, Set<Pair<Object, Object>> expected, Object left) {
+        expected.removeIf(pair -> pair.getLeft() == left);
+        pairs.removeIf(pair -> pair.getLeft() == left);
+    }
+
+    private static Object firstRight(Set<Pair<Object, Object>> pairs, Object left) {
+        for (Pair<Object, Object> pair : pairs) {
+            if (pair.getLeft() == left)
+                return pair.getRight();
+        }
+        return null;
+    }
+
+    private static Object firstLeft(Set<Pair<Object, Object>> pairs, Object right) {
+        for (Pair<Object, Object> pair : pairs) {
+            if (pair.getRight() == right)
+                return pair.getLeft();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+package org.remapper.dto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TokenBagTest {
+
+    @Test
+    public void intersectionCountsRepeatedTokens() {
+        TokenBag bag1 = TokenBag.of(new long[]{3, 1, 2, 2, 2});
+        TokenBag bag2 = TokenBag.of(new long[]{2, 2, 4, 1});
+        assertEquals(3, bag1.intersectionSize(bag2));
+        assertEquals(3, bag2.intersectionSize(bag1));
+        assertEquals(0, bag1.intersectionSize(TokenBag.empty()));
+    }
+
+    @Test
+    public void boundedIntersectionIsExactWhenReachingTheMinimum() {
+        TokenBag bag1 = TokenBag.of(new long[]{1, 2, 3, 4, 5, 6});
+        TokenBag bag2 = TokenBag.of(new long[]{1, 2, 3, 7, 8, 9});
+        assertEquals(3, bag1.intersectionSize(bag2, 3));
+        assertEquals(3, bag1.intersectionSize(bag2, 0));
+        assertTrue(bag1.intersectionSize(bag2, 4) < 4);
+    }
+
+    @Test
+    public void tokensKeepTheirLabel() {
+        long token = TokenBag.token(83, -1L);
+        assertEquals(83, TokenBag.label(token));
+        TokenBag bag = TokenBag.of(new long[]{token, TokenBag.token(42, 7), token});
+        TokenBag withoutNames = bag.withoutLabel(83);
+        assertEquals(1, withoutNames.size());
+        assertEquals(42, TokenBag.label(withoutNames.get(0)));
+        assertSame(withoutNames, withoutNames.withoutLabel(83));
+    }
+
+    /**
+     * The bags must give the same Dice coefficients as the descendant lists they replaced, which were matched
+     * greedily element by element.
+     */
+    @Test
+    public void sameIntersectionAsListMatching() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            long[] tokens1 = randomTokens(random);
+            long[] tokens2 = randomTokens(random);
+            TokenBag bag1 = TokenBag.of(tokens1);
+            TokenBag bag2 = TokenBag.of(tokens2);
+            int expected = listIntersection(toList(tokens1), toList(tokens2));
+            assertEquals(expected, bag1.intersectionSize(bag2));
+            int minimum = random.nextInt(Math.max(1, Math.min(tokens1.length, tokens2.length) + 1));
+            int bounded = bag1.intersectionSize(bag2, minimum);
+            if (expected >= minimum)
+                assertEquals(expected, bounded);
+            else
+                assertTrue(bounded < minimum);
+        }
+    }
+
+    @Test
+    public void sameMultisetOperationsAsLists() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            long[] tokens1 = randomTokens(random);
+            long[] tokens2 = randomTokens(random);
+            TokenBag bag1 = TokenBag.of(tokens1);
+            TokenBag bag2 = TokenBag.of(tokens2);
+
+            List<Long> difference = toList(tokens1);
+            for (long token : tokens2)
+                difference.remove(Long.valueOf(token));
+            assertEquals(TokenBag.of(toArray(difference)), bag1.minus(bag2));
+
+            List<Long> union = toList(tokens1);
+            union.addAll(toList(tokens2));
+            assertEquals(TokenBag.of(toArray(union)), bag1.plus(bag2));
+
+            int label = TokenBag.label(tokens1.length == 0 ? 0 : tokens1[0]);
+            List<Long> withoutLabel = toList(tokens1);
+            withoutLabel.removeIf(token -> TokenBag.label(token) == label);
+            assertEquals(TokenBag.of(toArray(withoutLabel)), bag1.withoutLabel(label));
+        }
+    }
+
+    private static int listIntersection(List<Long> list1, List<Long> list2) {
+        int intersection = 0;
+        Set<Integer> matched = new HashSet<>();
+        for (Long before : list1) {
+            for (int i = 0; i < list2.size(); i++) {
+                if (matched.contains(i)) continue;
+                if (before.equals(list2.get(i))) {
+                    intersection++;
+                    matched.add(i);
+                    break;
+                }
+            }
+        }
+        return intersection;
+    }
+
+    private static long[] randomTokens(Random random) {
+        long[] tokens = new long[random.nextInt(20)];
+        for (int i = 0; i < tokens.length; i++)
+            tokens[i] = TokenBag.token(random.nextInt(3), random.nextInt(5));
+        return tokens;
+    }
+
+    private static List<Long> toList(long[] tokens) {
+        List<Long> list = new ArrayList<>();
+        for (long token : tokens)
+            list.add(token);
+        return list;
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] tokens = new long[list.size()];
+        for (int i = 0; i < tokens.length; i++)
+            tokens[i] = list.get(i);
+        return tokens;
+    }
+}
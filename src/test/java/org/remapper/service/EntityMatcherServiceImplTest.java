@@ -0,0 +1,122 @@
+package org.remapper.service;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.remapper.dto.MatchPair;
+import org.remapper.dto.StatementNodeTree;
+import org.remapper.handler.MatchingHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class EntityMatcherServiceImplTest {
+
+    private static final String BEFORE = "package org.sample;\n" +
+            "\n" +
+            "public class Orders {\n" +
+            "    private final java.util.List<String> items = new java.util.ArrayList<>();\n" +
+            "\n" +
+            "    public int total(int[] prices) {\n" +
+            "        int total = 0;\n" +
+            "        for (int price : prices) {\n" +
+            "            if (price > 0)\n" +
+            "                total += price;\n" +
+            "        }\n" +
+            "        System.out.println(\"total: \" + total);\n" +
+            "        return total;\n" +
+            "    }\n" +
+            "\n" +
+            "    public void add(String item) {\n" +
+            "        if (item == null)\n" +
+            "            throw new IllegalArgumentException();\n" +
+            "        String trimmed = item.trim();\n" +
+            "        items.add(trimmed);\n" +
+            "    }\n" +
+            "\n" +
+            "    public String describe() {\n" +
+            "        StringBuilder builder = new StringBuilder();\n" +
+            "        for (String item : items) {\n" +
+            "            builder.append(item);\n" +
+            "            builder.append(',');\n" +
+            "        }\n" +
+            "        return builder.toString();\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String AFTER = "package org.sample;\n" +
+            "\n" +
+            "public class Orders {\n" +
+            "    private final java.util.List<String> items = new java.util.ArrayList<>();\n" +
+            "\n" +
+            "    public int total(int[] prices) {\n" +
+            "        int sum = 0;\n" +
+            "        for (int i = 0; i < prices.length; i++) {\n" +
+            "            if (prices[i] >= 0)\n" +
+            "                sum += prices[i];\n" +
+            "        }\n" +
+            "        return sum;\n" +
+            "    }\n" +
+            "\n" +
+            "    public void add(String item) {\n" +
+            "        String trimmed = java.util.Objects.requireNonNull(item).strip();\n" +
+            "        if (!trimmed.isEmpty())\n" +
+            "            items.add(trimmed);\n" +
+            "    }\n" +
+            "\n" +
+            "    public String describe() {\n" +
+            "        StringBuilder builder = new StringBuilder(\"[\");\n" +
+            "        for (String item : items)\n" +
+            "            builder.append(item).append(',');\n" +
+            "        builder.append(']');\n" +
+            "        return builder.toString();\n" +
+            "    }\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The method pairs matched in parallel report their statements after the others, but the sets of matched, deleted
+     * and added statements are the same as those of a sequential matching.
+     */
+    @Test
+    public void parallelStatementMatchingFindsTheSameStatements() throws Exception {
+        File previousFile = write("before/Orders.java", BEFORE);
+        File nextFile = write("after/Orders.java", AFTER);
+        List<Set<String>> sequential = statements(new EntityMatcherServiceImpl(false, false), previousFile, nextFile);
+        List<Set<String>> parallel = statements(new EntityMatcherServiceImpl(false, true), previousFile, nextFile);
+        assertEquals(sequential, parallel);
+        assertFalse(sequential.get(0).isEmpty());
+    }
+
+    /**
+     * @return the matched, deleted and added statements
+     */
+    private static List<Set<String>> statements(EntityMatcherServiceImpl service, File previousFile, File nextFile) throws Exception {
+        MatchPair matchPair = service.matchEntities(previousFile, nextFile, new MatchingHandler() {
+        });
+        Set<String> matched = new HashSet<>();
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : matchPair.getMatchedStatements())
+            matched.add(pair.getLeft().getLocationInfo() + " -> " + pair.getRight().getLocationInfo());
+        Set<String> deleted = new HashSet<>();
+        for (StatementNodeTree statement : matchPair.getDeletedStatements())
+            deleted.add(statement.getLocationInfo().toString());
+        Set<String> added = new HashSet<>();
+        for (StatementNodeTree statement : matchPair.getAddedStatements())
+            added.add(statement.getLocationInfo().toString());
+        return Arrays.asList(matched, deleted, added);
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,150 @@
+package org.remapper.service;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.remapper.dto.MatchPair;
+import org.remapper.handler.MatchingHandler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HistoryMatchingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The workers finish commits in any order, but the reorder buffer hands them to the handler in commit order,
+     * with the same results as matching them one by one.
+     */
+    @Test
+    public void deliversTheCommitsInOrder() throws Exception {
+        List<String> commitIds = new ArrayList<>();
+        try (Git git = Git.init().setDirectory(folder.newFolder("repository")).call()) {
+            for (int i = 0; i < 8; i++)
+                commitIds.add(commit(git, i).getId().getName());
+            Repository repository = git.getRepository();
+            String startCommitId = commitIds.get(0);
+            String endCommitId = commitIds.get(commitIds.size() - 1);
+
+            Map<String, Integer> sequential = new LinkedHashMap<>();
+            new EntityMatcherServiceImpl().matchCommitsBetweenCommits(repository, startCommitId, endCommitId,
+                    recorder(sequential), 1);
+            Map<String, Integer> parallel = new LinkedHashMap<>();
+            new EntityMatcherServiceImpl().matchCommitsBetweenCommits(repository, startCommitId, endCommitId,
+                    recorder(parallel), 3);
+
+            assertEquals(commitIds.subList(1, commitIds.size()), new ArrayList<>(sequential.keySet()));
+            assertEquals(new ArrayList<>(sequential.entrySet()), new ArrayList<>(parallel.entrySet()));
+        }
+    }
+
+    /**
+     * The staged pipeline overlaps the commits, but reports them in commit order with the same results as matching
+     * them one by one.
+     */
+    @Test
+    public void pipelineMatchesLikeOneByOne() throws Exception {
+        List<String> commitIds = new ArrayList<>();
+        try (Git git = Git.init().setDirectory(folder.newFolder("repository")).call()) {
+            for (int i = 0; i < 6; i++)
+                commitIds.add(commit(git, i).getId().getName());
+            Repository repository = git.getRepository();
+            String startCommitId = commitIds.get(0);
+            String endCommitId = commitIds.get(commitIds.size() - 1);
+
+            Map<String, Integer> sequential = new LinkedHashMap<>();
+            new EntityMatcherServiceImpl().matchCommitsBetweenCommits(repository, startCommitId, endCommitId,
+                    recorder(sequential), 1);
+            Map<String, Integer> pipelined = new LinkedHashMap<>();
+            List<MatchingPipeline.StageMetrics> stages = new EntityMatcherServiceImpl().matchCommitsInPipeline(repository,
+                    startCommitId, endCommitId, recorder(pipelined));
+
+            assertEquals(commitIds.subList(1, commitIds.size()), new ArrayList<>(pipelined.keySet()));
+            assertEquals(new ArrayList<>(sequential.entrySet()), new ArrayList<>(pipelined.entrySet()));
+            assertEquals(5, stages.size());
+            for (MatchingPipeline.StageMetrics stage : stages)
+                assertEquals(stage.getName(), 5, stage.getProcessedCount());
+        }
+    }
+
+    /**
+     * Resolving bindings from the commit trees must find the same entities as checking the commits out.
+     */
+    @Test
+    public void checkoutFreeMatchesLikeCheckout() throws Exception {
+        try (Git git = Git.init().setDirectory(folder.newFolder("repository")).call()) {
+            List<String> commitIds = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                commitIds.add(commit(git, i).getId().getName());
+            Repository repository = git.getRepository();
+            for (String commitId : commitIds.subList(1, commitIds.size())) {
+                List<MatchPair> matchPairs = new ArrayList<>();
+                for (boolean checkoutFree : new boolean[]{false, true}) {
+                    new EntityMatcherServiceImpl(checkoutFree).matchAtCommit(repository, commitId, new MatchingHandler() {
+                        @Override
+                        public void handle(String commitId, MatchPair matchPair) {
+                            matchPairs.add(matchPair);
+                        }
+                    });
+                }
+                assertEquals(2, matchPairs.size());
+                assertEquals(matchPairs.get(0).getMatchedEntityInfos(), matchPairs.get(1).getMatchedEntityInfos());
+                assertEquals(matchPairs.get(0).getAddedEntityInfos(), matchPairs.get(1).getAddedEntityInfos());
+                assertEquals(matchPairs.get(0).getDeletedEntityInfos(), matchPairs.get(1).getDeletedEntityInfos());
+            }
+        }
+    }
+
+    /**
+     * Each commit adds a class, and every other commit also edits the methods of the earlier classes, so that some
+     * commits take longer to match than the ones after them.
+     */
+    private static RevCommit commit(Git git, int index) throws Exception {
+        File directory = new File(git.getRepository().getWorkTree(), "src/org/sample");
+        for (int i = 0; i <= index; i++) {
+            StringBuilder source = new StringBuilder("package org.sample;\n\npublic class Type" + i + " {\n");
+            int version = index % 2 == 0 ? index : i;
+            for (int m = 0; m < 10; m++)
+                source.append("    public int method").append(m).append("(int value) {\n        return value + ")
+                        .append(m * version).append(";\n    }\n");
+            FileUtils.writeStringToFile(new File(directory, "Type" + i + ".java"), source.append("}\n").toString(),
+                    StandardCharsets.UTF_8);
+        }
+        git.add().addFilepattern(".").call();
+        PersonIdent author = new PersonIdent("ReMapper", "remapper@example.com",
+                new Date(1_700_000_000_000L + index * 60_000L), TimeZone.getTimeZone("UTC"));
+        return git.commit().setMessage("commit " + index).setAuthor(author).setCommitter(author).call();
+    }
+
+    /**
+     * @return a handler that records the number of matched entities of each commit, failing on any exception
+     */
+    private static MatchingHandler recorder(Map<String, Integer> matchedEntities) {
+        return new MatchingHandler() {
+            @Override
+            public void handle(String commitId, MatchPair matchPair) {
+                assertNull(matchedEntities.put(commitId, matchPair.getMatchedEntities().size()));
+            }
+
+            @Override
+            public void handleException(String commitId, Exception e) {
+                throw new AssertionError(commitId, e);
+            }
+
+            @Override
+            public void handleException(String startCommitId, String endCommitId, Exception e) {
+                throw new AssertionError(startCommitId + ".." + endCommitId, e);
+            }
+        };
+    }
+}
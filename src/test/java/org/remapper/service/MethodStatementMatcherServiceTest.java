@@ -0,0 +1,158 @@
+package org.remapper.service;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.junit.Test;
+import org.remapper.dto.*;
+import org.remapper.util.JDTServiceImpl;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MethodStatementMatcherServiceTest {
+
+    private static final String[][] METHODS = {
+            {
+                    "int sum(int[] values) {\n" +
+                            "    int total = 0;\n" +
+                            "    for (int value : values) {\n" +
+                            "        if (value > 0) {\n" +
+                            "            total += value;\n" +
+                            "        } else {\n" +
+                            "            total -= value;\n" +
+                            "        }\n" +
+                            "    }\n" +
+                            "    log(total);\n" +
+                            "    return total;\n" +
+                            "}",
+                    "int sum(int[] numbers) {\n" +
+                            "    int result = 0;\n" +
+                            "    for (int i = 0; i < numbers.length; i++) {\n" +
+                            "        int number = numbers[i];\n" +
+                            "        if (number >= 0) {\n" +
+                            "            result += number;\n" +
+                            "        } else {\n" +
+                            "            result -= number;\n" +
+                            "        }\n" +
+                            "    }\n" +
+                            "    return result;\n" +
+                            "}"
+            },
+            {
+                    "void copy(java.util.List<String> from, java.util.List<String> to) {\n" +
+                            "    if (from == null) {\n" +
+                            "        return;\n" +
+                            "    }\n" +
+                            "    to.clear();\n" +
+                            "    for (String item : from) {\n" +
+                            "        String trimmed = item.trim();\n" +
+                            "        if (!trimmed.isEmpty()) {\n" +
+                            "            to.add(trimmed);\n" +
+                            "        }\n" +
+                            "    }\n" +
+                            "    while (to.size() > 10) {\n" +
+                            "        to.remove(0);\n" +
+                            "    }\n" +
+                            "}",
+                    "void copy(java.util.List<String> source, java.util.List<String> target) {\n" +
+                            "    target.clear();\n" +
+                            "    if (source == null) {\n" +
+                            "        throw new IllegalArgumentException();\n" +
+                            "    }\n" +
+                            "    while (target.size() > 10) {\n" +
+                            "        target.remove(0);\n" +
+                            "    }\n" +
+                            "    for (String entry : source) {\n" +
+                            "        String value = entry.strip();\n" +
+                            "        if (value.length() > 0) {\n" +
+                            "            target.add(value);\n" +
+                            "            count++;\n" +
+                            "        }\n" +
+                            "    }\n" +
+                            "}"
+            },
+            {
+                    "String describe(Object o) {\n" +
+                            "    StringBuilder builder = new StringBuilder();\n" +
+                            "    try {\n" +
+                            "        builder.append(o.toString());\n" +
+                            "        builder.append(':');\n" +
+                            "        builder.append(o.hashCode());\n" +
+                            "    } catch (RuntimeException e) {\n" +
+                            "        builder.append(\"?\");\n" +
+                            "    }\n" +
+                            "    switch (builder.length()) {\n" +
+                            "        case 0:\n" +
+                            "            return \"\";\n" +
+                            "        default:\n" +
+                            "            return builder.toString();\n" +
+                            "    }\n" +
+                            "}",
+                    "String describe(Object o) {\n" +
+                            "    StringBuilder sb = new StringBuilder();\n" +
+                            "    try {\n" +
+                            "        sb.append(o.hashCode());\n" +
+                            "        sb.append(':');\n" +
+                            "        sb.append(String.valueOf(o));\n" +
+                            "    } catch (RuntimeException | Error e) {\n" +
+                            "        sb.append(\"?\");\n" +
+                            "    }\n" +
+                            "    return sb.length() == 0 ? \"\" : sb.toString();\n" +
+                            "}"
+            }
+    };
+
+    /**
+     * The rounds of the iterative matching used to rescore every pair of statements; rescoring only the pairs around
+     * the changed candidate mappings must reach the same mappings.
+     */
+    @Test
+    public void sameStatementsAsFullRescoring() {
+        for (String[] method : METHODS) {
+            List<Set<String>> incremental = matchStatements(new MethodStatementMatcherService(), method[0], method[1]);
+            List<Set<String>> full = matchStatements(new MethodStatementMatcherService(false), method[0], method[1]);
+            assertEquals(full, incremental);
+            assertFalse(incremental.get(0).isEmpty());
+        }
+    }
+
+    /**
+     * @return the matched, deleted and added statements
+     */
+    private static List<Set<String>> matchStatements(MethodStatementMatcherService service, String before, String after) {
+        JDTServiceImpl jdtService = new JDTServiceImpl();
+        DeclarationNodeTree entityBefore = parseMethod(jdtService, before);
+        DeclarationNodeTree entityAfter = parseMethod(jdtService, after);
+        MethodNode methodBefore = jdtService.parseMethodSNT("Sample.java", (MethodDeclaration) entityBefore.getDeclaration());
+        MethodNode methodAfter = jdtService.parseMethodSNT("Sample.java", (MethodDeclaration) entityAfter.getDeclaration());
+        methodBefore.setMethodEntity(entityBefore);
+        methodAfter.setMethodEntity(entityAfter);
+        MatchPair matchPair = new MatchPair();
+        matchPair.addMatchedEntity(entityBefore, entityAfter);
+        service.matchStatements(methodBefore, methodAfter, matchPair, new ArrayList<>(), new ArrayList<>());
+        Set<String> matched = new HashSet<>();
+        for (Pair<StatementNodeTree, StatementNodeTree> pair : matchPair.getMatchedStatements())
+            matched.add(describe(pair.getLeft()) + " -> " + describe(pair.getRight()));
+        Set<String> deleted = new HashSet<>();
+        for (StatementNodeTree statement : matchPair.getDeletedStatements())
+            deleted.add(describe(statement));
+        Set<String> added = new HashSet<>();
+        for (StatementNodeTree statement : matchPair.getAddedStatements())
+            added.add(describe(statement));
+        return Arrays.asList(matched, deleted, added);
+    }
+
+    private static DeclarationNodeTree parseMethod(JDTServiceImpl jdtService, String method) {
+        RootNode root = jdtService.parseFileDNT("Sample.java", "class Sample {\n    int count;\n\n" + method + "\n}\n");
+        for (DeclarationNodeTree member : root.getChildren().get(0).getChildren()) {
+            if (member.getType() == EntityType.METHOD)
+                return member;
+        }
+        throw new AssertionError(method);
+    }
+
+    private static String describe(StatementNodeTree statement) {
+        return statement.getType() + " " + statement.getBlockType() + " " + statement.getLocationInfo();
+    }
+}
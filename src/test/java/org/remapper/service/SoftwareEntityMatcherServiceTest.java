@@ -0,0 +1,81 @@
+package org.remapper.service;
+
+import org.junit.Test;
+import org.remapper.dto.MatchPair;
+import org.remapper.dto.RootNode;
+import org.remapper.util.JDTServiceImpl;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SoftwareEntityMatcherServiceTest {
+
+    private static final String UTIL = "class Util {\n" +
+            "    static int twice(int value) {\n" +
+            "        return value * 2;\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String HELPER = helper("total");
+
+    private static final String EDITED_HELPER = helper("totals");
+
+    private static final Map<String, String> DELETED_FILES = new LinkedHashMap<>();
+
+    private static final Map<String, String> ADDED_FILES = new LinkedHashMap<>();
+
+    static {
+        // pruning the unchanged Util leaves the nearly unchanged Helper, so both files get a new fingerprint
+        DELETED_FILES.put("a/Util.java", UTIL + HELPER);
+        DELETED_FILES.put("b/Util.java", HELPER);
+        DELETED_FILES.put("c/Util.java", UTIL);
+        ADDED_FILES.put("x/Util.java", HELPER);
+        ADDED_FILES.put("y/Util.java", UTIL + EDITED_HELPER);
+        ADDED_FILES.put("z/Util.java", EDITED_HELPER);
+        ADDED_FILES.put("w/Util.java", UTIL);
+    }
+
+    /**
+     * Moved files used to be compared pairwise with every added file of the same name; the candidates by fingerprint
+     * must prune the same unchanged entities and match the same entities.
+     */
+    @Test
+    public void samePrunedEntitiesAsPairwiseComparison() {
+        MatchPair expected = new MatchPair();
+        Map<String, RootNode> fileDNTsBefore = parse(DELETED_FILES);
+        Map<String, RootNode> fileDNTsCurrent = parse(ADDED_FILES);
+        SoftwareEntityMatcherService service = new SoftwareEntityMatcherService();
+        for (String deletedFilePath : DELETED_FILES.keySet()) {
+            for (String addedFilePath : ADDED_FILES.keySet())
+                service.pruneUnchangedEntitiesInRenamedFiles(expected, Collections.singleton(deletedFilePath),
+                        Collections.singleton(addedFilePath), fileDNTsBefore, fileDNTsCurrent);
+        }
+
+        MatchPair actual = new MatchPair();
+        service.pruneUnchangedEntitiesInRenamedFiles(actual, DELETED_FILES.keySet(), ADDED_FILES.keySet(),
+                parse(DELETED_FILES), parse(ADDED_FILES));
+
+        assertFalse(expected.getMatchedEntityInfos().isEmpty());
+        assertEquals(expected.getUnchangedEntityInfos(), actual.getUnchangedEntityInfos());
+        assertEquals(expected.getMatchedEntityInfos(), actual.getMatchedEntityInfos());
+    }
+
+    private static Map<String, RootNode> parse(Map<String, String> files) {
+        JDTServiceImpl jdtService = new JDTServiceImpl();
+        Map<String, RootNode> fileDNTs = new LinkedHashMap<>();
+        for (String filePath : files.keySet())
+            fileDNTs.put(filePath, jdtService.parseFileDNT(filePath, "package org.sample;\n\n" + files.get(filePath)));
+        return fileDNTs;
+    }
+
+    /**
+     * @return a class long enough that renaming one of its fields stays below the edit distance of a move
+     */
+    private static String helper(String field) {
+        StringBuilder helper = new StringBuilder("class Helper {\n    int " + field + ";\n");
+        for (int i = 0; i < 20; i++)
+            helper.append("    void add").append(i).append("(int value) {\n        count += value + ").append(i).append(";\n    }\n");
+        return helper.append("    int count;\n}\n").toString();
+    }
+}
@@ -0,0 +1,67 @@
+package org.remapper.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CancellationTokenTest {
+
+    @Test
+    public void cancelStopsAtTheNextCheckpoint() {
+        CancellationToken token = new CancellationToken();
+        token.checkpoint();
+        assertFalse(token.isCancelled());
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertThrows(MatchingCancelledException.class, token::checkpoint);
+    }
+
+    @Test
+    public void noneCannotBeCancelled() {
+        assertThrows(UnsupportedOperationException.class, CancellationToken.NONE::cancel);
+        assertFalse(CancellationToken.NONE.isCancelled());
+        CancellationToken.NONE.checkpoint();
+    }
+
+    @Test
+    public void expiresAfterTheTimeout() {
+        CancellationToken expired = CancellationToken.withTimeout(0, TimeUnit.SECONDS, true);
+        assertTrue(expired.isCancelled());
+        assertTrue(expired.isPartialResults());
+        CancellationToken pending = CancellationToken.withTimeout(1, TimeUnit.HOURS, false);
+        assertFalse(pending.isCancelled());
+        assertFalse(pending.isPartialResults());
+    }
+
+    @Test
+    public void longTimeoutsDoNotOverflow() {
+        assertFalse(CancellationToken.withTimeout(Long.MAX_VALUE, TimeUnit.DAYS, false).isCancelled());
+    }
+
+    @Test
+    public void deadlinesDoNotOverflowForAnyOrigin() {
+        assertEquals(Long.MAX_VALUE, CancellationToken.deadline(-5, Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, CancellationToken.deadline(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, CancellationToken.deadline(10, Long.MAX_VALUE - 10));
+        assertEquals(Long.MAX_VALUE - 11, CancellationToken.deadline(10, Long.MAX_VALUE - 21));
+        assertEquals(-5 + 1000, CancellationToken.deadline(-5, 1000));
+        assertEquals(Long.MIN_VALUE + 1000, CancellationToken.deadline(Long.MIN_VALUE, 1000));
+        assertEquals(0, CancellationToken.deadline(0, 0));
+    }
+
+    @Test
+    public void interruptionCancelsWithoutClearingTheFlag() {
+        CancellationToken token = new CancellationToken();
+        Thread.currentThread().interrupt();
+        try {
+            assertTrue(token.isCancelled());
+            assertTrue(CancellationToken.NONE.isCancelled());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertFalse(token.isCancelled());
+    }
+}
@@ -0,0 +1,72 @@
+package org.remapper.util;
+
+import org.junit.Test;
+import org.remapper.dto.DeclarationNodeTree;
+import org.remapper.dto.LeafNode;
+import org.remapper.dto.MatchPair;
+import org.remapper.dto.RootNode;
+
+import static org.junit.Assert.*;
+
+public class DiceFunctionTest {
+
+    private static final String BEFORE = "class Sample {\n" +
+            "    public void run(int first, int second, int third) {\n" +
+            "        open();\n" +
+            "        close();\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String SWAPPED = "class Sample {\n" +
+            "    public void run(int first, int second, int third) {\n" +
+            "        close();\n" +
+            "        open();\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    public void sameBodyIsAnExactMatch() {
+        assertEquals(1.0, DiceFunction.calculateDiceSimilarity(method(BEFORE), method(BEFORE)), 0.0);
+    }
+
+    /**
+     * The body tokens of both methods are the same multiset, but the statements are in a different order.
+     */
+    @Test
+    public void swappedStatementsAreNotAnExactMatch() {
+        double similarity = DiceFunction.calculateDiceSimilarity(method(BEFORE), method(SWAPPED));
+        assertTrue(similarity < 1.0);
+        assertTrue(similarity > DiceFunction.minSimilarity);
+    }
+
+    /**
+     * The threshold-aware similarity may give up on a pair early, but only on pairs below the threshold.
+     */
+    @Test
+    public void thresholdOnlyCutsPairsBelowIt() {
+        String[] sources = {BEFORE, SWAPPED,
+                "class Sample {\n    public void run(int first, int second, int third) {\n        open();\n    }\n}\n",
+                "class Sample {\n    public int count() {\n        return items.size() + 1;\n    }\n}\n",
+                "class Sample {\n    public void run(int first) {\n        if (first > 0)\n            close(first);\n    }\n}\n"};
+        MatchPair matchPair = new MatchPair();
+        for (String source1 : sources) {
+            for (String source2 : sources) {
+                double exact = DiceFunction.calculateDiceSimilarity(method(source1), method(source2));
+                for (double threshold : new double[]{0.3, 0.5, 0.8, 1.0}) {
+                    double bounded = DiceFunction.calculateDiceSimilarity(matchPair, method(source1), method(source2), threshold);
+                    if (exact >= threshold)
+                        assertEquals(exact, bounded, 0.0);
+                    else
+                        assertTrue(bounded < threshold);
+                }
+            }
+        }
+        assertTrue(matchPair.getSizeBoundCutoffCount() + matchPair.getIntersectionCutoffCount() > 0);
+    }
+
+    private static LeafNode method(String source) {
+        RootNode root = new JDTServiceImpl().parseFileDNT("Sample.java", source);
+        DeclarationNodeTree type = root.getChildren().get(0);
+        return (LeafNode) type.getChildren().get(0);
+    }
+}
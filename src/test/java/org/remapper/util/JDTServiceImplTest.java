@@ -0,0 +1,116 @@
+package org.remapper.util;
+
+import org.junit.Test;
+import org.remapper.dto.DeclarationNodeTree;
+import org.remapper.dto.EntityInfo;
+import org.remapper.dto.EntityType;
+import org.remapper.dto.RootNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JDTServiceImplTest {
+
+    /**
+     * Hints at newer syntax in a comment and a string, but is valid at the default level.
+     */
+    private static final String SOURCE = "package org.remapper.sample;\n" +
+            "\n" +
+            "import java.util.List;\n" +
+            "\n" +
+            "// keeps a record of the permits, see the sealed registry\n" +
+            "public class Registry {\n" +
+            "    private String text = \"yield\";\n" +
+            "\n" +
+            "    public void add(@Deprecated java.util.List<String> names, int counts[], String... args) {\n" +
+            "    }\n" +
+            "\n" +
+            "    public boolean accept(Object o) {\n" +
+            "        return o instanceof String;\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    public void learnedLevelKeepsTheEntitiesOfTheDefaultLevel() {
+        SourceLevel learned = new SourceLevel();
+        learned.learn("17");
+        assertNotNull(learned.choose(SOURCE.toCharArray()));
+
+        List<EntityInfo> before = entities(new JDTServiceImpl(null, new SourceLevel()).parseFileDNT("Registry.java", SOURCE));
+        List<EntityInfo> after = entities(new JDTServiceImpl(null, learned).parseFileDNT("Registry.java", SOURCE));
+        assertEquals(before, after);
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getParams(), after.get(i).getParams());
+            if (before.get(i).getType() == EntityType.METHOD)
+                params.add(after.get(i).getParams());
+        }
+        // the parameter types come from the method bindings, not from the source text
+        assertEquals(List.of("List<String>,int[],String[]", "Object"), params);
+    }
+
+    /**
+     * The structural hash only rules out declarations that print differently, so declarations that print the same
+     * must have the same hash, including the detached copies made for the fragments of a field.
+     */
+    @Test
+    public void samePrintedDeclarationsHaveTheSameHash() {
+        String formatted = "package org.remapper.sample;\n" +
+                "\n" +
+                "@SuppressWarnings(\"unused\")\n" +
+                "public class Sample {\n" +
+                "    @Deprecated private int first = 1, second[] = {2}, third;\n" +
+                "\n" +
+                "    private String text = \"\"\"\n" +
+                "            multi-line\n" +
+                "            text\"\"\";\n" +
+                "\n" +
+                "    @SafeVarargs\n" +
+                "    public final <T> void add(@Deprecated T... values) {\n" +
+                "        // nothing to add\n" +
+                "    }\n" +
+                "}\n";
+        String compact = "package org.remapper.sample;\n" +
+                "@SuppressWarnings( \"unused\" ) public class Sample {\n" +
+                "  @Deprecated\n" +
+                "  private int first=1,second[]={2},third;\n" +
+                "  private String text = \"\"\"\n" +
+                "            multi-line\n" +
+                "            text\"\"\";\n" +
+                "  @SafeVarargs public final <T>void add(@Deprecated T ...values){}\n" +
+                "}\n";
+        SourceLevel level = new SourceLevel();
+        level.learn("17");
+        List<DeclarationNodeTree> before = declarations(new JDTServiceImpl(null, level).parseFileDNT("Sample.java", formatted));
+        List<DeclarationNodeTree> after = declarations(new JDTServiceImpl(null, level).parseFileDNT("Sample.java", compact));
+        assertEquals(6, before.size());
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getDeclaration().toString(), after.get(i).getDeclaration().toString());
+            assertTrue(before.get(i).getName(), before.get(i).hasSameDeclaration(after.get(i)));
+        }
+        assertFalse(before.get(2).hasSameDeclaration(after.get(3)));
+    }
+
+    private static List<EntityInfo> entities(RootNode root) {
+        List<EntityInfo> entities = new ArrayList<>();
+        for (DeclarationNodeTree node : declarations(root))
+            entities.add(node.getEntity());
+        return entities;
+    }
+
+    private static List<DeclarationNodeTree> declarations(RootNode root) {
+        List<DeclarationNodeTree> declarations = new ArrayList<>();
+        Deque<DeclarationNodeTree> nodes = new ArrayDeque<>(root.getChildren());
+        while (!nodes.isEmpty()) {
+            DeclarationNodeTree node = nodes.poll();
+            declarations.add(node);
+            nodes.addAll(node.getChildren());
+        }
+        return declarations;
+    }
+}
@@ -0,0 +1,83 @@
+package org.remapper.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.remapper.dto.EntityMatchingJSON;
+import org.remapper.dto.LocationDeserializer;
+import org.remapper.dto.MatchPair;
+import org.remapper.handler.MatchingHandler;
+import org.remapper.service.EntityMatcherServiceImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class JsonLinesWriterTest {
+
+    private static final String CLONE_URL = "https://github.com/remapper/sample.git";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The JSON Lines file replaced rewriting the whole -json document after each commit; converted back, it must
+     * give the same document.
+     */
+    @Test
+    public void convertsToTheDocumentOfTheJsonOption() throws Exception {
+        MatchPair first = match("Shape.java",
+                "class Shape {\n    int area() {\n        return 0;\n    }\n}\n",
+                "class Shape {\n    int area() {\n        return width * height;\n    }\n    int width, height;\n}\n");
+        MatchPair second = match("Point.java",
+                "class Point {\n    int x;\n    void move(int dx) {\n        x += dx;\n    }\n}\n",
+                "class Point {\n    int x, y;\n    void moveBy(int dx, int dy) {\n        x += dx;\n        y += dy;\n    }\n}\n");
+
+        Path jsonLinesFile = folder.getRoot().toPath().resolve("out/results.jsonl");
+        try (JsonLinesWriter writer = new JsonLinesWriter(jsonLinesFile, true, false)) {
+            writer.write(CLONE_URL, "a1", url("a1"), first);
+        }
+        try (JsonLinesWriter writer = new JsonLinesWriter(jsonLinesFile, true, false)) {
+            writer.write(CLONE_URL, "b2", url("b2"), second);
+        }
+        assertEquals(2, Files.readAllLines(jsonLinesFile, StandardCharsets.UTF_8).size());
+        Path jsonFile = folder.getRoot().toPath().resolve("out/results.json");
+        JsonLinesWriter.toJSON(jsonLinesFile, jsonFile);
+
+        Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting()
+                .registerTypeAdapter(EntityMatchingJSON.Location.class, new LocationDeserializer()).create();
+        EntityMatchingJSON results = new EntityMatchingJSON();
+        results.populateJSON(CLONE_URL, "a1", url("a1"), first, true, false);
+        results = gson.fromJson(gson.toJson(results, EntityMatchingJSON.class), EntityMatchingJSON.class);
+        results.populateJSON(CLONE_URL, "b2", url("b2"), second, true, false);
+        String expected = gson.toJson(results, EntityMatchingJSON.class);
+
+        String actual = Files.readString(jsonFile, StandardCharsets.UTF_8);
+        assertEquals(JsonParser.parseString(expected), JsonParser.parseString(actual));
+    }
+
+    private MatchPair match(String name, String before, String after) throws Exception {
+        File previousFile = write("before/" + name, before);
+        File nextFile = write("after/" + name, after);
+        return new EntityMatcherServiceImpl().matchEntities(previousFile, nextFile, new MatchingHandler() {
+        });
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static String url(String commitId) {
+        return CLONE_URL.replace(".git", "/commit/") + commitId;
+    }
+}
@@ -0,0 +1,117 @@
+package org.remapper.util;
+
+import org.junit.Test;
+import org.remapper.dto.TokenBag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MinHashBlockingTest {
+
+    private static final int PAIRS = 200;
+
+    @Test
+    public void smallGridsAreComparedExhaustively() {
+        MinHashBlocking blocking = new MinHashBlocking();
+        assertFalse(blocking.isApplicable(99, 100));
+        assertTrue(blocking.isApplicable(100, 100));
+        assertTrue(new MinHashBlocking(4, 2, 0).isApplicable(1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBands() {
+        new MinHashBlocking(0, 2, 0);
+    }
+
+    @Test
+    public void identicalBagsAreAlwaysCandidates() {
+        Random random = new Random(1);
+        List<TokenBag> before = new ArrayList<>();
+        for (int i = 0; i < PAIRS; i++)
+            before.add(TokenBag.of(randomTokens(random, 1 + random.nextInt(40))));
+        List<BitSet> candidates = new MinHashBlocking().candidates(before, before, Collections::singletonList);
+        for (int i = 0; i < PAIRS; i++)
+            assertTrue(candidates.get(i).get(i));
+    }
+
+    /**
+     * At the Dice threshold of 0.5 the defaults should keep about 98% of the pairs, see {@link MinHashBlocking}.
+     */
+    @Test
+    public void keepsMostPairsAtTheThreshold() {
+        assertTrue(recall(new MinHashBlocking(), 15, 15) >= 0.9);
+    }
+
+    @Test
+    public void keepsSimilarPairs() {
+        assertTrue(recall(new MinHashBlocking(), 20, 10) >= 0.99);
+    }
+
+    @Test
+    public void moreBandsKeepMorePairs() {
+        assertTrue(recall(new MinHashBlocking(64, 2, 0), 15, 15) >= recall(new MinHashBlocking(8, 2, 0), 15, 15));
+    }
+
+    @Test
+    public void dropsUnrelatedPairs() {
+        Random random = new Random(3);
+        List<TokenBag> before = new ArrayList<>();
+        List<TokenBag> current = new ArrayList<>();
+        for (int i = 0; i < PAIRS; i++) {
+            before.add(TokenBag.of(randomTokens(random, 30)));
+            current.add(TokenBag.of(randomTokens(random, 30)));
+        }
+        List<BitSet> candidates = new MinHashBlocking().candidates(before, current, Collections::singletonList);
+        int kept = 0;
+        for (BitSet row : candidates)
+            kept += row.cardinality();
+        assertTrue(kept < PAIRS * PAIRS / 100);
+    }
+
+    @Test
+    public void emptyBagsHaveNoCandidates() {
+        List<TokenBag> bags = Collections.singletonList(TokenBag.empty());
+        List<BitSet> candidates = new MinHashBlocking().candidates(bags, bags, Collections::singletonList);
+        assertTrue(candidates.get(0).isEmpty());
+    }
+
+    /**
+     * @return the share of pairs of bags with the given numbers of shared and own tokens that become candidates
+     */
+    private static double recall(MinHashBlocking blocking, int shared, int own) {
+        Random random = new Random(2);
+        List<TokenBag> before = new ArrayList<>();
+        List<TokenBag> current = new ArrayList<>();
+        for (int i = 0; i < PAIRS; i++) {
+            long[] common = randomTokens(random, shared);
+            before.add(TokenBag.of(concat(common, randomTokens(random, own))));
+            current.add(TokenBag.of(concat(common, randomTokens(random, own))));
+        }
+        List<BitSet> candidates = blocking.candidates(before, current, Collections::singletonList);
+        int kept = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            if (candidates.get(i).get(i))
+                kept++;
+        }
+        return (double) kept / PAIRS;
+    }
+
+    private static long[] randomTokens(Random random, int size) {
+        long[] tokens = new long[size];
+        for (int i = 0; i < size; i++)
+            tokens[i] = random.nextLong();
+        return tokens;
+    }
+
+    private static long[] concat(long[] tokens1, long[] tokens2) {
+        long[] tokens = new long[tokens1.length + tokens2.length];
+        System.arraycopy(tokens1, 0, tokens, 0, tokens1.length);
+        System.arraycopy(tokens2, 0, tokens, tokens1.length, tokens2.length);
+        return tokens;
+    }
+}
@@ -0,0 +1,66 @@
+package org.remapper.util;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PackageScannerTest {
+
+    private static final String[] SOURCES = {
+            "package org.remapper;\n\npublic class A {}",
+            "package a;",
+            "class A {}",
+            "",
+            "/* header */\n// comment\npackage org . remapper /* x */ . util ;\nimport java.util.*;",
+            "/**\n * package org.wrong;\n */\npackage org.right;",
+            "@Deprecated\npackage org.annotated;",
+            "@javax.annotation.ParametersAreNonnullByDefault\npackage org.qualified;",
+            "@SuppressWarnings({\"a)\", \"b\"}) @Foo(value = ')', other = @Bar(x = 1))\npackage org.arguments;",
+            "import java.util.List;\nclass A {}",
+            "package \u00e9t\u00e9.caf\u00e9;",
+    };
+
+    @Test
+    public void readsThePackageDeclaration() {
+        assertEquals("org.remapper", PackageScanner.scan("package org.remapper;\n\npublic class A {}"));
+        assertEquals("org.remapper.util", PackageScanner.scan(SOURCES[4]));
+        assertEquals("org.right", PackageScanner.scan(SOURCES[5]));
+        assertEquals("org.arguments", PackageScanner.scan(SOURCES[8]));
+        assertEquals("org.bom", PackageScanner.scan("\uFEFFpackage org.bom;"));
+    }
+
+    @Test
+    public void defaultPackageHasNoName() {
+        assertNull(PackageScanner.scan("class A {}"));
+        assertNull(PackageScanner.scan(""));
+        assertNull(PackageScanner.scan("import java.util.List;"));
+    }
+
+    @Test
+    public void unreadableDeclarationsHaveNoName() {
+        assertNull(PackageScanner.scan("package org.remapper"));
+        assertNull(PackageScanner.scan("package org..remapper;"));
+        assertNull(PackageScanner.scan("package ;"));
+        assertNull(PackageScanner.scan("packageorg.remapper;"));
+        assertNull(PackageScanner.scan("@Foo(\"unterminated\npackage org.remapper;"));
+    }
+
+    /**
+     * The scanner replaced a full parse of every changed file and must read the same package names.
+     */
+    @Test
+    public void sameNameAsFullParse() {
+        for (String source : SOURCES)
+            assertEquals(source, parsePackageName(source), PackageScanner.scan(source));
+    }
+
+    private static String parsePackageName(String code) {
+        ASTParser astParser = ASTParserUtils.getFastParser();
+        astParser.setSource(code.toCharArray());
+        CompilationUnit cu = (CompilationUnit) astParser.createAST(null);
+        if (cu.getPackage() == null) return null;
+        return cu.getPackage().getName().toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.remapper.util;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParseCacheTest {
+
+    @Test
+    public void blobIdIsTheGitBlobId() {
+        assertEquals("e69de29bb2d1d6434b8b29ae775ad8c2e48c5391", ParseCache.blobId("").getName());
+        assertEquals("ce013625030ba8dba906f756967f9e9ca394464a", ParseCache.blobId("hello\n").getName());
+    }
+
+    @Test
+    public void weighsEntriesBySourceLength() {
+        ParseCache cache = new ParseCache(1000);
+        cache.put(id(1), newUnit(), 10);
+        cache.put(id(2), newUnit(), 15);
+        assertEquals(2, cache.size());
+        assertEquals(500, cache.getWeight());
+        cache.put(id(1), newUnit(), 5);
+        assertEquals(400, cache.getWeight());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntries() {
+        ParseCache cache = new ParseCache(1000);
+        CompilationUnit first = newUnit();
+        cache.put(id(1), first, 20);
+        cache.put(id(2), newUnit(), 20);
+        assertSame(first, cache.get(id(1)));
+        cache.put(id(3), newUnit(), 20);
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(first, cache.get(id(1)));
+        assertNull(cache.get(id(2)));
+        assertNotNull(cache.get(id(3)));
+        assertEquals(800, cache.getWeight());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void skipsUnitsLargerThanTheBudget() {
+        ParseCache cache = new ParseCache(1000);
+        cache.put(id(1), newUnit(), 20);
+        cache.put(id(2), newUnit(), 51);
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+        assertNull(cache.get(id(2)));
+    }
+
+    @Test
+    public void sameContentIsParsedOnce() {
+        ParseCache cache = new ParseCache();
+        String source = "package org.remapper.sample;\n\nclass Sample {\n    /** doc */\n    void run() {}\n}\n";
+        JDTServiceImpl jdtService = new JDTServiceImpl(cache, new SourceLevel());
+        jdtService.parseFileDNT("a/Sample.java", source);
+        jdtService.parseFileDNT("b/Sample.java", source);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHitCount());
+        TypeDeclaration type = (TypeDeclaration) cache.get(ParseCache.blobId(source)).types().get(0);
+        assertNull(type.getMethods()[0].getJavadoc());
+    }
+
+    private static ObjectId id(int value) {
+        return ParseCache.blobId(String.valueOf(value));
+    }
+
+    private static CompilationUnit newUnit() {
+        return AST.newAST(AST.getJLSLatest(), false).newCompilationUnit();
+    }
+}
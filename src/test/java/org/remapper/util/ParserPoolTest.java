@@ -0,0 +1,102 @@
+package org.remapper.util;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ParserPoolTest {
+
+    @Test
+    public void collectsTheFilesInTheirOrder() {
+        ParserPool pool = new ParserPool(4, 2);
+        try {
+            Map<String, String> fileContents = fileContents(20);
+            Map<String, String> results = new LinkedHashMap<>();
+            pool.parse(fileContents, (filePath, fileContent) -> filePath + ":" + fileContent, results);
+            List<String> expected = new ArrayList<>();
+            for (String filePath : fileContents.keySet())
+                expected.add(filePath + ":" + fileContents.get(filePath));
+            assertEquals(new ArrayList<>(fileContents.keySet()), new ArrayList<>(results.keySet()));
+            assertEquals(expected, new ArrayList<>(results.values()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void checksTheTokenBetweenFiles() {
+        for (ParserPool pool : Arrays.asList(new ParserPool(1), new ParserPool(4, 2))) {
+            try {
+                CancellationToken token = new CancellationToken();
+                AtomicInteger parsed = new AtomicInteger();
+                Map<String, Integer> results = new HashMap<>();
+                assertThrows(MatchingCancelledException.class, () -> pool.parse(fileContents(20), (filePath, fileContent) -> {
+                    if (parsed.incrementAndGet() == 2)
+                        token.cancel();
+                    return 0;
+                }, results, token));
+                assertTrue(results.size() < 20);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void interruptionCancelsTheParse() throws InterruptedException {
+        ParserPool pool = new ParserPool(2, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                pool.parse(fileContents(4), (filePath, fileContent) -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(60_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 0;
+                }, new HashMap<>());
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        try {
+            caller.start();
+            started.await();
+            caller.interrupt();
+            caller.join();
+            assertTrue(failure.get() instanceof MatchingCancelledException);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void errorsPassThroughUnchanged() {
+        ParserPool pool = new ParserPool(2, 2);
+        try {
+            StackOverflowError error = new StackOverflowError();
+            StackOverflowError thrown = assertThrows(StackOverflowError.class, () -> pool.parse(fileContents(4),
+                    (filePath, fileContent) -> {
+                        throw error;
+                    }, new HashMap<>()));
+            assertSame(error, thrown);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Map<String, String> fileContents(int files) {
+        Map<String, String> fileContents = new LinkedHashMap<>();
+        for (int i = files; i > 0; i--)
+            fileContents.put("src/File" + i + ".java", "class File" + i + " {}");
+        return fileContents;
+    }
+}
@@ -0,0 +1,67 @@
+package org.remapper.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SourceLevelTest {
+
+    @Test
+    public void newerKeywordsAreHints() {
+        assertTrue(mayUseNewerSyntax("record Point(int x, int y) {}"));
+        assertTrue(mayUseNewerSyntax("public sealed interface Shape permits Circle {}"));
+        assertTrue(mayUseNewerSyntax("int x = switch (k) { default -> { yield 1; } };"));
+        assertTrue(mayUseNewerSyntax("String s = \"\"\"\n    text\n    \"\"\";"));
+    }
+
+    @Test
+    public void identifiersContainingKeywordsAreNotHints() {
+        assertFalse(mayUseNewerSyntax("int records = recordCount + myrecord;"));
+        assertFalse(mayUseNewerSyntax("void unsealed() { permitsAll(); }"));
+        assertFalse(mayUseNewerSyntax("String s = \"\";"));
+    }
+
+    @Test
+    public void plainInstanceofIsNotAHint() {
+        assertFalse(mayUseNewerSyntax("if (o instanceof String) return;"));
+        assertFalse(mayUseNewerSyntax("if (o instanceof String && flag) return;"));
+        assertFalse(mayUseNewerSyntax("boolean b = o instanceof java.util.List<?>;"));
+        assertFalse(mayUseNewerSyntax("boolean b = o instanceof int[] || o instanceof Foo.Bar;"));
+    }
+
+    @Test
+    public void instanceofPatternsAreHints() {
+        assertTrue(mayUseNewerSyntax("if (o instanceof String s) return;"));
+        assertTrue(mayUseNewerSyntax("if (o instanceof final String s) return;"));
+        assertTrue(mayUseNewerSyntax("if (o instanceof java.util.Map.Entry<?, ?> e) return;"));
+        assertTrue(mayUseNewerSyntax("if (o instanceof int[] a) return;"));
+        assertTrue(mayUseNewerSyntax("if (o instanceof Point(int x, int y)) return;"));
+    }
+
+    @Test
+    public void choosesTheLearnedVersionOnlyForHintedSources() {
+        SourceLevel level = new SourceLevel();
+        char[] record = "record Point(int x) {}".toCharArray();
+        char[] plain = "class Point { int x; }".toCharArray();
+        assertNull(level.choose(record));
+        level.learn("1.8");
+        assertNull(level.getLearnedVersion());
+        level.learn("17");
+        level.learn("16");
+        assertEquals("17", level.getLearnedVersion());
+        assertEquals("17", level.choose(record));
+        assertNull(level.choose(plain));
+    }
+
+    @Test
+    public void comparesVersionsNumerically() {
+        assertTrue(SourceLevel.isNewer("17", "1.8"));
+        assertFalse(SourceLevel.isNewer("1.8", "17"));
+        assertFalse(SourceLevel.isNewer("unknown", "1.8"));
+        assertFalse(SourceLevel.isNewer("17", "unknown"));
+    }
+
+    private static boolean mayUseNewerSyntax(String source) {
+        return SourceLevel.mayUseNewerSyntax(source.toCharArray());
+    }
+}